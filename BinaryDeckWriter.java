@@ -0,0 +1,65 @@
+package quizcard;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/** BinaryDeckWriter - writes the indexed binary format read by MappedCardList.
+ *
+ * The layout is a header (magic, version), then one record per card (question length, question bytes, answer
+ * length, answer bytes, all UTF-8), then a table holding the offset of every record, and finally a trailer with
+ * the table offset, the card count and the magic again. Keeping the table at the end lets the file be written in
+ * one forward pass. */
+class BinaryDeckWriter implements DeckWriter {
+    static final int MAGIC = 0x51434442; // "QCDB"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 2 * Integer.BYTES;
+    static final int TRAILER_SIZE = 2 * Long.BYTES + Integer.BYTES;
+
+    private final DataOutputStream output;
+    private long position;
+    private long[] offsets = new long[1024];
+    private int count;
+
+    BinaryDeckWriter(Path path) throws IOException {
+        output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        position = HEADER_SIZE;
+    }
+
+    @Override
+    public void write(String question, String answer) throws IOException {
+        if(count == offsets.length){
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+        offsets[count++] = position;
+        writeText(question);
+        writeText(answer);
+    }
+
+    private void writeText(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+        position += Integer.BYTES + bytes.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try{
+            for(int i = 0; i < count; i++){
+                output.writeLong(offsets[i]);
+            }
+            output.writeLong(position);
+            output.writeLong(count);
+            output.writeInt(MAGIC);
+        }finally{
+            output.close();
+        }
+    }
+}
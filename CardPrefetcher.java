@@ -0,0 +1,116 @@
+package quizcard;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+
+/** CardPrefetcher - builds the Documents of the cards the player is about to show on a background thread, so that
+ * moving to the next question or answer swaps a finished model into a text area instead of inserting the whole
+ * text on the event thread. A Document that no component is showing yet belongs to no thread, so building one
+ * off the event thread is safe; it is handed over through a CompletableFuture.
+ *
+ * The player asks for the answer of the card on screen and for the cards the Scheduler has lined up after it.
+ * Only the CAPACITY Documents asked for most recently are kept, and a Document is given out once. A card that was
+ * not asked for in time is built on the spot, as before. Every method but the builder's runs on the event thread. */
+class CardPrefetcher {
+    /** LOOK_AHEAD - how many cards after the current one are prepared. */
+    static final int LOOK_AHEAD = 2;
+
+    private static final int CAPACITY = 2 * (LOOK_AHEAD + 1);
+
+    private final List<QuizCard> quizCards;
+    private final ExecutorService builder = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "card-prefetch");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+    private final Map<Long, CompletableFuture<Document>> prepared = new LinkedHashMap<>(16, 0.75f, true);
+
+    CardPrefetcher(List<QuizCard> quizCards){
+        this.quizCards = quizCards;
+    }
+
+    /** prefetch - starts building the question and the answer of card, unless they are built or being built. */
+    void prefetch(int card){
+        prefetch(card, false);
+        prefetch(card, true);
+    }
+
+    private CompletableFuture<Document> prefetch(int card, boolean isAnswer){
+        long key = key(card, isAnswer);
+        CompletableFuture<Document> document = prepared.get(key);
+        if(document == null){
+            QuizCard quizCard = quizCards.get(card);
+            document = CompletableFuture.supplyAsync(() -> build(textOf(quizCard, isAnswer)), builder);
+            prepared.put(key, document);
+            evict();
+        }
+        return document;
+    }
+
+    /** whenReady - hands the Document of the question or answer of card to onReady, on the event thread, once it is
+     * built, starting to build it if need be. It is then taken. */
+    void whenReady(int card, boolean isAnswer, Consumer<Document> onReady){
+        long key = key(card, isAnswer);
+        CompletableFuture<Document> document = prefetch(card, isAnswer);
+        document.thenAcceptAsync(built -> {
+            if(prepared.remove(key, document)){
+                onReady.accept(built);
+            }
+        }, SwingUtilities::invokeLater);
+    }
+
+    /** take - the Document of the question or answer of card, ready to be shown. Built now if it was not
+     * prefetched or is not finished: waiting for the builder would be no quicker. */
+    Document take(int card, boolean isAnswer){
+        CompletableFuture<Document> document = prepared.remove(key(card, isAnswer));
+        if(document != null && document.isDone() && !document.isCompletedExceptionally()){
+            return document.join();
+        }
+        return build(textOf(quizCards.get(card), isAnswer));
+    }
+
+    /** close - stops the builder. Documents being built are dropped. */
+    void close(){
+        builder.shutdownNow();
+        prepared.clear();
+    }
+
+    private void evict(){
+        Iterator<CompletableFuture<Document>> oldest = prepared.values().iterator();
+        while(prepared.size() > CAPACITY){
+            oldest.next().cancel(false);
+            oldest.remove();
+        }
+    }
+
+    /** build - a Document holding text, as JTextArea.setText would have made it. */
+    static Document build(String text){
+        PlainDocument document = new PlainDocument();
+        try{
+            document.insertString(0, text, null);
+        }catch(BadLocationException badLocationEx){
+            throw new IllegalStateException(badLocationEx);
+        }
+        return document;
+    }
+
+    /** textOf - the question or answer of quizCard as the player shows it, with its images taken out. */
+    static String textOf(QuizCard quizCard, boolean isAnswer){
+        return ImageStore.stripReferences(isAnswer ? quizCard.getAnswer() : quizCard.getQuestion());
+    }
+
+    static long key(int card, boolean isAnswer){
+        return 2L * card + (isAnswer ? 1 : 0);
+    }
+}
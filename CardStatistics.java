@@ -0,0 +1,222 @@
+package quizcard;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/** CardStatistics - how each card of a Deck has been answered over time: attempts, correct answers, when it was
+ * last seen and the current run of correct answers.
+ *
+ * The figures are stored as primitive columns indexed by slot, memory-mapped from a file next to the deck, so
+ * recording an answer is a few writes into the mapping: nothing is allocated and nothing is rewritten. The first
+ * column holds the id DeckPatch gives the card of each slot, so the figures stay with the card when the deck is
+ * shuffled or other cards are removed; opening the file matches the cards to their slots by id once, and cards
+ * it does not know yet get new slots at the end. The columns are sized for a capacity that doubles, by copying
+ * into a new file, when more slots are needed. Decks that have not been saved yet keep their statistics on the
+ * heap. */
+class CardStatistics {
+    private static final int MAGIC = 0x51435354; // "QCST"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 4 * Integer.BYTES;
+    private static final int CAPACITY_OFFSET = 2 * Integer.BYTES;
+    private static final int USED_OFFSET = 3 * Integer.BYTES;
+    private static final int[] COLUMN_WIDTHS = {Long.BYTES, Integer.BYTES, Integer.BYTES, Integer.BYTES, Long.BYTES};
+    private static final int BYTES_PER_CARD = 2 * Long.BYTES + 3 * Integer.BYTES;
+    private static final int MINIMUM_CAPACITY = 1024;
+
+    private final Path path;
+    private ByteBuffer buffer;
+    private int capacity;
+    private int used;
+    private int[] slots;
+
+    private CardStatistics(Path path, ByteBuffer buffer){
+        this.path = path;
+        this.buffer = buffer;
+        capacity = buffer.getInt(CAPACITY_OFFSET);
+        used = buffer.getInt(USED_OFFSET);
+    }
+
+    /** open - maps the statistics file of the deck saved at deckPath, creating it if needed, for the cards whose
+     * ids (see DeckPatch.cardIds) are given, in the order of the deck they are the cards of. A deck that has never
+     * been saved, with a deckPath of null, keeps its statistics on the heap. Matching every card to its slot takes
+     * time in proportion to the deck, so this runs off the event thread. */
+    static CardStatistics open(Path deckPath, long[] ids) throws IOException {
+        CardStatistics statistics = openFile(deckPath, Math.max(MINIMUM_CAPACITY, ids.length));
+        statistics.assignSlots(ids);
+        return statistics;
+    }
+
+    private static CardStatistics openFile(Path deckPath, int cards) throws IOException {
+        if(deckPath == null){
+            return new CardStatistics(null, allocate(ByteBuffer.allocate(sizeFor(cards)), cards));
+        }
+        Path path = deckPath.resolveSibling(deckPath.getFileName() + ".stats");
+        if(Files.exists(path)){
+            MappedByteBuffer mapped = map(path);
+            if(mapped.capacity() >= HEADER_SIZE && mapped.getInt(0) == MAGIC
+                    && mapped.getInt(Integer.BYTES) == VERSION
+                    && mapped.capacity() == sizeFor(mapped.getInt(CAPACITY_OFFSET))
+                    && mapped.getInt(USED_OFFSET) >= 0 && mapped.getInt(USED_OFFSET) <= mapped.getInt(CAPACITY_OFFSET)){
+                return new CardStatistics(path, mapped);
+            }
+            System.err.println("Ignoring unreadable statistics file " + path.getFileName());
+        }
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        create(temporary, cards);
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new CardStatistics(path, map(path));
+    }
+
+    /** assignSlots - finds the slot of every card by its id, giving the cards that have none a new one. */
+    private void assignSlots(long[] ids) throws IOException {
+        DeckPatch.IdTable known = new DeckPatch.IdTable();
+        for(int slot = 0; slot < used; slot++){
+            known.put(buffer.getLong(idOffset(slot)), slot);
+        }
+        slots = new int[ids.length];
+        int missing = 0;
+        for(int card = 0; card < ids.length; card++){
+            int found = known.find(ids[card]);
+            slots[card] = found < 0 ? -1 : (int) known.valueAt(found);
+            if(found < 0){
+                missing++;
+            }
+        }
+        ensureCapacity((int) Math.min(Integer.MAX_VALUE, (long) used + missing));
+        for(int card = 0; card < ids.length; card++){
+            if(slots[card] < 0){
+                slots[card] = used;
+                buffer.putLong(idOffset(used++), ids[card]);
+            }
+        }
+        buffer.putInt(USED_OFFSET, used);
+    }
+
+    /** record - counts one answer to a card, at the time given in milliseconds. */
+    void record(int card, boolean isCorrect, long now){
+        int slot = slots[card];
+        int attempts = attemptsOffset(slot);
+        buffer.putInt(attempts, buffer.getInt(attempts) + 1);
+        int correct = correctOffset(slot);
+        int streak = streakOffset(slot);
+        if(isCorrect){
+            buffer.putInt(correct, buffer.getInt(correct) + 1);
+            buffer.putInt(streak, buffer.getInt(streak) + 1);
+        }else{
+            buffer.putInt(streak, 0);
+        }
+        buffer.putLong(lastSeenOffset(slot), now);
+    }
+
+    int getAttempts(int card){
+        return buffer.getInt(attemptsOffset(slots[card]));
+    }
+
+    int getCorrect(int card){
+        return buffer.getInt(correctOffset(slots[card]));
+    }
+
+    long getLastSeen(int card){
+        return buffer.getLong(lastSeenOffset(slots[card]));
+    }
+
+    int getStreak(int card){
+        return buffer.getInt(streakOffset(slots[card]));
+    }
+
+    /** flush - forces the mapped columns to disk. */
+    void flush(){
+        if(buffer instanceof MappedByteBuffer){
+            ((MappedByteBuffer) buffer).force();
+        }
+    }
+
+    private int idOffset(int slot){
+        return HEADER_SIZE + slot * Long.BYTES;
+    }
+
+    private int attemptsOffset(int slot){
+        return HEADER_SIZE + capacity * Long.BYTES + slot * Integer.BYTES;
+    }
+
+    private int correctOffset(int slot){
+        return HEADER_SIZE + capacity * (Long.BYTES + Integer.BYTES) + slot * Integer.BYTES;
+    }
+
+    private int streakOffset(int slot){
+        return HEADER_SIZE + capacity * (Long.BYTES + 2 * Integer.BYTES) + slot * Integer.BYTES;
+    }
+
+    private int lastSeenOffset(int slot){
+        return HEADER_SIZE + capacity * (Long.BYTES + 3 * Integer.BYTES) + slot * Long.BYTES;
+    }
+
+    /** ensureCapacity - regrows the columns to hold at least the given number of slots. As every column starts
+     * at a multiple of the capacity, they are copied one by one into a larger buffer, which replaces the file
+     * with an atomic rename. */
+    private void ensureCapacity(int cards) throws IOException {
+        if(cards <= capacity){
+            return;
+        }
+        int newCapacity = (int) Math.min(Math.max(cards, 2L * capacity), (Integer.MAX_VALUE - HEADER_SIZE)
+                / BYTES_PER_CARD);
+        if(newCapacity < cards){
+            throw new IOException("Too many cards for one statistics file");
+        }
+        ByteBuffer grown;
+        Path temporary = null;
+        if(path == null){
+            grown = allocate(ByteBuffer.allocate(sizeFor(newCapacity)), newCapacity);
+        }else{
+            flush();
+            temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            create(temporary, newCapacity);
+            grown = map(temporary);
+        }
+        int oldColumn = HEADER_SIZE;
+        int newColumn = HEADER_SIZE;
+        grown.putInt(USED_OFFSET, used);
+        for(int width : COLUMN_WIDTHS){
+            grown.put(newColumn, buffer, oldColumn, capacity * width);
+            oldColumn += capacity * width;
+            newColumn += newCapacity * width;
+        }
+        if(temporary != null){
+            ((MappedByteBuffer) grown).force();
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        buffer = grown;
+        capacity = newCapacity;
+    }
+
+    private static int sizeFor(int capacity){
+        return HEADER_SIZE + capacity * BYTES_PER_CARD;
+    }
+
+    private static ByteBuffer allocate(ByteBuffer buffer, int capacity){
+        buffer.putInt(0, MAGIC).putInt(Integer.BYTES, VERSION).putInt(CAPACITY_OFFSET, capacity).putInt(USED_OFFSET, 0);
+        return buffer;
+    }
+
+    private static void create(Path path, int capacity) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)){
+            ByteBuffer header = allocate(ByteBuffer.allocate(HEADER_SIZE), capacity);
+            channel.write(header, 0);
+            // Extending the file leaves the columns zero filled.
+            channel.write(ByteBuffer.allocate(1), sizeFor(capacity) - 1);
+        }
+    }
+
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+    }
+}
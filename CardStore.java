@@ -0,0 +1,243 @@
+package quizcard;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.RandomAccess;
+
+/** CardStore - the cards of a Deck, changed in place on the thread that edits the deck, with snapshots that cost
+ * O(1) whatever the size of the deck (see CardVector). A save, a compaction or a test reads a snapshot while
+ * editing carries on, and the undo history is just a stack of them.
+ *
+ * Every node of the trie records the owner that created it. Taking a snapshot starts a new owner, so the nodes
+ * the snapshot shares are copied before the store next changes them, and only along the path of the card that
+ * changed. Nothing is locked: the store is only used by one thread, and snapshots never change. */
+class CardStore extends AbstractList<QuizCard> implements RandomAccess {
+    private List<QuizCard> base;
+    private CardVector.Node root;
+    private int shift;
+    private int size;
+    private CardVector.Origin origin;
+    private Object owner = new Object();
+
+    CardStore(){
+        this(Collections.emptyList());
+    }
+
+    /** CardStore - a store holding the cards of base, which must not be changed afterwards. */
+    CardStore(List<QuizCard> base){
+        reset(base);
+    }
+
+    @Override
+    public QuizCard get(int index){
+        if(index < 0 || index >= size){
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return CardVector.get(base, root, shift, index);
+    }
+
+    @Override
+    public int size(){
+        return size;
+    }
+
+    @Override
+    public boolean add(QuizCard quizCard){
+        if(size == Integer.MAX_VALUE){
+            throw new IllegalStateException("The deck is full");
+        }
+        if(shift < Integer.SIZE - CardVector.BITS && size >>> shift >= CardVector.WIDTH){
+            Object[] slots = new Object[CardVector.WIDTH];
+            slots[0] = root;
+            root = new CardVector.Node(owner, slots);
+            shift += CardVector.BITS;
+        }
+        size++;
+        put(size - 1, quizCard);
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public QuizCard set(int index, QuizCard quizCard){
+        QuizCard previous = get(index);
+        put(index, quizCard);
+        return previous;
+    }
+
+    /** truncate - drops every card from newSize on. */
+    void truncate(int newSize){
+        if(newSize < 0 || newSize > size){
+            throw new IndexOutOfBoundsException("Size: " + newSize + ", current size: " + size);
+        }
+        if(newSize < base.size()){
+            int[] positions = new int[newSize];
+            Arrays.setAll(positions, i -> i);
+            reset(select(snapshot(), positions));
+        }else{
+            size = newSize; // the slots beyond are overwritten before they can be read again
+            modCount++;
+        }
+    }
+
+    /** removeCards - drops the cards at indexes, which are sorted, keeping the others in order. The kept cards
+     * become the new base list, which picks them out by index (see select). */
+    void removeCards(int[] indexes){
+        CardVector before = snapshot();
+        int[] positions = new int[size - indexes.length];
+        int next = 0;
+        int kept = 0;
+        for(int i = 0; i < size; i++){
+            if(next < indexes.length && indexes[next] == i){
+                next++;
+            }else{
+                positions[kept++] = i;
+            }
+        }
+        reset(select(before, positions));
+        origin = new CardVector.Origin(before, 0, indexes.clone());
+    }
+
+    /** snapshot - the cards as they are now, unaffected by later changes to the store. */
+    CardVector snapshot(){
+        CardVector snapshot = new CardVector(base, root, shift, size, origin);
+        owner = new Object();
+        return snapshot;
+    }
+
+    /** restore - makes the store hold the cards of an earlier snapshot. */
+    void restore(CardVector snapshot){
+        base = snapshot.base;
+        root = snapshot.root;
+        shift = snapshot.shift;
+        size = snapshot.size;
+        origin = snapshot.origin;
+        owner = new Object();
+        modCount++;
+    }
+
+    /** shuffle - puts the cards in the order Collections.shuffle gives for new Random(seed). */
+    void shuffle(long seed){
+        CardVector before = snapshot();
+        applyShuffle(before, shuffled(before, seed), seed);
+    }
+
+    /** shuffled - the cards of before in the order Collections.shuffle gives for new Random(seed), as a base list
+     * for applyShuffle. Only indexes are moved and no card is read, so it can run on any thread. */
+    static List<QuizCard> shuffled(CardVector before, long seed){
+        int[] positions = new int[before.size];
+        Arrays.setAll(positions, i -> i);
+        Random random = new Random(seed);
+        for(int i = positions.length - 1; i > 0; i--){
+            int j = random.nextInt(i + 1);
+            int position = positions[i];
+            positions[i] = positions[j];
+            positions[j] = position;
+        }
+        return select(before, positions);
+    }
+
+    /** applyShuffle - makes shuffled, which shuffled built from before with seed, the cards of the store. before
+     * must be the cards the store still holds. */
+    void applyShuffle(CardVector before, List<QuizCard> shuffled, long seed){
+        reset(shuffled);
+        origin = new CardVector.Origin(before, seed, null);
+    }
+
+    /** select - a base list of the cards of from at positions, in that order. It picks them out of the list the
+     * deck was loaded with by index, so a mapped or compressed deck is not decoded, and never out of another
+     * selection, so a get is one lookup however many shuffles and removals came before. The cards that were added
+     * or replaced since loading are carried over as they are. */
+    private static List<QuizCard> select(CardVector from, int[] positions){
+        List<QuizCard> source = from.base;
+        int[] through = null;
+        QuizCard[] throughCards = null;
+        if(source instanceof SelectedCardList){
+            SelectedCardList selected = (SelectedCardList) source;
+            source = selected.source;
+            through = selected.indexes;
+            throughCards = selected.cards;
+        }
+        int[] indexes = new int[positions.length];
+        List<QuizCard> cards = new ArrayList<>();
+        for(int i = 0; i < positions.length; i++){
+            int position = positions[i];
+            QuizCard edited = CardVector.getEdited(from.root, from.shift, position);
+            int index = edited != null ? -1 : through == null ? position : through[position];
+            if(edited == null && index < 0){
+                edited = throughCards[~index];
+            }
+            if(edited != null){
+                index = ~cards.size();
+                cards.add(edited);
+            }
+            indexes[i] = index;
+        }
+        return new SelectedCardList(source, indexes, cards.toArray(new QuizCard[0]));
+    }
+
+    private void reset(List<QuizCard> newBase){
+        base = newBase;
+        origin = null;
+        root = null;
+        shift = CardVector.BITS;
+        size = newBase.size();
+        while(shift < Integer.SIZE - CardVector.BITS && size > 1L << shift + CardVector.BITS){
+            shift += CardVector.BITS;
+        }
+        owner = new Object();
+        modCount++;
+    }
+
+    /** put - stores the card at index, copying every node on the way down that this store does not own. */
+    private void put(int index, QuizCard quizCard){
+        root = editable(root);
+        CardVector.Node node = root;
+        for(int level = shift; level > 0; level -= CardVector.BITS){
+            int slot = index >>> level & CardVector.MASK;
+            CardVector.Node child = editable((CardVector.Node) node.slots[slot]);
+            node.slots[slot] = child;
+            node = child;
+        }
+        node.slots[index & CardVector.MASK] = quizCard;
+    }
+
+    /** SelectedCardList - a base list made by select: the card at i is source.get(indexes[i]), or cards[~index]
+     * for a negative index. Four bytes per card, whatever the cards hold. */
+    private static final class SelectedCardList extends AbstractList<QuizCard> implements RandomAccess {
+        private final List<QuizCard> source;
+        private final int[] indexes;
+        private final QuizCard[] cards;
+
+        private SelectedCardList(List<QuizCard> source, int[] indexes, QuizCard[] cards){
+            this.source = source;
+            this.indexes = indexes;
+            this.cards = cards;
+        }
+
+        @Override
+        public QuizCard get(int index){
+            int selected = indexes[index];
+            return selected >= 0 ? source.get(selected) : cards[~selected];
+        }
+
+        @Override
+        public int size(){
+            return indexes.length;
+        }
+    }
+
+    private CardVector.Node editable(CardVector.Node node){
+        if(node == null){
+            return new CardVector.Node(owner, new Object[CardVector.WIDTH]);
+        }
+        if(node.owner != owner){
+            return new CardVector.Node(owner, node.slots.clone());
+        }
+        return node;
+    }
+}
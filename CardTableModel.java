@@ -0,0 +1,104 @@
+package quizcard;
+
+import javax.swing.table.AbstractTableModel;
+
+/** CardTableModel - shows the cards of a Deck as the rows of a table, reading each card straight from the deck
+ * when a row is painted. Nothing is kept per row, so a JTable with a fixed row height only ever touches the rows
+ * on screen, whatever the size of the deck. The last card read is remembered, as the question and answer
+ * columns of a row are painted one after the other. */
+class CardTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+
+    static final int NUMBER = 0;
+    static final int QUESTION = 1;
+    static final int ANSWER = 2;
+
+    private static final String[] COLUMN_NAMES = {"#", "Question", "Answer"};
+
+    private final Editor editor;
+    private Deck deck;
+    private boolean isEditable = true;
+    private int cachedRow = -1;
+    private QuizCard cachedCard;
+
+    /** Editor - applies an edit made in the table to the deck. */
+    interface Editor {
+        void edit(int index, String question, String answer);
+    }
+
+    CardTableModel(Deck deck, Editor editor){
+        this.deck = deck;
+        this.editor = editor;
+    }
+
+    /** setDeck - shows another deck, or the same one after it has changed. */
+    void setDeck(Deck newDeck){
+        deck = newDeck;
+        cachedRow = -1;
+        cachedCard = null;
+        fireTableDataChanged();
+    }
+
+    void setIsEditable(boolean newValue){
+        isEditable = newValue;
+    }
+
+    @Override
+    public int getRowCount(){
+        return deck.getQuizCardList().size();
+    }
+
+    @Override
+    public int getColumnCount(){
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column){
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column){
+        return column == NUMBER ? Integer.class : String.class;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column){
+        if(column == NUMBER){
+            return row + 1;
+        }
+        QuizCard quizCard = getCard(row);
+        return column == QUESTION ? quizCard.getQuestion() : quizCard.getAnswer();
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column){
+        return isEditable && column != NUMBER;
+    }
+
+    @Override
+    public void setValueAt(Object value, int row, int column){
+        QuizCard quizCard = getCard(row);
+        String text = value.toString();
+        if(text.equals(column == QUESTION ? quizCard.getQuestion() : quizCard.getAnswer())){
+            return;
+        }
+        if(column == QUESTION){
+            editor.edit(row, text, quizCard.getAnswer());
+        }else{
+            editor.edit(row, quizCard.getQuestion(), text);
+        }
+        cachedRow = -1;
+        cachedCard = null;
+        fireTableRowsUpdated(row, row);
+    }
+
+    private QuizCard getCard(int row){
+        if(row != cachedRow){
+            cachedCard = deck.getQuizCardList().get(row);
+            cachedRow = row;
+        }
+        return cachedCard;
+    }
+}
@@ -0,0 +1,158 @@
+package quizcard;
+
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.IntConsumer;
+
+/** CardVector - an unchangeable version of the cards of a Deck, as taken by CardStore.snapshot. Taking one is
+ * O(1): it shares every node with the store, which copies a node before it next changes it instead.
+ *
+ * The cards are kept in a trie with 32 slots per node, addressed by five bits of the card index per level. The
+ * cards a deck was loaded with stay in a base list (a MappedCardList, a CompressedCardList, a TextArenaCardList or
+ * a plain list) that is never changed; the trie only holds the cards added or replaced since, and a missing node
+ * or empty slot means "the card in the base list". A shuffle or a removal starts a new base list, and its origin
+ * tells how it came about from the version before. */
+final class CardVector extends AbstractList<QuizCard> implements RandomAccess {
+    static final int BITS = 5;
+    static final int WIDTH = 1 << BITS;
+    static final int MASK = WIDTH - 1;
+
+    final List<QuizCard> base;
+    final Node root;
+    final int shift;
+    final int size;
+    final Origin origin;
+
+    CardVector(List<QuizCard> base, Node root, int shift, int size, Origin origin){
+        this.base = base;
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+        this.origin = origin;
+    }
+
+    @Override
+    public QuizCard get(int index){
+        if(index < 0 || index >= size){
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return get(base, root, shift, index);
+    }
+
+    @Override
+    public int size(){
+        return size;
+    }
+
+    /** changedSince - calls changed with the index of every card, below both sizes, that is not the same card as in
+     * previous. The two tries are compared node by node and every subtree they share is skipped, so the cost is in
+     * proportion to what changed. Returns false without calling changed if the two have different base lists, in
+     * which case any card may have moved. */
+    boolean changedSince(CardVector previous, IntConsumer changed){
+        if(previous.base != base){
+            return false;
+        }
+        int top = Math.max(shift, previous.shift);
+        compare(lift(previous.root, previous.shift, top), lift(root, shift, top), top, 0, Math.min(size, previous.size),
+                changed);
+        return true;
+    }
+
+    /** lift - the node as it would be in a deeper trie, where it is the first child at every added level. */
+    private static Node lift(Node node, int shift, int top){
+        for(int level = shift; node != null && level < top; level += BITS){
+            Object[] slots = new Object[WIDTH];
+            slots[0] = node;
+            node = new Node(null, slots);
+        }
+        return node;
+    }
+
+    private static void compare(Node before, Node after, int level, int offset, int limit, IntConsumer changed){
+        if(before == after){
+            return;
+        }
+        for(int slot = 0; slot < WIDTH; slot++){
+            long index = offset + ((long) slot << level);
+            if(index >= limit){
+                return;
+            }
+            Object was = before == null ? null : before.slots[slot];
+            Object is = after == null ? null : after.slots[slot];
+            if(was != is){
+                if(level == 0){
+                    changed.accept((int) index);
+                }else{
+                    compare((Node) was, (Node) is, level - BITS, (int) index, limit, changed);
+                }
+            }
+        }
+    }
+
+    static QuizCard get(List<QuizCard> base, Node root, int shift, int index){
+        QuizCard edited = getEdited(root, shift, index);
+        return edited != null ? edited : base.get(index);
+    }
+
+    /** getEdited - the card at index if it was added or replaced after loading, otherwise null. */
+    static QuizCard getEdited(Node root, int shift, int index){
+        Node node = root;
+        for(int level = shift; level > 0 && node != null; level -= BITS){
+            node = (Node) node.slots[index >>> level & MASK];
+        }
+        return node == null ? null : (QuizCard) node.slots[index & MASK];
+    }
+
+    /** Origin - how a base list came about from an earlier version of the cards: shuffled with seed, or with the
+     * cards at removed dropped. The recovery log follows the chain to record these steps instead of every card.
+     * The earlier base list is only weakly held, and the chain is cut after MAXIMUM_DEPTH steps, so it never keeps
+     * old copies of a deck alive. */
+    static final class Origin {
+        private static final int MAXIMUM_DEPTH = 16;
+
+        final long seed;
+        final int[] removed; // null for a shuffle
+        private final WeakReference<List<QuizCard>> base;
+        private final Node root;
+        private final int shift;
+        private final int size;
+        private volatile Origin previous;
+
+        Origin(CardVector before, long seed, int[] removed){
+            this.seed = seed;
+            this.removed = removed;
+            base = new WeakReference<>(before.base);
+            root = before.root;
+            shift = before.shift;
+            size = before.size;
+            previous = before.origin;
+            Origin last = this;
+            for(int depth = 1; depth < MAXIMUM_DEPTH && last != null; depth++){
+                last = last.previous;
+            }
+            if(last != null){
+                last.previous = null;
+            }
+        }
+
+        /** before - the version the step started from, or null if its base list is gone. */
+        CardVector before(){
+            List<QuizCard> previousBase = base.get();
+            return previousBase == null ? null : new CardVector(previousBase, root, shift, size, previous);
+        }
+    }
+
+    /** Node - one node of the trie. A node belongs to the owner that created it, and only that owner may change
+     * it in place; anyone else has to copy it first. */
+    static final class Node {
+        final Object owner;
+        final Object[] slots;
+
+        Node(Object owner, Object[] slots){
+            this.owner = owner;
+            this.slots = slots;
+        }
+    }
+}
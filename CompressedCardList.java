@@ -0,0 +1,191 @@
+package quizcard;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.RandomAccess;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/** CompressedCardList - the cards of a block-compressed deck (see CompressedDeckWriter), read from a
+ * memory-mapped file. Opening it only reads the block index; get finds the block of a card by binary search and
+ * inflates that block alone. The last few blocks inflated are kept, so reading cards in order inflates each block
+ * once. The list cannot be changed, and can be read from several threads at once.
+ *
+ * Reading the whole deck with forEachCard inflates the blocks in parallel on the common fork/join pool and hands
+ * the cards over in order. */
+class CompressedCardList extends AbstractList<QuizCard> implements RandomAccess {
+    private static final int CACHED_BLOCKS = 4;
+    private static final int MAXIMUM_PENDING = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final MappedFile mappedFile;
+    private final long[] blockOffsets;
+    private final int[] compressedLengths;
+    private final int[] uncompressedLengths;
+    private final int[] firstCards;
+    private final int count;
+    private final Block[] cache = new Block[CACHED_BLOCKS];
+
+    /** Block - an inflated block and where each of its records starts. Immutable, so it can be shared between
+     * threads through the cache without locking. */
+    private static class Block {
+        final int number;
+        final byte[] bytes;
+        final int[] recordOffsets;
+
+        Block(int number, byte[] bytes, int[] recordOffsets){
+            this.number = number;
+            this.bytes = bytes;
+            this.recordOffsets = recordOffsets;
+        }
+
+        QuizCard get(int record){
+            int offset = recordOffsets[record];
+            int questionLength = readInt(bytes, offset);
+            String question = new String(bytes, offset + Integer.BYTES, questionLength, StandardCharsets.UTF_8);
+            offset += Integer.BYTES + questionLength;
+            return new QuizCard(question,
+                    new String(bytes, offset + Integer.BYTES, readInt(bytes, offset), StandardCharsets.UTF_8));
+        }
+    }
+
+    CompressedCardList(MappedFile mappedFile) throws IOException {
+        this.mappedFile = mappedFile;
+        long size = mappedFile.size();
+        if(size < CompressedDeckWriter.HEADER_SIZE + CompressedDeckWriter.TRAILER_SIZE
+                || mappedFile.getInt(0) != CompressedDeckWriter.MAGIC
+                || mappedFile.getInt(size - Integer.BYTES) != CompressedDeckWriter.MAGIC){
+            throw new IOException("Not a compressed deck file");
+        }
+        if(mappedFile.getInt(Integer.BYTES) != CompressedDeckWriter.VERSION){
+            throw new IOException("Unsupported compressed deck version " + mappedFile.getInt(Integer.BYTES));
+        }
+        long trailer = size - CompressedDeckWriter.TRAILER_SIZE;
+        long indexOffset = mappedFile.getLong(trailer);
+        int blocks = mappedFile.getInt(trailer + Long.BYTES);
+        long cards = mappedFile.getLong(trailer + Long.BYTES + Integer.BYTES);
+        if(blocks < 0 || cards > Integer.MAX_VALUE
+                || indexOffset + (long) blocks * CompressedDeckWriter.INDEX_ENTRY_SIZE != trailer){
+            throw new IOException("Corrupt compressed deck trailer");
+        }
+        count = (int) cards;
+        blockOffsets = new long[blocks];
+        compressedLengths = new int[blocks];
+        uncompressedLengths = new int[blocks];
+        firstCards = new int[blocks];
+        long entry = indexOffset;
+        for(int i = 0; i < blocks; i++){
+            blockOffsets[i] = mappedFile.getLong(entry);
+            compressedLengths[i] = mappedFile.getInt(entry + Long.BYTES);
+            uncompressedLengths[i] = mappedFile.getInt(entry + Long.BYTES + Integer.BYTES);
+            firstCards[i] = mappedFile.getInt(entry + Long.BYTES + 2 * Integer.BYTES);
+            entry += CompressedDeckWriter.INDEX_ENTRY_SIZE;
+            if(blockOffsets[i] + compressedLengths[i] > indexOffset || (i > 0 && firstCards[i] < firstCards[i - 1])){
+                throw new IOException("Corrupt compressed deck index");
+            }
+        }
+    }
+
+    @Override
+    public QuizCard get(int index){
+        if(index < 0 || index >= count){
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+        }
+        int number = blockOf(index);
+        Block block = cache[number % CACHED_BLOCKS];
+        if(block == null || block.number != number){
+            block = inflate(number);
+            cache[number % CACHED_BLOCKS] = block;
+        }
+        return block.get(index - firstCards[number]);
+    }
+
+    @Override
+    public int size(){
+        return count;
+    }
+
+    /** forEachCard - hands every card to the handler in order, inflating up to MAXIMUM_PENDING blocks ahead in
+     * parallel. */
+    void forEachCard(DeckReader.Handler handler) throws IOException {
+        ArrayDeque<CompletableFuture<Block>> pending = new ArrayDeque<>();
+        int next = 0;
+        try{
+            while(next < blockOffsets.length || !pending.isEmpty()){
+                while(next < blockOffsets.length && pending.size() < MAXIMUM_PENDING){
+                    int number = next++;
+                    pending.add(CompletableFuture.supplyAsync(() -> inflate(number), ForkJoinPool.commonPool()));
+                }
+                Block block = pending.remove().join();
+                for(int record = 0; record < block.recordOffsets.length; record++){
+                    QuizCard quizCard = block.get(record);
+                    handler.card(quizCard.getQuestion(), quizCard.getAnswer());
+                }
+            }
+        }catch(CompletionException completionEx){
+            if(completionEx.getCause() instanceof UncheckedIOException){
+                throw ((UncheckedIOException) completionEx.getCause()).getCause();
+            }
+            throw completionEx;
+        }
+    }
+
+    /** blockOf - the block holding card index: the last block whose first card is not after it. */
+    private int blockOf(int index){
+        int low = 0;
+        int high = firstCards.length - 1;
+        while(low < high){
+            int middle = (low + high + 1) >>> 1;
+            if(firstCards[middle] <= index){
+                low = middle;
+            }else{
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private Block inflate(int number){
+        byte[] compressed = new byte[compressedLengths[number]];
+        mappedFile.get(blockOffsets[number], compressed, 0, compressed.length);
+        byte[] bytes = new byte[uncompressedLengths[number]];
+        Inflater inflater = new Inflater();
+        try{
+            inflater.setInput(compressed);
+            int length = 0;
+            while(length < bytes.length && !inflater.finished()){
+                int inflated = inflater.inflate(bytes, length, bytes.length - length);
+                if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())){
+                    break;
+                }
+                length += inflated;
+            }
+            if(length != bytes.length || !inflater.finished()){
+                throw new DataFormatException("block " + number + " is truncated");
+            }
+        }catch(DataFormatException formatEx){
+            throw new UncheckedIOException(new IOException("Corrupt compressed deck: " + formatEx.getMessage()));
+        }finally{
+            inflater.end();
+        }
+        int cards = (number + 1 < firstCards.length ? firstCards[number + 1] : count) - firstCards[number];
+        int[] recordOffsets = new int[cards];
+        int offset = 0;
+        for(int record = 0; record < cards; record++){
+            recordOffsets[record] = offset;
+            offset += Integer.BYTES + readInt(bytes, offset);
+            offset += Integer.BYTES + readInt(bytes, offset);
+        }
+        return new Block(number, bytes, recordOffsets);
+    }
+
+    private static int readInt(byte[] bytes, int offset){
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8
+                | bytes[offset + 3] & 0xFF;
+    }
+}
@@ -0,0 +1,174 @@
+package quizcard;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+/** CompressedDeckWriter - writes the block-compressed format read by CompressedCardList.
+ *
+ * Cards are encoded as in the binary format (question length, question bytes, answer length, answer bytes) and
+ * gathered into blocks of about BLOCK_SIZE bytes, never splitting a card. Every block is deflated on its own, so
+ * any card can be read by inflating just its block. The layout is a header (magic, version), the compressed
+ * blocks, an index with an entry per block (file offset, compressed length, uncompressed length, first card) and
+ * a trailer with the index offset, the block count, the card count and the magic again.
+ *
+ * Blocks are deflated on the common fork/join pool while the next ones are being filled, and written in order as
+ * they finish. At most MAXIMUM_PENDING blocks are in flight, so memory stays bounded however large the deck. */
+class CompressedDeckWriter implements DeckWriter {
+    static final int MAGIC = 0x5143445A; // "QCDZ"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 2 * Integer.BYTES;
+    static final int INDEX_ENTRY_SIZE = Long.BYTES + 3 * Integer.BYTES;
+    static final int TRAILER_SIZE = Long.BYTES + Integer.BYTES + Long.BYTES + Integer.BYTES;
+    static final int BLOCK_SIZE = 64 << 10;
+
+    private static final int MAXIMUM_PENDING = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final DataOutputStream output;
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private long position;
+    private byte[] block = new byte[BLOCK_SIZE + BLOCK_SIZE / 4];
+    private int blockLength;
+    private int blockFirstCard;
+    private int count;
+    private long[] blockOffsets = new long[64];
+    private int[] compressedLengths = new int[64];
+    private int[] uncompressedLengths = new int[64];
+    private int[] firstCards = new int[64];
+    private int blocks;
+
+    /** Pending - a block being deflated. */
+    private static class Pending {
+        final CompletableFuture<byte[]> compressed;
+        final int uncompressedLength;
+        final int firstCard;
+
+        Pending(CompletableFuture<byte[]> compressed, int uncompressedLength, int firstCard){
+            this.compressed = compressed;
+            this.uncompressedLength = uncompressedLength;
+            this.firstCard = firstCard;
+        }
+    }
+
+    CompressedDeckWriter(Path path) throws IOException {
+        output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        position = HEADER_SIZE;
+    }
+
+    @Override
+    public void write(String question, String answer) throws IOException {
+        if(count == Integer.MAX_VALUE){
+            throw new IOException("Too many cards for a compressed deck");
+        }
+        appendText(question);
+        appendText(answer);
+        count++;
+        if(blockLength >= BLOCK_SIZE){
+            submitBlock();
+        }
+    }
+
+    private void appendText(String text){
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ensureBlockCapacity(Integer.BYTES + bytes.length);
+        block[blockLength++] = (byte) (bytes.length >>> 24);
+        block[blockLength++] = (byte) (bytes.length >>> 16);
+        block[blockLength++] = (byte) (bytes.length >>> 8);
+        block[blockLength++] = (byte) bytes.length;
+        System.arraycopy(bytes, 0, block, blockLength, bytes.length);
+        blockLength += bytes.length;
+    }
+
+    private void ensureBlockCapacity(int extra){
+        if(blockLength + extra > block.length){
+            block = Arrays.copyOf(block, Math.max(block.length * 2, blockLength + extra));
+        }
+    }
+
+    /** submitBlock - hands the current block to the pool and starts a new one, first writing out the oldest
+     * block if too many are in flight. */
+    private void submitBlock() throws IOException {
+        byte[] uncompressed = block;
+        int length = blockLength;
+        pending.add(new Pending(CompletableFuture.supplyAsync(() -> deflate(uncompressed, length),
+                ForkJoinPool.commonPool()), length, blockFirstCard));
+        block = new byte[BLOCK_SIZE + BLOCK_SIZE / 4];
+        blockLength = 0;
+        blockFirstCard = count;
+        if(pending.size() >= MAXIMUM_PENDING){
+            writeBlock(pending.remove());
+        }
+    }
+
+    private void writeBlock(Pending block) throws IOException {
+        byte[] compressed = block.compressed.join();
+        if(blocks == blockOffsets.length){
+            blockOffsets = Arrays.copyOf(blockOffsets, blocks * 2);
+            compressedLengths = Arrays.copyOf(compressedLengths, blocks * 2);
+            uncompressedLengths = Arrays.copyOf(uncompressedLengths, blocks * 2);
+            firstCards = Arrays.copyOf(firstCards, blocks * 2);
+        }
+        blockOffsets[blocks] = position;
+        compressedLengths[blocks] = compressed.length;
+        uncompressedLengths[blocks] = block.uncompressedLength;
+        firstCards[blocks] = block.firstCard;
+        blocks++;
+        output.write(compressed);
+        position += compressed.length;
+    }
+
+    static byte[] deflate(byte[] uncompressed, int length){
+        Deflater deflater = new Deflater();
+        try{
+            deflater.setInput(uncompressed, 0, length);
+            deflater.finish();
+            byte[] compressed = new byte[Math.max(64, length / 2)];
+            int compressedLength = 0;
+            while(!deflater.finished()){
+                if(compressedLength == compressed.length){
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                compressedLength += deflater.deflate(compressed, compressedLength,
+                        compressed.length - compressedLength);
+            }
+            return Arrays.copyOf(compressed, compressedLength);
+        }finally{
+            deflater.end();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try{
+            if(blockLength > 0){
+                submitBlock();
+            }
+            while(!pending.isEmpty()){
+                writeBlock(pending.remove());
+            }
+            long indexOffset = position;
+            for(int i = 0; i < blocks; i++){
+                output.writeLong(blockOffsets[i]);
+                output.writeInt(compressedLengths[i]);
+                output.writeInt(uncompressedLengths[i]);
+                output.writeInt(firstCards[i]);
+            }
+            output.writeLong(indexOffset);
+            output.writeInt(blocks);
+            output.writeLong(count);
+            output.writeInt(MAGIC);
+        }finally{
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,586 @@
+package quizcard;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/** CsvImporter - reads the cards of a CSV (RFC 4180) or TSV file into a Deck, taking the question and the answer
+ * from two of its columns. A column is named by its number, counting from 1, or by its title in the header row.
+ * Fields may be quoted, with "" for a quote inside, and quoted fields may span lines.
+ *
+ * The file is parsed in parallel, in chunks of about CHUNK_SIZE bytes that must start at a record boundary. A
+ * newline ends a record unless it is inside quotes, and a quote only opens a quoted field at the start of a field:
+ * anywhere else it is taken as it is, so a stray quote cannot carry the quoting past the end of its own line.
+ * Where records end thus follows from a small state machine (nextState), and a first pass over every chunk in
+ * parallel runs it from each state the chunk could start in. Following the end states from chunk to chunk tells
+ * which state each chunk really starts in, and so where its first record starts. A second pass then parses the
+ * chunks in parallel into one Deck each, which are appended to the result in file order.
+ *
+ * A row that cannot be read (too few columns, a quote inside an unquoted field, text after a closing quote or a
+ * quote that is never closed) is not imported. It is copied as it was, up to its own newline, to the reject file,
+ * where it can be fixed and imported again, and counted as malformed in the Deck. */
+class CsvImporter {
+    static final long CHUNK_SIZE = 4L << 20;
+    static final String REJECT_SUFFIX = ".rejects";
+
+    private static final int MAXIMUM_REPORTED_REJECTS = 100;
+    private static final byte QUOTE = '"';
+    private static final byte[] BYTE_ORDER_MARK = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+    // the states of nextState
+    private static final int FIELD_START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int QUOTED = 2;
+    private static final int CLOSING_QUOTE = 3; // a quote inside quotes: the end of the field, or the first of ""
+    private static final int STATES = 4;
+
+    private final byte delimiter;
+    private final boolean hasHeader;
+    private final String questionColumn;
+    private final String answerColumn;
+
+    /** CsvImporter - an importer for files whose fields are separated by delimiter (',' for CSV, '\t' for TSV).
+     * The columns are numbers counting from 1, or titles from the header row when hasHeader is set. */
+    CsvImporter(char delimiter, boolean hasHeader, String questionColumn, String answerColumn){
+        if(delimiter == '"' || delimiter == '\n' || delimiter == '\r' || delimiter > 0x7F){
+            throw new IllegalArgumentException("Unusable delimiter " + delimiter);
+        }
+        this.delimiter = (byte) delimiter;
+        this.hasHeader = hasHeader;
+        this.questionColumn = questionColumn;
+        this.answerColumn = answerColumn;
+    }
+
+    /** forFile - an importer guessing the delimiter from the extension: tab for .tsv and .tab, comma otherwise. */
+    static CsvImporter forFile(Path file, boolean hasHeader, String questionColumn, String answerColumn){
+        String name = file.getFileName().toString().toLowerCase();
+        char delimiter = name.endsWith(".tsv") || name.endsWith(".tab") ? '\t' : ',';
+        return new CsvImporter(delimiter, hasHeader, questionColumn, answerColumn);
+    }
+
+    /** rejectPath - where the rows of file that could not be imported are written. */
+    static Path rejectPath(Path file){
+        return file.resolveSibling(file.getFileName() + REJECT_SUFFIX);
+    }
+
+    /** read - imports every row of file into a new Deck. Rows that cannot be read go to rejectPath(file), which is
+     * only written if there are any. Fails with IllegalArgumentException if a column cannot be found. */
+    Deck read(Path file, DeckProgress progress) throws IOException {
+        DeckMetrics.Span span = DeckMetrics.begin(DeckMetrics.PARSE, file);
+        Deck deck = new Deck();
+        deck.setIsJournaled(false);
+        deck.setFileName(file.getFileName().toString());
+        long size;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            size = channel.size();
+            long dataStart = startsWith(channel, BYTE_ORDER_MARK) ? BYTE_ORDER_MARK.length : 0;
+            String[] titles = null;
+            long firstLine = 1;
+            if(hasHeader){
+                long headerEnd = findRecordEnd(channel, dataStart, size, delimiter);
+                byte[] header = readRange(channel, dataStart, headerEnd);
+                titles = readHeader(header);
+                for(byte b : header){
+                    firstLine += b == '\n' ? 1 : 0;
+                }
+                dataStart = headerEnd;
+            }
+            int question = resolve(questionColumn, titles);
+            int answer = resolve(answerColumn, titles);
+            List<ChunkTask> chunks;
+            try{
+                chunks = split(channel, dataStart, size, firstLine, question, answer,
+                        new DeckLibrary.SharedProgress(progress));
+                ForkJoinPool.commonPool().invoke(new RecursiveTask<Void>() {
+                    @Override
+                    protected Void compute() {
+                        ForkJoinTask.invokeAll(chunks);
+                        return null;
+                    }
+                });
+            }catch(RuntimeException runtimeEx){
+                throw unwrap(runtimeEx);
+            }
+            writeRejects(file, chunks);
+            for(ChunkTask chunk : chunks){
+                deck.addQuizCards(chunk.getRawResult().deck);
+            }
+        }catch(IOException | RuntimeException ex){
+            span.failed(ex);
+            throw ex;
+        }
+        span.finished("csv", size, deck.getQuizCardList().size());
+        return deck;
+    }
+
+    /** split - cuts the data into chunks that start and end on record boundaries, and numbers their first lines.
+     * Scanning each raw chunk runs in parallel. */
+    private List<ChunkTask> split(FileChannel channel, long dataStart, long size, long firstLine, int question,
+                                  int answer, DeckLibrary.SharedProgress progress){
+        List<ScanTask> scans = new ArrayList<>();
+        for(long from = dataStart; from < size; from += CHUNK_SIZE){
+            scans.add(new ScanTask(channel, from, Math.min(from + CHUNK_SIZE, size), delimiter));
+        }
+        ForkJoinPool.commonPool().invoke(new RecursiveTask<Void>() {
+            @Override
+            protected Void compute() {
+                ForkJoinTask.invokeAll(scans);
+                return null;
+            }
+        });
+        List<ChunkTask> chunks = new ArrayList<>();
+        int state = FIELD_START;
+        long line = firstLine;
+        long chunkStart = dataStart;
+        long chunkLine = line;
+        for(ScanTask scan : scans){
+            Scan result = scan.getRawResult();
+            if(scan.from > chunkStart && result.firstBoundary[state] >= 0){
+                long boundary = scan.from + result.firstBoundary[state];
+                long boundaryLine = line + result.newlinesToBoundary[state];
+                chunks.add(new ChunkTask(channel, chunkStart, boundary, chunkLine, question, answer, progress));
+                chunkStart = boundary;
+                chunkLine = boundaryLine;
+            }
+            line += result.newlines;
+            state = result.endState[state];
+        }
+        if(chunkStart < size){
+            chunks.add(new ChunkTask(channel, chunkStart, size, chunkLine, question, answer, progress));
+        }
+        return chunks;
+    }
+
+    /** Scan - what the first pass found in a raw chunk: its newlines, and, for each state of nextState the chunk
+     * may start in, where the first record starts (just after the first newline outside quotes) and the state the
+     * chunk ends in. */
+    private static class Scan {
+        long newlines;
+        final long[] firstBoundary = {-1, -1, -1, -1};
+        final long[] newlinesToBoundary = new long[STATES];
+        final int[] endState = new int[STATES];
+    }
+
+    private static class ScanTask extends RecursiveTask<Scan> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long from;
+        private final long to;
+        private final byte delimiter;
+
+        ScanTask(FileChannel channel, long from, long to, byte delimiter){
+            this.channel = channel;
+            this.from = from;
+            this.to = to;
+            this.delimiter = delimiter;
+        }
+
+        @Override
+        protected Scan compute() {
+            byte[] bytes = readRange(channel, from, to);
+            Scan scan = new Scan();
+            int[] states = scan.endState; // states[s] is the current state if the chunk started in state s
+            for(int s = 0; s < STATES; s++){
+                states[s] = s;
+            }
+            for(int i = 0; i < bytes.length; i++){
+                byte b = bytes[i];
+                if(b == '\n'){
+                    scan.newlines++;
+                }
+                for(int s = 0; s < STATES; s++){
+                    if(b == '\n' && states[s] != QUOTED && scan.firstBoundary[s] < 0){
+                        scan.firstBoundary[s] = i + 1;
+                        scan.newlinesToBoundary[s] = scan.newlines;
+                    }
+                    states[s] = nextState(states[s], b, delimiter);
+                }
+            }
+            return scan;
+        }
+    }
+
+    /** nextState - the state after byte b, as far as where records end is concerned: a newline ends a record in
+     * any state but QUOTED, after which a field starts. Only a quote at FIELD_START opens a quoted field. */
+    private static int nextState(int state, byte b, byte delimiter){
+        switch(state){
+            case QUOTED:
+                return b == QUOTE ? CLOSING_QUOTE : QUOTED;
+            case CLOSING_QUOTE:
+            case FIELD_START:
+                if(b == QUOTE){
+                    return QUOTED; // "" inside quotes, or an opening quote
+                }
+                break;
+            default:
+                break;
+        }
+        return b == delimiter || b == '\n' ? FIELD_START : UNQUOTED;
+    }
+
+    /** Chunk - the cards of one chunk, and the rows it rejected, as they were. */
+    private static class Chunk {
+        final Deck deck = new Deck();
+        final ByteArrayOutputStream rejects = new ByteArrayOutputStream();
+        final List<String> reasons = new ArrayList<>();
+
+        Chunk(){
+            deck.setIsJournaled(false);
+        }
+    }
+
+    /** ChunkTask - parses the records between two record boundaries. */
+    private class ChunkTask extends RecursiveTask<Chunk> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long from;
+        private final long to;
+        private final long firstLine;
+        private final int question;
+        private final int answer;
+        private final DeckLibrary.SharedProgress progress;
+
+        ChunkTask(FileChannel channel, long from, long to, long firstLine, int question, int answer,
+                  DeckLibrary.SharedProgress progress){
+            this.channel = channel;
+            this.from = from;
+            this.to = to;
+            this.firstLine = firstLine;
+            this.question = question;
+            this.answer = answer;
+            this.progress = progress;
+        }
+
+        @Override
+        protected Chunk compute() {
+            byte[] bytes = readRange(channel, from, to);
+            Chunk chunk = new Chunk();
+            new RecordParser(bytes, question, answer, chunk, firstLine).parseAll();
+            try{
+                progress.forChunk().update(bytes.length, chunk.deck.getQuizCardList().size());
+            }catch(IOException ioEx){
+                throw new UncheckedIOException(ioEx);
+            }
+            return chunk;
+        }
+    }
+
+    /** RecordParser - the RFC 4180 state machine over the bytes of one chunk. Only the two mapped columns are
+     * decoded; the others are skipped over. */
+    private class RecordParser {
+        private final byte[] bytes;
+        private final int question;
+        private final int answer;
+        private final int lastColumn;
+        private final Chunk chunk;
+        private long line;
+        private int position;
+        private String questionText;
+        private String answerText;
+        private String reason;
+
+        RecordParser(byte[] bytes, int question, int answer, Chunk chunk, long firstLine){
+            this.bytes = bytes;
+            this.question = question;
+            this.answer = answer;
+            this.lastColumn = Math.max(question, answer);
+            this.chunk = chunk;
+            this.line = firstLine;
+        }
+
+        void parseAll(){
+            while(position < bytes.length){
+                int start = position;
+                long startLine = line;
+                int columns = parseRecord();
+                if(reason == null && columns == 1 && isBlank(start, position)){
+                    continue;
+                }
+                if(reason == null && columns <= lastColumn){
+                    reason = "has " + columns + " column(s), needs " + (lastColumn + 1);
+                }
+                if(reason == null){
+                    chunk.deck.addQuizCard(questionText, answerText);
+                }else{
+                    chunk.deck.addMalformed();
+                    chunk.rejects.write(bytes, start, position - start);
+                    if(bytes[position - 1] != '\n'){
+                        chunk.rejects.write('\n');
+                    }
+                    chunk.reasons.add("line " + startLine + " " + reason);
+                }
+            }
+        }
+
+        /** parseRecord - reads one record up to and including its newline, leaving position after it, and
+         * returns its number of columns. Sets reason if the record is malformed. */
+        private int parseRecord(){
+            reason = null;
+            int column = 0;
+            while(true){
+                String value;
+                if(position < bytes.length && bytes[position] == QUOTE){
+                    value = parseQuoted(column);
+                }else{
+                    value = parseUnquoted(column);
+                }
+                if(reason != null){
+                    skipRecord();
+                    return column + 1;
+                }
+                if(column == question){
+                    questionText = value;
+                }
+                if(column == answer){
+                    answerText = value;
+                }
+                if(position < bytes.length && bytes[position] == delimiter){
+                    position++;
+                    column++;
+                    continue;
+                }
+                if(position < bytes.length){ // a newline
+                    position++;
+                    line++;
+                }
+                return column + 1;
+            }
+        }
+
+        /** parseUnquoted - a field running to the next delimiter or newline, without its trailing '\r'. Returns
+         * null for a column that is not mapped. */
+        private String parseUnquoted(int column){
+            int start = position;
+            while(position < bytes.length && bytes[position] != delimiter && bytes[position] != '\n'){
+                if(bytes[position] == QUOTE){
+                    reason = "has a quote in an unquoted field";
+                    return null;
+                }
+                position++;
+            }
+            int end = position;
+            if(end > start && bytes[end - 1] == '\r' && (end == bytes.length || bytes[end] == '\n')){
+                end--;
+            }
+            return column == question || column == answer ? new String(bytes, start, end - start,
+                    StandardCharsets.UTF_8) : null;
+        }
+
+        /** parseQuoted - a field in quotes, with "" read as one quote and "\r\n" inside it as "\n". */
+        private String parseQuoted(int column){
+            position++;
+            int start = position;
+            boolean isPlain = true;
+            while(true){
+                if(position == bytes.length){
+                    reason = "has a quote that is never closed";
+                    return null;
+                }
+                byte b = bytes[position];
+                if(b == QUOTE){
+                    if(position + 1 < bytes.length && bytes[position + 1] == QUOTE){
+                        isPlain = false;
+                        position += 2;
+                        continue;
+                    }
+                    break;
+                }
+                if(b == '\n'){
+                    line++;
+                }else if(b == '\r'){
+                    isPlain = false;
+                }
+                position++;
+            }
+            int end = position++;
+            if(position < bytes.length && bytes[position] != delimiter && bytes[position] != '\n'
+                    && !(bytes[position] == '\r' && (position + 1 == bytes.length || bytes[position + 1] == '\n'))){
+                reason = "has text after a closing quote";
+                return null;
+            }
+            if(position < bytes.length && bytes[position] == '\r'){
+                position++;
+            }
+            if(column != question && column != answer){
+                return null;
+            }
+            if(isPlain){
+                return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+            }
+            byte[] unescaped = new byte[end - start];
+            int length = 0;
+            for(int i = start; i < end; i++){
+                if(bytes[i] == QUOTE){
+                    i++; // the first of a pair
+                }else if(bytes[i] == '\r' && i + 1 < end && bytes[i + 1] == '\n'){
+                    continue;
+                }
+                unescaped[length++] = bytes[i];
+            }
+            return new String(unescaped, 0, length, StandardCharsets.UTF_8);
+        }
+
+        /** skipRecord - moves past the rest of a bad record, just after its newline. A bad record is only found
+         * outside quotes (a stray quote is taken as it is, see nextState), or at the end of the chunk. */
+        private void skipRecord(){
+            while(position < bytes.length){
+                if(bytes[position++] == '\n'){
+                    line++;
+                    return;
+                }
+            }
+        }
+
+        private boolean isBlank(int start, int end){
+            for(int i = start; i < end; i++){
+                if(bytes[i] != '\r' && bytes[i] != '\n'){
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** writeRejects - copies the rejected rows to the reject file in file order, and reports why the first few
+     * were rejected. */
+    private void writeRejects(Path file, List<ChunkTask> chunks) throws IOException {
+        long rejected = 0;
+        for(ChunkTask chunk : chunks){
+            rejected += chunk.getRawResult().reasons.size();
+        }
+        Path rejectFile = rejectPath(file);
+        if(rejected == 0){
+            Files.deleteIfExists(rejectFile);
+            return;
+        }
+        long reported = 0;
+        try(OutputStream output = Files.newOutputStream(rejectFile)){
+            for(ChunkTask chunk : chunks){
+                chunk.getRawResult().rejects.writeTo(output);
+                for(String reason : chunk.getRawResult().reasons){
+                    if(reported++ < MAXIMUM_REPORTED_REJECTS){
+                        System.err.println("Rejected " + file.getFileName() + " " + reason);
+                    }
+                }
+            }
+        }
+        System.err.println(rejected + " row(s) of " + file.getFileName() + " were written to " + rejectFile);
+    }
+
+    /** findRecordEnd - the position just after the newline ending the record that starts at from. */
+    private static long findRecordEnd(FileChannel channel, long from, long size, byte delimiter)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        int state = FIELD_START;
+        long position = from;
+        while(position < size){
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if(read <= 0){
+                break;
+            }
+            for(int i = 0; i < read; i++){
+                byte b = buffer.get(i);
+                if(b == '\n' && state != QUOTED){
+                    return position + i + 1;
+                }
+                state = nextState(state, b, delimiter);
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /** readHeader - the titles of the columns, with quotes removed. */
+    private String[] readHeader(byte[] bytes){
+        List<String> titles = new ArrayList<>();
+        StringBuilder title = new StringBuilder();
+        boolean isQuoted = false;
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        for(int i = 0; i < text.length(); i++){
+            char c = text.charAt(i);
+            if(c == '"'){
+                isQuoted = !isQuoted;
+                if(!isQuoted && i + 1 < text.length() && text.charAt(i + 1) == '"'){
+                    title.append('"');
+                }
+            }else if(c == delimiter && !isQuoted){
+                titles.add(title.toString().trim());
+                title.setLength(0);
+            }else if((c == '\n' || c == '\r') && !isQuoted){
+                break;
+            }else{
+                title.append(c);
+            }
+        }
+        titles.add(title.toString().trim());
+        return titles.toArray(new String[0]);
+    }
+
+    /** resolve - the index of a column given by number (from 1) or by title. */
+    private static int resolve(String column, String[] titles){
+        if(titles != null){
+            for(int i = 0; i < titles.length; i++){
+                if(titles[i].equalsIgnoreCase(column.trim())){
+                    return i;
+                }
+            }
+        }
+        try{
+            int number = Integer.parseInt(column.trim());
+            if(number >= 1){
+                return number - 1;
+            }
+        }catch(NumberFormatException numberEx){
+            // reported below
+        }
+        throw new IllegalArgumentException("No column " + column + (titles == null ? "" : " in the header"));
+    }
+
+    private static boolean startsWith(FileChannel channel, byte[] prefix) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(prefix.length);
+        channel.read(buffer, 0);
+        return buffer.position() == prefix.length && Arrays.equals(buffer.array(), prefix);
+    }
+
+    /** readRange - the bytes between from and to, read with positional reads so that tasks can share the
+     * channel. */
+    private static byte[] readRange(FileChannel channel, long from, long to){
+        byte[] bytes = new byte[Math.toIntExact(to - from)];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try{
+            while(buffer.hasRemaining()){
+                if(channel.read(buffer, from + buffer.position()) < 0){
+                    throw new IOException("File shrank while it was being read");
+                }
+            }
+        }catch(IOException ioEx){
+            throw new UncheckedIOException(ioEx);
+        }
+        return bytes;
+    }
+
+    private static IOException unwrap(RuntimeException runtimeEx){
+        for(Throwable cause = runtimeEx; cause != null; cause = cause.getCause()){
+            if(cause instanceof IOException){
+                return (IOException) cause;
+            }
+        }
+        throw runtimeEx;
+    }
+}
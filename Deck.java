@@ -4,28 +4,40 @@ package quizcard;
  *
  * @author ayser
  */
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.List;
+import java.util.Random;
+import java.util.function.LongPredicate;
 
 
 public class Deck {
     private File file;
-    private final List<QuizCard> quizCardList = new ArrayList<>();
+    private CardStore quizCardList = new CardStore();
+    private final ArrayDeque<CardVector> undoHistory = new ArrayDeque<>();
+    private final ArrayDeque<CardVector> redoHistory = new ArrayDeque<>();
     private String fileName = "Untitled";
     private boolean isModified;
+    private long modifications;
     private boolean isTestRunning;
     private int numCorrect;
     private int numWrong;
+    private int numMalformed;
+    private int numDuplicates;
+    private boolean isJournaled = true;
+    private boolean isCompact;
+    private DeckJournal journal;
+    private boolean isJournalStale;
+    private SearchIndex searchIndex;
+    private DuplicateIndex duplicateIndex;
+    private long cardChanges;
+    private Permutation playOrder;
+    private ImageStore images;
+    private final Random random = new Random();
 
-    private static final String QUIZ_CARD_TERMINATOR = "\n29rje2r9\n";
-    private static final String QUIZ_CARD_SEPARATOR = "\te23bf0hj\t";
+    private static final int MAXIMUM_UNDO = 100;
 
     void addQuizCard(String q, String a){
         
@@ -36,45 +48,495 @@ public class Deck {
             a = " ";
         }
         quizCardList.add(new QuizCard(q, a));
+        cardChanges++;
+        if(journal != null){
+            journal.add(q, a);
+        }
+        if(searchIndex != null){
+            searchIndex.add(quizCardList.size() - 1, q, a);
+        }
+        if(duplicateIndex != null){
+            duplicateIndex.add(quizCardList.size() - 1, q);
+        }
     }
-    private void parseData(String unparsedData) {
-        String[] stageOne = unparsedData.split(QUIZ_CARD_TERMINATOR);
 
-        for (String stageTwo : stageOne) {
-            String[] quizCardData = stageTwo.split(QUIZ_CARD_SEPARATOR);
-            addQuizCard(quizCardData[0], quizCardData[1]);
+    /** addQuizCards - appends every card of another deck, and counts its malformed records as this deck's. */
+    void addQuizCards(Deck other){
+        if(journal == null && searchIndex == null && duplicateIndex == null){
+            quizCardList.addAll(other.quizCardList);
+            cardChanges++;
+        }else{
+            for(QuizCard quizCard : other.quizCardList){
+                addQuizCard(quizCard.getQuestion(), quizCard.getAnswer());
+            }
         }
+        numMalformed += other.numMalformed;
+    }
+
+    /** checkpoint - remembers the cards as they are now, so that the changes made after it can be undone. Costs
+     * O(1), as the snapshot shares everything with the deck until it changes. */
+    void checkpoint(){
+        undoHistory.push(quizCardList.snapshot());
+        if(undoHistory.size() > MAXIMUM_UNDO){
+            undoHistory.removeLast();
+        }
+        redoHistory.clear();
+    }
+
+    boolean canUndo(){
+        return !undoHistory.isEmpty();
     }
+
+    boolean canRedo(){
+        return !redoHistory.isEmpty();
+    }
+
+    /** undo - goes back to the cards as they were at the last checkpoint. */
+    void undo(){
+        redoHistory.push(quizCardList.snapshot());
+        restore(undoHistory.pop());
+    }
+
+    /** redo - goes forward again to the cards as they were before the last undo. */
+    void redo(){
+        undoHistory.push(quizCardList.snapshot());
+        restore(redoHistory.pop());
+    }
+
+    /** truncate - drops every card from size on. The journal has no record for it, so the next save writes the
+     * whole deck. */
+    void truncate(int size){
+        quizCardList.truncate(size);
+        isJournalStale = true;
+        dropIndexes();
+    }
+
+    /** removeQuizCards - drops the cards at indexes, which are sorted. The journal has no record for it, so the
+     * next save writes the whole deck. */
+    void removeQuizCards(int[] indexes){
+        quizCardList.removeCards(indexes);
+        isJournalStale = true;
+        dropIndexes();
+    }
+
+    /** restore - the journal has no records for going back, so the next save writes the whole deck instead. */
+    private void restore(CardVector snapshot){
+        quizCardList.restore(snapshot);
+        isJournalStale = true;
+        dropIndexes();
+        isModified = true;
+    }
+
+    /** editQuizCard - replaces the card at index, recording the change in the journal if there is one. */
+    void editQuizCard(int index, String q, String a){
+        QuizCard previous = quizCardList.set(index, new QuizCard(q, a));
+        cardChanges++;
+        if(journal != null){
+            journal.edit(index, q, a);
+        }
+        if(searchIndex != null){
+            searchIndex.remove(index, previous.getQuestion(), previous.getAnswer());
+            searchIndex.add(index, q, a);
+        }
+        if(duplicateIndex != null){
+            duplicateIndex.add(index, q);
+        }
+    }
+
+    /** buildSearchIndex - indexes every card, so that searches never have to scan the deck. Called when a deck
+     * is loaded; afterwards the index is kept up to date as cards are added and edited. */
+    void buildSearchIndex(){
+        searchIndex = indexSearch(quizCardList);
+    }
+
+    /** search - the indexes of the cards matching the query (see SearchIndex), or null while the deck has no
+     * index (see hasIndexes). */
+    int[] search(String query){
+        return searchIndex == null ? null : searchIndex.search(query);
+    }
+
+    /** buildDuplicateIndex - indexes the question of every card for findDuplicate and findSimilar, counting the
+     * cards that repeat an earlier one exactly or nearly. Called when a deck is loaded, like buildSearchIndex. */
+    void buildDuplicateIndex(){
+        int[] count = new int[1];
+        duplicateIndex = indexDuplicates(quizCardList, count);
+        numDuplicates = count[0];
+    }
+
+    /** findDuplicate - the card with the same question once case, punctuation and spacing are ignored, or -1. Needs
+     * the indexes (see hasIndexes). */
+    int findDuplicate(String question){
+        return duplicateIndex.findExact(question);
+    }
+
+    /** findSimilar - the card whose question is most like question (see DuplicateIndex), or -1 if none is close
+     * enough. Needs the indexes (see hasIndexes). */
+    int findSimilar(String question){
+        return duplicateIndex.findSimilar(question);
+    }
+
+    /** hasIndexes - whether search, findDuplicate and findSimilar can be used. Additions and edits keep the indexes
+     * up to date, but a shuffle, undo, redo, truncate or removal moves cards to other positions, which drops them
+     * until they are rebuilt off the event thread with prepareIndexes. */
+    boolean hasIndexes(){
+        return searchIndex != null && duplicateIndex != null;
+    }
+
+    /** Indexes - a search index and a duplicate index built by prepareIndexes, for the cards as they were then. */
+    static final class Indexes {
+        private final SearchIndex searchIndex;
+        private final DuplicateIndex duplicateIndex;
+        private final int numDuplicates;
+        private final long cardChanges;
+
+        private Indexes(SearchIndex searchIndex, DuplicateIndex duplicateIndex, int numDuplicates, long cardChanges){
+            this.searchIndex = searchIndex;
+            this.duplicateIndex = duplicateIndex;
+            this.numDuplicates = numDuplicates;
+            this.cardChanges = cardChanges;
+        }
+    }
+
+    /** prepareIndexes - takes a snapshot of the cards, so that the returned operation can index them on another
+     * thread while the deck keeps being used. Its result is handed to installIndexes on the event thread. */
+    DeckOperation<Indexes> prepareIndexes(){
+        CardVector cards = snapshot();
+        long changes = cardChanges;
+        return new DeckOperation<Indexes>() {
+            @Override
+            public Indexes run(DeckProgress progress) {
+                int[] count = new int[1];
+                DuplicateIndex duplicates = indexDuplicates(cards, count);
+                return new Indexes(indexSearch(cards), duplicates, count[0], changes);
+            }
+
+            @Override
+            public boolean isCancellable() {
+                return false; // what waits for the indexes would never run
+            }
+        };
+    }
+
+    /** installIndexes - takes the indexes prepareIndexes built, unless the cards changed while they were being
+     * built. Returns false in that case, and they have to be prepared again. */
+    boolean installIndexes(Indexes indexes){
+        if(indexes.cardChanges != cardChanges){
+            return false;
+        }
+        searchIndex = indexes.searchIndex;
+        duplicateIndex = indexes.duplicateIndex;
+        numDuplicates = indexes.numDuplicates;
+        return true;
+    }
+
+    private void dropIndexes(){
+        cardChanges++;
+        searchIndex = null; // the indexes refer to cards by position
+        duplicateIndex = null;
+    }
+
+    private static SearchIndex indexSearch(List<QuizCard> quizCards){
+        SearchIndex index = new SearchIndex();
+        for(int i = 0; i < quizCards.size(); i++){
+            QuizCard quizCard = quizCards.get(i);
+            index.add(i, quizCard.getQuestion(), quizCard.getAnswer());
+        }
+        return index;
+    }
+
+    /** indexDuplicates - a DuplicateIndex of the cards, counting in count[0] those that repeat an earlier one
+     * exactly or nearly. */
+    private static DuplicateIndex indexDuplicates(List<QuizCard> quizCards, int[] count){
+        return DuplicateIndex.build(quizCards, new DuplicateIndex.Handler() {
+            @Override
+            public void exact(int card, int original) {
+                count[0]++;
+            }
+
+            @Override
+            public void similar(int card, int original, double similarity) {
+                count[0]++;
+            }
+        });
+    }
+
+    /** readFile - opens a deck in any format. A binary or compressed deck is memory-mapped and its cards are only
+     * decoded (or their block inflated) when they are used. A text deck is streamed through DeckReader, adding each
+     * card as soon as it has been scanned; records without a separator are skipped and counted rather than aborting
+     * the whole load. */
     void readFile(String fileLocation){
+        try{
+            readFile(fileLocation, DeckProgress.NONE);
+        }catch(IOException ioEx){
+            ioEx.printStackTrace();
+        }
+    }
+
+    void readFile(String fileLocation, DeckProgress progress) throws IOException {
         file = new File(fileLocation);
         setFileName(file.getName());
         assert file.canRead();
-        try(BufferedReader input = new BufferedReader(new FileReader(file))){
-            int letterNumber;
-            StringBuilder dataToParse = new StringBuilder();
-            while((letterNumber = input.read()) != -1){
-                dataToParse.append((char) letterNumber);
+        DeckMetrics.Span span = DeckMetrics.begin(DeckMetrics.LOAD, file.toPath());
+        DeckFormat format;
+        try{
+            format = DeckFormat.detect(file.toPath());
+            if(format == DeckFormat.BINARY){
+                quizCardList = new CardStore(new MappedCardList(new MappedFile(file.toPath())));
+            }else if(format == DeckFormat.COMPRESSED){
+                quizCardList = new CardStore(new CompressedCardList(new MappedFile(file.toPath())));
+            }else{
+                readTextFile(progress);
             }
-            parseData(dataToParse.toString());
-        }catch(IOException ioEx){
-            ioEx.printStackTrace();
+            if(isJournaled){
+                journal = DeckJournal.open(this, file.toPath());
+            }
+        }catch(IOException | RuntimeException ex){
+            span.failed(ex);
+            throw ex;
         }
+        span.finished(format.getName(), file.length(), quizCardList.size());
     }
-    
-    void save(String fileLocation){
-        file = new File(fileLocation);
-        assert file.canWrite();
-        try (BufferedWriter output = new BufferedWriter(new FileWriter(file))) {
-            for(QuizCard quizCard : quizCardList){
-                output.write(quizCard.getQuestion() + QUIZ_CARD_SEPARATOR + quizCard.getAnswer() + QUIZ_CARD_TERMINATOR);
+
+    /** readTextFile - streams the cards of a text deck in. A compact deck that is still empty copies the UTF-8
+     * bytes of each card straight into a TextArenaCardList, so the text is never decoded while loading. */
+    private void readTextFile(DeckProgress progress) throws IOException {
+        TextArenaCardList arena = isCompact && quizCardList.isEmpty() ? new TextArenaCardList() : null;
+        DeckReader.MalformedReport report = new DeckReader.MalformedReport(file.toPath());
+        DeckReader reader = new DeckReader(new DeckReader.Handler() {
+            @Override
+            public void card(String question, String answer) {
+                if(arena != null){
+                    arena.add(new QuizCard(question.isEmpty() ? " " : question, answer.isEmpty() ? " " : answer));
+                }else{
+                    addQuizCard(question, answer);
+                }
             }
-        }catch(IOException ioEx){
-            ioEx.printStackTrace();
+
+            @Override
+            public void card(byte[] record, int questionEnd, int answerStart, int answerEnd) {
+                // Empty texts get a placeholder, so those are decoded and go through card(String, String).
+                if(arena != null && questionEnd > 0 && answerEnd > answerStart){
+                    arena.add(record, 0, questionEnd, record, answerStart, answerEnd - answerStart);
+                }else{
+                    DeckReader.Handler.super.card(record, questionEnd, answerStart, answerEnd);
+                }
+            }
+
+            @Override
+            public void malformed(long recordNumber, String record) {
+                numMalformed++;
+                report.malformed(recordNumber);
+            }
+        }, progress);
+        reader.read(file.toPath());
+        report.finish();
+        if(arena != null){
+            arena.trimToSize();
+            quizCardList = new CardStore(arena);
+            dropIndexes();
         }
     }
     
-    void shuffle(){
-        Collections.shuffle(quizCardList);
+    /** save - saves the deck to fileLocation on the calling thread. */
+    void save(String fileLocation) throws IOException {
+        prepareSave(fileLocation, "").run(DeckProgress.NONE);
+    }
+
+    /** prepareSave - takes what a save of the deck to fileLocation needs, so that the returned operation can write
+     * it on another thread while the deck keeps being edited. When the deck is journaled and already lives there,
+     * only the changes made since the last save are appended to its journal, and the journal is compacted into a
+     * new deck file in the background once it grows large. Otherwise a snapshot of the whole deck is written, in
+     * the format implied by the file extension, once any compaction still writing a deck file has finished, and a
+     * fresh journal is started.
+     *
+     * The images go along with a deck saved under a new name, and whenever the deck file is rewritten its image
+     * files are too, without the images that neither its cards nor draft, the text of a card still being written,
+     * attach any more. */
+    DeckOperation<Void> prepareSave(String fileLocation, String draft){
+        File target = new File(fileLocation);
+        if(journal != null && journal.isAttached() && target.equals(file) && !isJournalStale){
+            DeckJournal current = journal;
+            byte[] records = current.drainPending();
+            List<QuizCard> compactionSnapshot = current.shouldCompact() ? snapshot() : null;
+            ImageStore compactedImages = compactionSnapshot == null ? null : getImages();
+            int cards = quizCardList.size();
+            return new DeckOperation<Void>() {
+                @Override
+                public Void run(DeckProgress progress) throws IOException {
+                    DeckMetrics.Span span = DeckMetrics.begin(DeckMetrics.SAVE, target.toPath());
+                    try{
+                        current.append(records);
+                    }catch(IOException | RuntimeException ex){
+                        span.failed(ex);
+                        throw ex;
+                    }
+                    span.finished("journal", records.length, cards);
+                    if(compactionSnapshot != null){
+                        current.compact(compactionSnapshot);
+                        compactedImages.relocate(target.toPath(), keptImages(compactedImages, compactionSnapshot,
+                                draft));
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean isCancellable() {
+                    return false; // an interrupt would close the journal's channel half way through a record
+                }
+            };
+        }
+        DeckJournal previous = journal;
+        List<QuizCard> snapshot = snapshot();
+        ImageStore carriedImages = images != null || file != null ? getImages() : null;
+        isJournalStale = false;
+        file = target;
+        journal = isJournaled ? new DeckJournal(target.toPath()) : null;
+        DeckJournal next = journal;
+        return new DeckOperation<Void>() {
+            @Override
+            public Void run(DeckProgress progress) throws IOException {
+                if(previous != null){
+                    previous.close();
+                }
+                DeckJournal.awaitCompactions();
+                DeckFormat.writeAtomically(target.toPath(), snapshot, progress);
+                if(carriedImages != null){
+                    carriedImages.relocate(target.toPath(), keptImages(carriedImages, snapshot, draft));
+                }
+                if(next != null){
+                    next.attach();
+                }else{
+                    DeckJournal.delete(target.toPath());
+                }
+                return null;
+            }
+
+            /** cancelled - the deck has already moved on to the new journal, so the previous one is closed all
+             * the same. */
+            @Override
+            public void cancelled() {
+                if(previous != null){
+                    try{
+                        previous.close();
+                    }catch(IOException ioEx){
+                        ioEx.printStackTrace();
+                    }
+                }
+            }
+        };
+    }
+
+    /** Shuffle - the cards shuffled by prepareShuffle, with the seed the journal needs to replay it. */
+    static final class Shuffle {
+        private final CardVector before;
+        private final List<QuizCard> shuffled;
+        private final long seed;
+        private final long cardChanges;
+
+        private Shuffle(CardVector before, List<QuizCard> shuffled, long seed, long cardChanges){
+            this.before = before;
+            this.shuffled = shuffled;
+            this.seed = seed;
+            this.cardChanges = cardChanges;
+        }
+    }
+
+    /** prepareShuffle - takes a snapshot of the cards and a fresh seed, so that the returned operation can shuffle
+     * them on another thread. Its result is handed to installShuffle on the event thread. */
+    DeckOperation<Shuffle> prepareShuffle(){
+        CardVector cards = snapshot();
+        long seed = random.nextLong();
+        long changes = cardChanges;
+        return progress -> new Shuffle(cards, CardStore.shuffled(cards, seed), seed, changes);
+    }
+
+    /** installShuffle - makes the cards those prepareShuffle shuffled, after a checkpoint, unless they changed
+     * while they were being shuffled. Returns false in that case, and the deck is left as it is. */
+    boolean installShuffle(Shuffle shuffle){
+        if(shuffle.cardChanges != cardChanges){
+            return false;
+        }
+        checkpoint();
+        quizCardList.applyShuffle(shuffle.before, shuffle.shuffled, shuffle.seed);
+        dropIndexes();
+        if(journal != null){
+            journal.shuffle(shuffle.seed);
+        }
+        return true;
+    }
+
+    /** shuffleJournaled - shuffles the deck with seed and records it in the journal, for a shuffle replayed from
+     * the recovery log. */
+    void shuffleJournaled(long seed){
+        shuffle(seed);
+        if(journal != null){
+            journal.shuffle(seed);
+        }
+    }
+
+    void shuffle(long seed){
+        quizCardList.shuffle(seed);
+        dropIndexes();
+    }
+
+    /** shufflePlayOrder - plays the deck in a fresh shuffled order without moving any card, so the deck is not
+     * modified. */
+    void shufflePlayOrder(){
+        setPlayOrder(random.nextLong());
+    }
+
+    /** setPlayOrder - plays the deck in the order given by seed, which is the same every time for a deck of the
+     * same size. */
+    void setPlayOrder(long seed){
+        playOrder = new Permutation(quizCardList.size(), seed);
+    }
+
+    void clearPlayOrder(){
+        playOrder = null;
+    }
+
+    /** getPlayOrder - the order the cards are played in, or null for deck order. If cards were added since it
+     * was set, it is recomputed with the same seed to cover them. */
+    Permutation getPlayOrder(){
+        if(playOrder != null && playOrder.size() != quizCardList.size()){
+            playOrder = new Permutation(quizCardList.size(), playOrder.getSeed());
+        }
+        return playOrder;
+    }
+
+    /** getImages - the images attached to the cards, opened the first time they are needed so that opening a deck
+     * never reads them. A deck saved under a new name takes its images along. */
+    ImageStore getImages(){
+        if(images == null){
+            images = file == null ? ImageStore.inMemory() : ImageStore.open(file.toPath());
+        }
+        return images;
+    }
+
+    /** linkImages - shows the images of the decks at deckPaths, which the cards of this deck were taken from, until
+     * it is saved with copies of those its cards attach. */
+    void linkImages(List<Path> deckPaths){
+        images = ImageStore.linking(deckPaths);
+    }
+
+    /** keptImages - the images of images to keep with cards: those the cards or draft attach. The cards are only
+     * searched for references when there are images at all. */
+    private static LongPredicate keptImages(ImageStore images, List<QuizCard> cards, String draft)
+            throws IOException {
+        if(images.size() == 0){
+            return id -> false;
+        }
+        return ImageStore.referencedBy(cards, draft)::contains;
+    }
+
+    /** snapshot - the cards as they are now, which later edits will not affect. Taking one costs O(1), so it can be
+     * handed to another thread to read while editing carries on. */
+    CardVector snapshot(){
+        return quizCardList.snapshot();
+    }
+
+    boolean hasFileLocation(){
+        return file != null;
     }
 
     String getFileLocation(){
@@ -85,6 +547,14 @@ public class Deck {
         return fileName;
     }
 
+    boolean getIsCompact(){
+        return isCompact;
+    }
+
+    boolean getIsJournaled(){
+        return isJournaled;
+    }
+
     boolean getIsModified(){
         return isModified;
     }
@@ -101,10 +571,24 @@ public class Deck {
         return numWrong;
     }
 
+    int getNumMalformed(){
+        return numMalformed;
+    }
+
+    /** getNumDuplicates - the cards found repeating an earlier card when the duplicate index was last built. */
+    int getNumDuplicates(){
+        return numDuplicates;
+    }
+
     List<QuizCard> getQuizCardList(){
         return quizCardList;
     }
 
+    /** addMalformed - counts a record that could not be read, for loaders that parse the file themselves. */
+    void addMalformed(){
+        numMalformed++;
+    }
+
     void setFileName(String fileName) {
         if(fileName.contains(".")){
             fileName = fileName.split("\\.")[0];
@@ -112,8 +596,27 @@ public class Deck {
         this.fileName = fileName;
     }
 
+    /** setIsCompact - whether text decks read from now on keep their cards in a shared UTF-8 arena instead of
+     * one QuizCard per card. Cards already in the deck are not converted. */
+    void setIsCompact(boolean newValue){
+        isCompact = newValue;
+    }
+
+    void setIsJournaled(boolean newValue){
+        isJournaled = newValue;
+    }
+
     void setIsModified(boolean newValue){
         isModified = newValue;
+        if(newValue){
+            modifications++;
+        }
+    }
+
+    /** getModifications - how many times the deck has been marked modified, so that a save can tell whether it
+     * was changed again while it was being written. */
+    long getModifications(){
+        return modifications;
     }
 
     void setIsTestRunning(boolean newValue){
@@ -128,4 +631,4 @@ public class Deck {
         numWrong = newValue;
     }
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,480 @@
+package quizcard;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import javax.swing.Timer;
+
+/** DeckAutosave - keeps a recovery log of the unsaved changes to a Deck, including the question and answer being
+ * typed, so that they can be restored after a crash.
+ *
+ * Changes are only counted as they happen. A timer on the event thread writes once MAXIMUM_CHANGES have piled up,
+ * or INTERVAL after the first unwritten change: it takes an O(1) snapshot of the deck and hands it to the
+ * DeckIOService, which compares it with the snapshot written last (see CardVector.changedSince) and appends only
+ * the cards that differ. A shuffle or a removal gives the deck a new base list, and then the log records the seed
+ * or the removed positions (see CardVector.Origin) rather than every card. Once the log has grown to twice the size
+ * it had when last started, it is started again with the changes since the deck was saved. Every successful save
+ * deletes it.
+ *
+ * The log is stamped with the saved version of the deck it was recorded against, much as DeckJournal stamps its
+ * log: by the number of cards, the size and modification time of the deck file and the length of its journal, read
+ * once any compaction has finished, so stamping never reads a card. A save appends to the journal or rewrites the
+ * deck file, so a log is only offered for the version it was recorded against. The log of a saved deck is kept next
+ * to it, and that of a deck never saved, stamped with its number of cards alone, in the user's home folder. */
+class DeckAutosave {
+    static final long INTERVAL = 30_000;
+    static final int MAXIMUM_CHANGES = 200;
+    static final String SUFFIX = ".recovery";
+
+    private static final int MAGIC = 0x51435256; // "QCRV"
+    private static final int HEADER_SIZE = Integer.BYTES + 4 * Long.BYTES;
+    private static final int TIMER_PERIOD = 1000;
+    private static final long MINIMUM_REWRITE_SIZE = 1 << 16;
+
+    private static final byte SET = 1;
+    private static final byte SIZE = 2;
+    private static final byte DRAFT = 3;
+    private static final byte SHUFFLE = 4;
+    private static final byte REMOVE = 5;
+
+    private final DeckIOService deckIOService;
+    private final Draft draft;
+    private final Timer timer;
+
+    // Owned by the event thread.
+    private Deck deck;
+    private Path deckPath;
+    private CardVector saved;
+    private CardVector written;
+    private String writtenQuestion = "";
+    private String writtenAnswer = "";
+    private boolean isRestartNeeded;
+    private int changes;
+    private long firstChange;
+    private Runnable rollback;
+
+    // Owned by the I/O thread.
+    private long restartedSize;
+
+    /** Draft - where the text being typed is read from. */
+    interface Draft {
+        String getQuestion();
+
+        String getAnswer();
+    }
+
+    DeckAutosave(DeckIOService deckIOService, Draft draft){
+        this.deckIOService = deckIOService;
+        this.draft = draft;
+        timer = new Timer(TIMER_PERIOD, ev -> tick());
+    }
+
+    /** attach - starts following a deck that has just been opened or created. Nothing is written until it
+     * changes. */
+    void attach(Deck newDeck){
+        deck = newDeck;
+        deckPath = newDeck.hasFileLocation() ? Paths.get(newDeck.getFileLocation()) : null;
+        saved = newDeck.snapshot();
+        written = saved;
+        writtenQuestion = "";
+        writtenAnswer = "";
+        isRestartNeeded = true;
+        changes = 0;
+        rollback = null;
+        timer.start();
+    }
+
+    /** changed - counts one change to the deck or to the text being typed. */
+    void changed(){
+        if(changes++ == 0){
+            firstChange = System.currentTimeMillis();
+        }
+    }
+
+    private void tick(){
+        if(changes == 0 || changes < MAXIMUM_CHANGES && System.currentTimeMillis() - firstChange < INTERVAL){
+            return;
+        }
+        changes = 0;
+        CardVector current = deck.snapshot();
+        String question = draft.getQuestion();
+        String answer = draft.getAnswer();
+        Path target = deckPath;
+        CardVector base = saved;
+        CardVector from = isRestartNeeded ? null : written;
+        String fromQuestion = writtenQuestion;
+        String fromAnswer = writtenAnswer;
+        written = current;
+        writtenQuestion = question;
+        writtenAnswer = answer;
+        isRestartNeeded = false;
+        deckIOService.submit(progress -> {
+            Path path = recoveryPath(target);
+            if(from == null || Files.notExists(path)
+                    || Files.size(path) > Math.max(MINIMUM_REWRITE_SIZE, 2 * restartedSize)){
+                restartedSize = write(path, stamp(target, base.size()), null, base, current, "", "", question,
+                        answer);
+            }else{
+                write(path, null, from, base, current, fromQuestion, fromAnswer, question, answer);
+            }
+            return null;
+        }, new DeckIOService.Listener<Void>() {
+            @Override
+            public void finished(Void result) {
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                ex.printStackTrace();
+                isRestartNeeded = true; // the log may end part way through a record
+            }
+        });
+    }
+
+    /** wrapSave - a save of snapshot to target that also deletes the recovery logs once the deck has been written.
+     * From here on changes are recorded against the version being saved; call saveFailed if it does not go
+     * through. */
+    DeckOperation<Void> wrapSave(DeckOperation<Void> save, Path target, CardVector snapshot){
+        Path previousPath = deckPath;
+        CardVector previousSaved = saved;
+        rollback = () -> {
+            deckPath = previousPath;
+            saved = previousSaved;
+            isRestartNeeded = true;
+            changed();
+        };
+        deckPath = target;
+        saved = snapshot;
+        isRestartNeeded = true;
+        changes = 0;
+        return new DeckOperation<Void>() {
+            @Override
+            public Void run(DeckProgress progress) throws IOException {
+                save.run(progress);
+                Files.deleteIfExists(recoveryPath(previousPath));
+                Files.deleteIfExists(recoveryPath(target));
+                return null;
+            }
+
+            @Override
+            public boolean isCancellable() {
+                return save.isCancellable();
+            }
+
+            @Override
+            public void cancelled() {
+                save.cancelled();
+            }
+        };
+    }
+
+    /** saveFailed - goes back to recording against the version of the deck saved before. */
+    void saveFailed(){
+        if(rollback != null){
+            rollback.run();
+            rollback = null;
+        }
+    }
+
+    /** discard - deletes the recovery log and stops writing it, for when the user chose not to keep the changes,
+     * then runs afterDiscard on the event thread. */
+    void discard(Runnable afterDiscard){
+        timer.stop();
+        delete(deckPath, afterDiscard);
+    }
+
+    /** offerRecovery - looks for a recovery log of the attached deck in the background. If there is one recorded
+     * against the deck as it is now, shouldRestore is asked on the event thread whether to apply it, and the text
+     * it held is handed to restoreDraft. Any other log is deleted. */
+    void offerRecovery(BooleanSupplier shouldRestore, BiConsumer<String, String> restoreDraft){
+        Deck target = deck;
+        Path targetPath = deckPath;
+        int cards = target.getQuizCardList().size();
+        deckIOService.submit(progress -> read(targetPath, cards), new DeckIOService.Listener<ByteBuffer>() {
+            @Override
+            public void finished(ByteBuffer records) {
+                if(records == null || deck != target){
+                    return;
+                }
+                if(shouldRestore.getAsBoolean()){
+                    String[] text = replay(target, records);
+                    target.setIsModified(true);
+                    restoreDraft.accept(text[0], text[1]);
+                    isRestartNeeded = true;
+                    changed();
+                }else{
+                    delete(targetPath, () -> { });
+                }
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                ex.printStackTrace();
+            }
+        });
+    }
+
+    /** recoveryPath - the log of the deck at deckPath, or of a deck never saved if deckPath is null. */
+    static Path recoveryPath(Path deckPath){
+        if(deckPath == null){
+            return Paths.get(System.getProperty("user.home"), ".quizcard-untitled" + SUFFIX);
+        }
+        return deckPath.resolveSibling(deckPath.getFileName() + SUFFIX);
+    }
+
+    private void delete(Path targetPath, Runnable afterDelete){
+        deckIOService.submit(progress -> {
+            Files.deleteIfExists(recoveryPath(targetPath));
+            return null;
+        }, new DeckIOService.Listener<Void>() {
+            @Override
+            public void finished(Void result) {
+                afterDelete.run();
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                ex.printStackTrace();
+                afterDelete.run();
+            }
+        });
+    }
+
+    /** write - appends the changes made between two snapshots to the log, or when from is null starts it again,
+     * stamped with stamp, with the changes since base. Returns the number of bytes written. Runs on the I/O
+     * thread. */
+    private static long write(Path path, long[] stamp, CardVector from, CardVector base, CardVector to,
+                              String fromQuestion, String fromAnswer, String question, String answer)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        if(from == null){
+            output.writeInt(MAGIC);
+            for(long value : stamp){
+                output.writeLong(value);
+            }
+        }
+        CardVector previous = from == null ? base : from;
+        List<CardVector[]> steps = steps(previous, to);
+        if(steps == null){
+            // An undo past a shuffle, say, which the log has no record for.
+            output.writeByte(SIZE);
+            output.writeInt(0);
+            for(int index = 0; index < to.size(); index++){
+                writeSet(output, index, to.get(index));
+            }
+        }else{
+            for(CardVector[] step : steps){
+                writeChanges(output, previous, step[0]);
+                CardVector.Origin origin = step[1].origin;
+                if(origin.removed == null){
+                    output.writeByte(SHUFFLE);
+                    output.writeLong(origin.seed);
+                }else{
+                    output.writeByte(REMOVE);
+                    output.writeInt(origin.removed.length);
+                    for(int index : origin.removed){
+                        output.writeInt(index);
+                    }
+                }
+                previous = step[1];
+            }
+            writeChanges(output, previous, to);
+        }
+        if(!question.equals(fromQuestion) || !answer.equals(fromAnswer)){
+            output.writeByte(DRAFT);
+            writeText(output, question);
+            writeText(output, answer);
+        }
+        if(from != null && bytes.size() == 0){
+            return 0;
+        }
+        StandardOpenOption[] options = from == null
+                ? new StandardOpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING}
+                : new StandardOpenOption[]{StandardOpenOption.WRITE, StandardOpenOption.APPEND};
+        try(FileChannel channel = FileChannel.open(path, options)){
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }catch(NoSuchFileException noFileEx){
+            // Deleted by a save in the meantime, which has already started a new log.
+        }
+        return bytes.size();
+    }
+
+    /** writeChanges - the records that turn previous into to, which have the same base list. */
+    private static void writeChanges(DataOutputStream output, CardVector previous, CardVector to) throws IOException {
+        try{
+            to.changedSince(previous, index -> {
+                try{
+                    writeSet(output, index, to.get(index));
+                }catch(IOException ioEx){
+                    throw new UncheckedIOException(ioEx);
+                }
+            });
+        }catch(UncheckedIOException uncheckedEx){
+            throw uncheckedEx.getCause();
+        }
+        if(to.size() < previous.size()){
+            output.writeByte(SIZE);
+            output.writeInt(to.size());
+        }
+        for(int index = Math.min(previous.size(), to.size()); index < to.size(); index++){
+            writeSet(output, index, to.get(index));
+        }
+    }
+
+    /** steps - the shuffles and removals that made the base list of to out of that of previous, oldest first, each
+     * as the versions just before and just after it, or null if the origins of to do not lead back to previous. */
+    private static List<CardVector[]> steps(CardVector previous, CardVector to){
+        List<CardVector[]> steps = new ArrayList<>();
+        CardVector after = to;
+        while(after.base != previous.base){
+            CardVector before = after.origin == null ? null : after.origin.before();
+            if(before == null){
+                return null;
+            }
+            steps.add(new CardVector[]{before,
+                    new CardVector(after.base, null, CardVector.BITS, after.base.size(), after.origin)});
+            after = before;
+        }
+        Collections.reverse(steps);
+        return steps;
+    }
+
+    /** stamp - identifies the saved version of the deck at deckPath, of the given number of cards, that a log
+     * applies to, without reading a card. The deck file and its journal are looked at once any compaction of the
+     * deck has finished, as one replaces the deck file without changing its cards. */
+    private static long[] stamp(Path deckPath, int cards) throws IOException {
+        if(deckPath == null){
+            return new long[]{cards, -1, -1, -1};
+        }
+        DeckJournal.awaitCompactions();
+        return new long[]{cards, Files.size(deckPath), Files.getLastModifiedTime(deckPath).toMillis(),
+                DeckJournal.loggedBytes(deckPath)};
+    }
+
+    /** read - the records of the log, or null if there is none or it was recorded against another version of the
+     * deck than the one of the given number of cards now saved at deckPath, in which case it is deleted. */
+    private static ByteBuffer read(Path deckPath, int cards) throws IOException {
+        Path path = recoveryPath(deckPath);
+        if(!Files.exists(path)){
+            return null;
+        }
+        ByteBuffer input = ByteBuffer.wrap(Files.readAllBytes(path));
+        boolean matches = input.remaining() > HEADER_SIZE && input.getInt() == MAGIC;
+        if(matches){
+            for(long expected : stamp(deckPath, cards)){
+                matches &= input.getLong() == expected;
+            }
+        }
+        if(!matches){
+            Files.delete(path);
+            return null;
+        }
+        return input;
+    }
+
+    /** replay - applies the records to the deck and returns the last text being typed, as question and answer. A
+     * record cut short by a crash ends the replay. */
+    private static String[] replay(Deck deck, ByteBuffer input){
+        String[] text = {"", ""};
+        try{
+            while(input.hasRemaining()){
+                byte type = input.get();
+                if(type == SET){
+                    int index = input.getInt();
+                    String question = readText(input);
+                    String answer = readText(input);
+                    int size = deck.getQuizCardList().size();
+                    if(index == size){
+                        deck.addQuizCard(question, answer);
+                    }else if(index >= 0 && index < size){
+                        deck.editQuizCard(index, question, answer);
+                    }else{
+                        break;
+                    }
+                }else if(type == SIZE){
+                    int size = input.getInt();
+                    if(size < 0 || size > deck.getQuizCardList().size()){
+                        break;
+                    }
+                    deck.truncate(size);
+                }else if(type == SHUFFLE){
+                    deck.shuffleJournaled(input.getLong());
+                }else if(type == REMOVE){
+                    int[] removed = readRemoved(input, deck.getQuizCardList().size());
+                    if(removed == null){
+                        break;
+                    }
+                    deck.removeQuizCards(removed);
+                }else if(type == DRAFT){
+                    String question = readText(input);
+                    text = new String[]{question, readText(input)};
+                }else{
+                    break;
+                }
+            }
+        }catch(BufferUnderflowException underflowEx){
+            // A record that was cut short; everything before it has been applied.
+        }
+        return text;
+    }
+
+    /** readRemoved - the positions of a REMOVE record, or null if they are not increasing positions below size. */
+    private static int[] readRemoved(ByteBuffer input, int size){
+        int count = input.getInt();
+        if(count < 0 || count > size){
+            return null;
+        }
+        int[] removed = new int[count];
+        for(int i = 0; i < count; i++){
+            removed[i] = input.getInt();
+            if(removed[i] < (i == 0 ? 0 : removed[i - 1] + 1) || removed[i] >= size){
+                return null;
+            }
+        }
+        return removed;
+    }
+
+    private static void writeSet(DataOutputStream output, int index, QuizCard quizCard) throws IOException {
+        output.writeByte(SET);
+        output.writeInt(index);
+        writeText(output, quizCard.getQuestion());
+        writeText(output, quizCard.getAnswer());
+    }
+
+    private static void writeText(DataOutputStream output, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readText(ByteBuffer input){
+        int length = input.getInt();
+        if(length < 0 || length > input.remaining()){
+            throw new BufferUnderflowException();
+        }
+        String text = new String(input.array(), input.position(), length, StandardCharsets.UTF_8);
+        input.position(input.position() + length);
+        return text;
+    }
+}
@@ -0,0 +1,502 @@
+package quizcard;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.text.Document;
+
+/** DeckBenchmark - measures the deck engine on synthetic decks and writes the results as JSON, so that runs from
+ * different releases can be compared. It uses nothing outside the JDK and runs straight from the compiled
+ * classes:
+ *
+ *     java -cp classes quizcard.DeckBenchmark --cards 1000,100000,1000000 --answers short,long --out results.json
+ *
+ * By default decks of 1000 to 10,000,000 cards are measured; a deck too large to fit in the heap next to its
+ * loaded copies is skipped and recorded as such, so give the largest ones a larger -Xmx.
+ *
+ * Every benchmark is warmed up before it is measured. Besides the time per operation it reports the bytes the
+ * benchmark thread allocated per operation, the same figure as JMH's "-prof gc". The heap benchmarks instead
+ * report the heap a loaded deck keeps alive, with one QuizCard per card and with the text arena, and the size
+ * benchmark the bytes a deck takes in each file format. Small decks are loaded many times over for the heap
+ * benchmarks, so that the figure per card is not lost in the noise of the collector.
+ *
+ * The transition benchmarks time what the player does on the event thread when it moves to an answer, for answers
+ * of 100 to 1,000,000 characters, in a text area that is painted into an image instead of onto a screen, so they
+ * run headless. Their percentiles come from a LatencyHistogram, as the player's own in DeckMetrics do. */
+public class DeckBenchmark {
+    private static final String DEFAULT_CARD_COUNTS = "1000,100000,1000000,10000000";
+    private static final String DEFAULT_ANSWER_CHARS = "100,1000,10000,100000,1000000";
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java quizcard.DeckBenchmark [--cards <n>,...] [--answers short|long,...] [--transitions <n>,...]",
+            "                                   [--out <file>]",
+            "  --cards <n>,...        deck sizes to measure, default " + DEFAULT_CARD_COUNTS,
+            "  --answers <kind>,...   short (a few words) or long (several paragraphs), default short,long",
+            "  --transitions <n>,...  answer lengths in characters to time the player's moves with, default",
+            "                         " + DEFAULT_ANSWER_CHARS,
+            "  --out <file>           where to write the results as JSON, default deck-benchmark.json");
+    private static final int EXIT_USAGE = 2;
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+    private static final int ACCESSES = 1_000_000;
+    private static final int COMPRESSED_ACCESSES = 10_000;
+    private static final int ANSWERS_PER_CARD = 10;
+    private static final int MINIMUM_HEAP_CARDS = 200_000;
+    private static final int HEAP_SHORT_CARD_BYTES = 200;
+    private static final int HEAP_LONG_CARD_BYTES = 3000;
+    private static final int HEAP_DECK_COPIES = 4;
+    private static final int TRANSITION_CARDS = 8;
+    private static final int WARMUP_TRANSITIONS = 10;
+    private static final int MEASURED_TRANSITIONS = 40;
+    private static final int TRANSITION_WIDTH = 800;
+    private static final int TRANSITION_HEIGHT = 600;
+    private static final String[] WORDS = {"cell", "atom", "river", "theorem", "capital", "verb", "enzyme",
+            "orbit", "prime", "vector", "treaty", "allele", "tundra", "sonnet", "ledger", "photon"};
+
+    static volatile Object blackhole;
+
+    private final List<String> results = new ArrayList<>();
+    private final com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private Path directory;
+    private int cards;
+    private String answers;
+
+    /** Operation - one timed run of a benchmark, returning something so the work cannot be optimised away. */
+    private interface Operation {
+        Object run() throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length == 1 && (args[0].equals("--help") || args[0].equals("-h"))){
+            System.out.println(USAGE);
+            return;
+        }
+        String cardCounts = DEFAULT_CARD_COUNTS;
+        String answerLengths = "short,long";
+        String answerChars = DEFAULT_ANSWER_CHARS;
+        Path out = Paths.get("deck-benchmark.json");
+        int[] sizes;
+        String[] kinds;
+        int[] transitionLengths;
+        try{
+            for(int i = 0; i < args.length; i += 2){
+                if(i + 1 == args.length){
+                    throw new IllegalArgumentException("Missing value after " + args[i]);
+                }
+                switch(args[i]){
+                    case "--cards": cardCounts = args[i + 1]; break;
+                    case "--answers": answerLengths = args[i + 1]; break;
+                    case "--transitions": answerChars = args[i + 1]; break;
+                    case "--out": out = Paths.get(args[i + 1]); break;
+                    default: throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            sizes = parseCounts(cardCounts, "cards");
+            transitionLengths = parseCounts(answerChars, "characters");
+            kinds = answerLengths.split(",");
+            for(int i = 0; i < kinds.length; i++){
+                kinds[i] = kinds[i].trim();
+                if(!kinds[i].equals("short") && !kinds[i].equals("long")){
+                    throw new IllegalArgumentException("Not short or long: " + kinds[i]);
+                }
+            }
+        }catch(IllegalArgumentException argumentEx){
+            System.err.println(argumentEx.getMessage());
+            System.err.println(USAGE);
+            System.exit(EXIT_USAGE);
+            return;
+        }
+        DeckBenchmark benchmark = new DeckBenchmark();
+        for(String answerLength : kinds){
+            for(int cardCount : sizes){
+                if(fitsInHeap(cardCount, answerLength.equals("long"))){
+                    benchmark.runAll(cardCount, answerLength);
+                }else{
+                    benchmark.recordSkipped(cardCount, answerLength);
+                }
+            }
+        }
+        benchmark.runTransitions(transitionLengths);
+        benchmark.writeResults(out);
+        System.out.println("Results written to " + out.toAbsolutePath());
+    }
+
+    private static int[] parseCounts(String value, String unit){
+        String[] counts = value.split(",");
+        int[] sizes = new int[counts.length];
+        for(int i = 0; i < counts.length; i++){
+            try{
+                sizes[i] = Integer.parseInt(counts[i].trim());
+            }catch(NumberFormatException numberEx){
+                sizes[i] = 0;
+            }
+            if(sizes[i] <= 0){
+                throw new IllegalArgumentException("Not a positive number of " + unit + ": " + counts[i]);
+            }
+        }
+        return sizes;
+    }
+
+    /** fitsInHeap - whether HEAP_DECK_COPIES decks of this shape, about as many as a run keeps loaded at once,
+     * are likely to fit in the heap. */
+    private static boolean fitsInHeap(int cards, boolean longAnswers){
+        long bytesPerCard = longAnswers ? HEAP_LONG_CARD_BYTES : HEAP_SHORT_CARD_BYTES;
+        return (long) HEAP_DECK_COPIES * cards * bytesPerCard < Runtime.getRuntime().maxMemory();
+    }
+
+    private void recordSkipped(int cards, String answers){
+        String result = String.format(Locale.ROOT, "{\"benchmark\": \"skipped\", \"cards\": %d, \"answers\": \"%s\", " +
+                "\"maxHeapBytes\": %d}", cards, answers, Runtime.getRuntime().maxMemory());
+        results.add(result);
+        System.out.println(result);
+    }
+
+    /** runAll - builds a synthetic deck of the given shape and runs every benchmark over it. */
+    private void runAll(int cards, String answers) throws IOException {
+        this.cards = cards;
+        this.answers = answers;
+        directory = Files.createTempDirectory("deck-benchmark");
+        try{
+            Deck deck = generateDeck(cards, answers.equals("long"));
+            Path textFile = directory.resolve("deck.txt");
+            Path binaryFile = directory.resolve("deck" + DeckFormat.BINARY_EXTENSION);
+            Path compressedFile = directory.resolve("deck" + DeckFormat.COMPRESSED_EXTENSION);
+            deck.save(textFile.toString());
+            deck.save(binaryFile.toString());
+            deck.save(compressedFile.toString());
+            long textBytes = Files.size(textFile);
+            recordSizes(textFile, binaryFile, compressedFile);
+            Path csvFile = directory.resolve("deck.csv");
+            writeCsv(deck, csvFile);
+            long csvBytes = Files.size(csvFile);
+
+            measure("save.text", textBytes, () -> {
+                deck.save(directory.resolve("saved.txt").toString());
+                return deck;
+            });
+            measure("save.binary", textBytes, () -> {
+                deck.save(directory.resolve("saved" + DeckFormat.BINARY_EXTENSION).toString());
+                return deck;
+            });
+            measure("save.compressed", textBytes, () -> {
+                deck.save(directory.resolve("saved" + DeckFormat.COMPRESSED_EXTENSION).toString());
+                return deck;
+            });
+            measure("parse.text", textBytes, () -> {
+                long[] count = new long[1];
+                new DeckReader(new DeckReader.Handler() {
+                    @Override
+                    public void card(String question, String answer) {
+                        count[0]++;
+                    }
+
+                    @Override
+                    public void malformed(long recordNumber, String record) {
+                    }
+                }).read(textFile);
+                return count;
+            });
+            measure("parse.compressed", textBytes, () -> {
+                long[] count = new long[1];
+                DeckFormat.COMPRESSED.read(compressedFile, new DeckReader.Handler() {
+                    @Override
+                    public void card(String question, String answer) {
+                        count[0]++;
+                    }
+
+                    @Override
+                    public void malformed(long recordNumber, String record) {
+                    }
+                });
+                return count;
+            });
+            measure("load.text", textBytes, () -> open(textFile));
+            measure("load.binary", textBytes, () -> open(binaryFile));
+            measure("load.compressed", textBytes, () -> open(compressedFile));
+            measure("load.arena", textBytes, () -> open(textFile, true));
+            measure("load.parallel", textBytes, () -> DeckLibrary.loadFile(textFile, DeckProgress.NONE));
+            measure("import.csv", csvBytes,
+                    () -> new CsvImporter(',', false, "1", "2").read(csvFile, DeckProgress.NONE));
+            measureHeap("heap.list", () -> open(textFile, false));
+            measureHeap("heap.arena", () -> open(textFile, true));
+            measure("shuffle", 0, () -> {
+                deck.shuffle(42);
+                return deck;
+            });
+            measure("snapshot", 0, 1, deck::snapshot);
+            measure("duplicates", 0, () -> DuplicateIndex.build(deck.getQuizCardList(), null));
+            measureHeap("heap.duplicates", () -> DuplicateIndex.build(deck.getQuizCardList(), null));
+            measure("access.memory", 0, ACCESSES, () -> access(deck, ACCESSES));
+            Deck mappedDeck = open(binaryFile);
+            measure("access.binary", 0, ACCESSES, () -> access(mappedDeck, ACCESSES));
+            Deck compressedDeck = open(compressedFile);
+            measure("access.compressed", 0, COMPRESSED_ACCESSES, () -> access(compressedDeck, COMPRESSED_ACCESSES));
+            long historyRows = writeHistory(deck, textFile);
+            Path historyFile = ReviewHistory.historyPath(textFile);
+            long historyBytes = Files.size(historyFile);
+            measure("history.accuracy", historyBytes, historyRows, () -> HistoryQuery.accuracy(historyFile));
+            measure("history.recall", historyBytes, historyRows, () -> HistoryQuery.responseTimes(historyFile));
+            measure("history.retention", historyBytes, historyRows, () -> HistoryQuery.retention(historyFile));
+        }finally{
+            deleteDirectory();
+        }
+    }
+
+    private void measure(String name, long bytesPerOperation, Operation operation) throws IOException {
+        measure(name, bytesPerOperation, cards, operation);
+    }
+
+    /** measure - runs the operation through its warmup and measured iterations and records the averages.
+     * cardsPerOperation is the number of cards one run touches, for the cards per second figure. */
+    private void measure(String name, long bytesPerOperation, long cardsPerOperation, Operation operation)
+            throws IOException {
+        for(int i = 0; i < WARMUP_ITERATIONS; i++){
+            blackhole = operation.run();
+        }
+        long threadId = Thread.currentThread().getId();
+        long totalNanos = 0;
+        long totalAllocated = 0;
+        for(int i = 0; i < MEASURED_ITERATIONS; i++){
+            long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            blackhole = operation.run();
+            totalNanos += System.nanoTime() - start;
+            totalAllocated += threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        }
+        double millis = totalNanos / 1e6 / MEASURED_ITERATIONS;
+        double megabytesPerSecond = bytesPerOperation == 0 ? 0 : bytesPerOperation / 1e6 / (millis / 1e3);
+        String result = String.format(Locale.ROOT, "{\"benchmark\": \"%s\", \"cards\": %d, \"answers\": \"%s\", " +
+                        "\"msPerOp\": %.3f, \"cardsPerSecond\": %.0f, \"mbPerSecond\": %.1f, " +
+                        "\"allocatedBytesPerOp\": %d}", name, cards, answers, millis,
+                cardsPerOperation / (millis / 1e3), megabytesPerSecond, totalAllocated / MEASURED_ITERATIONS);
+        results.add(result);
+        System.out.println(result);
+    }
+
+    /** measureHeap - the heap still in use after the operation, compared with before it, once garbage has been
+     * collected. The operation is run once first, so that what it initialises only once is not counted, and then
+     * as many times as it takes to retain MINIMUM_HEAP_CARDS cards; the results are kept reachable until the
+     * second reading and the difference is divided among them. */
+    private void measureHeap(String name, Operation operation) throws IOException {
+        int copies = Math.max(1, MINIMUM_HEAP_CARDS / Math.max(cards, 1));
+        blackhole = operation.run();
+        blackhole = null;
+        Object[] retained = new Object[copies];
+        long before = usedHeap();
+        for(int i = 0; i < copies; i++){
+            retained[i] = operation.run();
+        }
+        long after = usedHeap();
+        blackhole = retained;
+        long bytes = Math.max(0, (after - before) / copies);
+        String result = String.format(Locale.ROOT, "{\"benchmark\": \"%s\", \"cards\": %d, \"answers\": \"%s\", " +
+                "\"retainedBytes\": %d, \"retainedBytesPerCard\": %.1f}", name, cards, answers, bytes,
+                bytes / (double) Math.max(cards, 1));
+        results.add(result);
+        System.out.println(result);
+        blackhole = null;
+    }
+
+    /** runTransitions - times moving to an answer of each length: putting its Document into the text area and
+     * painting it, once with the Document built on the spot, as for a card that was not prefetched, and once with
+     * the one the CardPrefetcher built in the background while the question was being read. */
+    private void runTransitions(int[] answerLengths) throws IOException {
+        if(System.getProperty("java.awt.headless") == null){
+            System.setProperty("java.awt.headless", "true");
+        }
+        for(int length : answerLengths){
+            List<QuizCard> quizCards = new ArrayList<>();
+            Random random = new Random(length);
+            StringBuilder text = new StringBuilder();
+            for(int i = 0; i < TRANSITION_CARDS; i++){
+                text.setLength(0);
+                for(int w = 0; text.length() < length; w++){
+                    text.append(WORDS[random.nextInt(WORDS.length)]).append(w % 40 == 39 ? '\n' : ' ');
+                }
+                quizCards.add(new QuizCard("What is " + i + "?", text.substring(0, length)));
+            }
+            measureTransitions("transition.built", length, quizCards, false);
+            measureTransitions("transition.prefetched", length, quizCards, true);
+        }
+    }
+
+    /** measureTransitions - moves a text area laid out like the player's from answer to answer, timing each move
+     * on the event thread into a LatencyHistogram after WARMUP_TRANSITIONS untimed ones. */
+    private void measureTransitions(String name, int length, List<QuizCard> quizCards, boolean isPrefetched)
+            throws IOException {
+        CardPrefetcher prefetcher = new CardPrefetcher(quizCards);
+        JTextArea textArea = new JTextArea();
+        BufferedImage screen = new BufferedImage(TRANSITION_WIDTH, TRANSITION_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = screen.createGraphics();
+        onEventThread(() -> {
+            textArea.setLineWrap(true);
+            textArea.setWrapStyleWord(true);
+            textArea.setFont(FontConstants.textAreaFont);
+            textArea.setSize(TRANSITION_WIDTH, TRANSITION_HEIGHT);
+        });
+        LatencyHistogram latencies = new LatencyHistogram();
+        long[] nanos = new long[1];
+        try{
+            for(int i = 0; i < WARMUP_TRANSITIONS + MEASURED_TRANSITIONS; i++){
+                int card = i % quizCards.size();
+                CompletableFuture<Document> ready = new CompletableFuture<>();
+                if(isPrefetched){
+                    prefetcher.whenReady(card, true, ready::complete);
+                    ready.join();
+                }
+                onEventThread(() -> {
+                    long start = System.nanoTime();
+                    textArea.setDocument(isPrefetched ? ready.join() : prefetcher.take(card, true));
+                    textArea.paint(graphics);
+                    nanos[0] = System.nanoTime() - start;
+                });
+                if(i >= WARMUP_TRANSITIONS){
+                    latencies.record(nanos[0]);
+                }
+            }
+        }finally{
+            prefetcher.close();
+            graphics.dispose();
+        }
+        String result = String.format(Locale.ROOT, "{\"benchmark\": \"%s\", \"answerChars\": %d, " +
+                        "\"transitions\": %d, \"p50Ms\": %.3f, \"p90Ms\": %.3f, \"p99Ms\": %.3f, \"maxMs\": %.3f}",
+                name, length, latencies.getCount(), latencies.getPercentile(50) / 1000.0,
+                latencies.getPercentile(90) / 1000.0, latencies.getPercentile(99) / 1000.0,
+                latencies.getMaximum() / 1000.0);
+        results.add(result);
+        System.out.println(result);
+    }
+
+    private static void onEventThread(Runnable task) throws IOException {
+        try{
+            SwingUtilities.invokeAndWait(task);
+        }catch(InterruptedException interruptedEx){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the event thread");
+        }catch(InvocationTargetException invocationEx){
+            throw new IllegalStateException(invocationEx.getCause());
+        }
+    }
+
+    private static long usedHeap(){
+        MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+        for(int i = 0; i < 3; i++){
+            System.gc();
+        }
+        return memoryBean.getHeapMemoryUsage().getUsed();
+    }
+
+    private Deck open(Path file) throws IOException {
+        return open(file, false);
+    }
+
+    private Deck open(Path file, boolean isCompact) throws IOException {
+        Deck deck = new Deck();
+        deck.setIsJournaled(false);
+        deck.setIsCompact(isCompact);
+        deck.readFile(file.toString(), DeckProgress.NONE);
+        return deck;
+    }
+
+    /** writeCsv - the deck as a CSV file, every field quoted, for the import benchmark. */
+    private static void writeCsv(Deck deck, Path csvFile) throws IOException {
+        try(Writer output = Files.newBufferedWriter(csvFile, StandardCharsets.UTF_8)){
+            for(QuizCard quizCard : deck.getQuizCardList()){
+                output.write('"' + quizCard.getQuestion().replace("\"", "\"\"") + "\",\"" +
+                        quizCard.getAnswer().replace("\"", "\"\"") + "\"\r\n");
+            }
+        }
+    }
+
+    /** writeHistory - logs ANSWERS_PER_CARD answers per card of the deck, to random cards over the last year, for
+     * the history benchmarks, and returns how many. */
+    private static long writeHistory(Deck deck, Path deckFile) throws IOException {
+        List<QuizCard> quizCards = deck.getQuizCardList();
+        long[] ids = DeckPatch.cardIds(quizCards);
+        long answers = (long) ids.length * ANSWERS_PER_CARD;
+        Random random = new Random(11);
+        long start = System.currentTimeMillis() - 365 * HistoryQuery.DAY;
+        ReviewHistory history = ReviewHistory.open(deckFile);
+        for(long i = 0; i < answers; i++){
+            history.record(ids[random.nextInt(ids.length)], start + i * 365 * HistoryQuery.DAY / answers,
+                    random.nextInt(4) != 0, 500 + random.nextInt(10_000));
+        }
+        history.close();
+        return answers;
+    }
+
+    /** recordSizes - the size of the deck in each file format, and how much smaller than the text it is. */
+    private void recordSizes(Path textFile, Path binaryFile, Path compressedFile) throws IOException {
+        long textBytes = Files.size(textFile);
+        long compressedBytes = Files.size(compressedFile);
+        String result = String.format(Locale.ROOT, "{\"benchmark\": \"size\", \"cards\": %d, \"answers\": \"%s\", " +
+                        "\"textBytes\": %d, \"binaryBytes\": %d, \"compressedBytes\": %d, \"compressionRatio\": %.2f}",
+                cards, answers, textBytes, Files.size(binaryFile), compressedBytes,
+                textBytes / (double) Math.max(compressedBytes, 1));
+        results.add(result);
+        System.out.println(result);
+    }
+
+    /** access - reads cards at random positions, the pattern of a shuffled quiz. */
+    private static int access(Deck deck, int accesses){
+        List<QuizCard> quizCards = deck.getQuizCardList();
+        Random random = new Random(7);
+        int length = 0;
+        for(int i = 0; i < accesses; i++){
+            length += quizCards.get(random.nextInt(quizCards.size())).getAnswer().length();
+        }
+        return length;
+    }
+
+    /** generateDeck - a deck of vocabulary-style questions with either one-line or several-paragraph answers. */
+    static Deck generateDeck(int cards, boolean longAnswers){
+        Deck deck = new Deck();
+        deck.setIsJournaled(false);
+        Random random = new Random(cards);
+        StringBuilder text = new StringBuilder();
+        for(int i = 0; i < cards; i++){
+            text.setLength(0);
+            text.append("What is ").append(WORDS[random.nextInt(WORDS.length)]).append(' ').append(i).append('?');
+            String question = text.toString();
+            text.setLength(0);
+            int words = longAnswers ? 200 + random.nextInt(400) : 1 + random.nextInt(4);
+            for(int w = 0; w < words; w++){
+                text.append(WORDS[random.nextInt(WORDS.length)]).append(w % 40 == 39 ? '\n' : ' ');
+            }
+            deck.addQuizCard(question, text.toString());
+        }
+        return deck;
+    }
+
+    private void writeResults(Path out) throws IOException {
+        try(Writer writer = Files.newBufferedWriter(out, StandardCharsets.UTF_8)){
+            writer.write("[\n  " + String.join(",\n  ", results) + "\n]\n");
+        }
+    }
+
+    private void deleteDirectory() throws IOException {
+        try(Stream<Path> files = Files.list(directory)){
+            for(Path file : (Iterable<Path>) files::iterator){
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,203 @@
+package quizcard;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Locale;
+
+/** DeckFormat - the on-disk formats a Deck can be stored in. Files are written in the format implied by their
+ * extension and read in the format found in their header, so a renamed file still opens correctly. */
+enum DeckFormat {
+    TEXT {
+        @Override
+        DeckWriter newWriter(Path path) throws IOException {
+            return new TextDeckWriter(path);
+        }
+
+        @Override
+        void read(Path path, DeckReader.Handler handler) throws IOException {
+            new DeckReader(handler).read(path);
+        }
+    },
+    BINARY {
+        @Override
+        DeckWriter newWriter(Path path) throws IOException {
+            return new BinaryDeckWriter(path);
+        }
+
+        @Override
+        void read(Path path, DeckReader.Handler handler) throws IOException {
+            for(QuizCard quizCard : new MappedCardList(new MappedFile(path))){
+                handler.card(quizCard.getQuestion(), quizCard.getAnswer());
+            }
+        }
+    },
+    COMPRESSED {
+        @Override
+        DeckWriter newWriter(Path path) throws IOException {
+            return new CompressedDeckWriter(path);
+        }
+
+        @Override
+        void read(Path path, DeckReader.Handler handler) throws IOException {
+            new CompressedCardList(new MappedFile(path)).forEachCard(handler);
+        }
+    };
+
+    static final String BINARY_EXTENSION = ".qcdb";
+    static final String COMPRESSED_EXTENSION = ".qcdz";
+    private static final int PROGRESS_INTERVAL = 4096;
+
+    abstract DeckWriter newWriter(Path path) throws IOException;
+
+    /** getName - the name of the format in DeckMetrics. */
+    String getName(){
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    /** read - streams every card of the file to the handler, in order. */
+    abstract void read(Path path, DeckReader.Handler handler) throws IOException;
+
+    /** forFile - the format a file should be written in, judged by its extension. */
+    static DeckFormat forFile(File file){
+        String name = file.getName().toLowerCase();
+        if(name.endsWith(BINARY_EXTENSION)){
+            return BINARY;
+        }
+        return name.endsWith(COMPRESSED_EXTENSION) ? COMPRESSED : TEXT;
+    }
+
+    /** detect - the format a file was written in, judged by its header and trailer. A file is only taken for a
+     * binary or compressed deck if its magic, its version and the magic and table or index offset of its trailer
+     * all agree, so a text deck whose first question happens to start with "QCDB" or "QCDZ" is still read as
+     * text. */
+    static DeckFormat detect(Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            long size = channel.size();
+            ByteBuffer header = readFully(channel, 0, (int) Math.min(size, 2 * Integer.BYTES));
+            if(header.limit() < 2 * Integer.BYTES){
+                return TEXT;
+            }
+            int magic = header.getInt(0);
+            int version = header.getInt(Integer.BYTES);
+            if(magic == BinaryDeckWriter.MAGIC && version == BinaryDeckWriter.VERSION
+                    && size >= BinaryDeckWriter.HEADER_SIZE + BinaryDeckWriter.TRAILER_SIZE){
+                long trailer = size - BinaryDeckWriter.TRAILER_SIZE;
+                ByteBuffer fields = readFully(channel, trailer, BinaryDeckWriter.TRAILER_SIZE);
+                long tableOffset = fields.getLong(0);
+                long count = fields.getLong(Long.BYTES);
+                if(fields.getInt(2 * Long.BYTES) == magic && count >= 0 && count <= Integer.MAX_VALUE
+                        && tableOffset >= BinaryDeckWriter.HEADER_SIZE && tableOffset + count * Long.BYTES == trailer){
+                    return BINARY;
+                }
+            }else if(magic == CompressedDeckWriter.MAGIC && version == CompressedDeckWriter.VERSION
+                    && size >= CompressedDeckWriter.HEADER_SIZE + CompressedDeckWriter.TRAILER_SIZE){
+                long trailer = size - CompressedDeckWriter.TRAILER_SIZE;
+                ByteBuffer fields = readFully(channel, trailer, CompressedDeckWriter.TRAILER_SIZE);
+                long indexOffset = fields.getLong(0);
+                int blocks = fields.getInt(Long.BYTES);
+                if(fields.getInt(CompressedDeckWriter.TRAILER_SIZE - Integer.BYTES) == magic && blocks >= 0
+                        && indexOffset >= CompressedDeckWriter.HEADER_SIZE
+                        && indexOffset + (long) blocks * CompressedDeckWriter.INDEX_ENTRY_SIZE == trailer){
+                    return COMPRESSED;
+                }
+            }
+            return TEXT;
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while(buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0){
+            // a header or trailer is a few bytes
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /** writeAtomically - writes the cards to a temporary file that then replaces the target, so a crash never
+     * leaves a half-written deck and a deck being read (which may be memory-mapped) is never truncated. */
+    static void writeAtomically(Path target, Iterable<QuizCard> quizCards) throws IOException {
+        writeAtomically(target, quizCards, DeckProgress.NONE);
+    }
+
+    static void writeAtomically(Path target, Iterable<QuizCard> quizCards, DeckProgress progress)
+            throws IOException {
+        writeAtomically(target, output -> {
+            long cards = 0;
+            for(QuizCard quizCard : quizCards){
+                output.write(quizCard.getQuestion(), quizCard.getAnswer());
+                if(++cards % PROGRESS_INTERVAL == 0){
+                    progress.update(0, cards);
+                }
+            }
+            return cards;
+        });
+    }
+
+    /** CardSource - writes cards, streamed from wherever they come from, and returns how many. */
+    interface CardSource {
+        long writeTo(DeckWriter output) throws IOException;
+    }
+
+    /** writeAtomically - the same for cards that are streamed rather than held, such as those of another file. */
+    static void writeAtomically(Path target, CardSource source) throws IOException {
+        DeckMetrics.Span span = DeckMetrics.begin(DeckMetrics.SAVE, target);
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        long cards;
+        try{
+            try(DeckWriter output = forFile(target.toFile()).newWriter(temporary)){
+                cards = source.writeTo(output);
+            }
+            try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)){
+                channel.force(true);
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }catch(IOException | RuntimeException ex){
+            span.failed(ex);
+            Files.deleteIfExists(temporary);
+            throw ex;
+        }
+        span.finished(forFile(target.toFile()).getName(), Files.size(target), cards);
+    }
+
+    /** convert - copies every card from one file to another, losslessly, without holding the deck in memory. The
+     * target format is chosen by the target's extension, and the target is written atomically. The images of the
+     * deck are copied along with it. */
+    static void convert(Path from, Path to) throws IOException {
+        DeckReader.MalformedReport report = new DeckReader.MalformedReport(from);
+        try{
+            writeAtomically(to, output -> {
+                long[] cards = new long[1];
+                detect(from).read(from, new DeckReader.Handler() {
+                    @Override
+                    public void card(String question, String answer) {
+                        try{
+                            output.write(question, answer);
+                        }catch(IOException ioEx){
+                            throw new UncheckedIOException(ioEx);
+                        }
+                        cards[0]++;
+                    }
+
+                    @Override
+                    public void malformed(long recordNumber, String record) {
+                        report.malformed(recordNumber);
+                    }
+                });
+                return cards[0];
+            });
+        }catch(UncheckedIOException uncheckedEx){
+            throw uncheckedEx.getCause();
+        }
+        report.finish();
+        ImageStore.copy(List.of(from), to, id -> true);
+    }
+}
@@ -0,0 +1,94 @@
+package quizcard;
+
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.swing.SwingWorker;
+
+/** DeckIOService - runs deck loads and saves on a dedicated background thread so that the Swing event thread
+ * never waits on the disk. Operations run one at a time in the order they were submitted, so a save queued
+ * before a load always finishes first. Progress and the result are handed to a Listener on the event thread. */
+class DeckIOService {
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "deck-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Listener - told about an operation on the event thread. */
+    interface Listener<T> {
+        default void progress(long bytes, long cards){
+        }
+
+        void finished(T result);
+
+        void failed(Exception ex);
+
+        default void cancelled(){
+        }
+    }
+
+    <T> Task<T> submit(DeckOperation<T> operation, Listener<T> listener){
+        Task<T> task = new Task<>(operation, listener);
+        executor.execute(() -> {
+            task.run();
+            if(!task.isStarted){
+                operation.cancelled();
+            }
+        });
+        return task;
+    }
+
+    /** Task - a submitted operation. Cancelling it interrupts the operation at its next progress report, or, if it
+     * has not started yet, has the operation let go of what it holds instead of running. */
+    static class Task<T> extends SwingWorker<T, long[]> {
+        private final DeckOperation<T> operation;
+        private final Listener<T> listener;
+        private volatile boolean isStarted;
+
+        private Task(DeckOperation<T> operation, Listener<T> listener){
+            this.operation = operation;
+            this.listener = listener;
+        }
+
+        boolean isCancellable(){
+            return operation.isCancellable();
+        }
+
+        @Override
+        protected T doInBackground() throws Exception {
+            isStarted = true;
+            return operation.run((bytes, cards) -> {
+                if(isCancelled()){
+                    throw new InterruptedIOException("Cancelled");
+                }
+                publish(new long[]{bytes, cards});
+            });
+        }
+
+        @Override
+        protected void process(List<long[]> chunks){
+            long[] latest = chunks.get(chunks.size() - 1);
+            listener.progress(latest[0], latest[1]);
+        }
+
+        @Override
+        protected void done(){
+            if(isCancelled()){
+                listener.cancelled();
+                return;
+            }
+            try{
+                listener.finished(get());
+            }catch(CancellationException | InterruptedException ex){
+                listener.cancelled();
+            }catch(ExecutionException executionEx){
+                Throwable cause = executionEx.getCause();
+                listener.failed(cause instanceof Exception ? (Exception) cause : executionEx);
+            }
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package quizcard;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** DeckJournal - an append-only log of the changes made to a saved Deck, kept next to the deck file.
+ *
+ * Changes are encoded as small records while the user edits and are written, with a single fsync, when the deck
+ * is saved, so a save costs only what changed since the last one. When the log grows large it is rotated and a
+ * fresh snapshot of the deck is written in the background, finishing with an atomic rename.
+ *
+ * The records are encoded on the thread that edits the Deck and handed over with drainPending. Everything that
+ * touches the file (attach, append, compact, close) runs on the thread doing the deck's I/O.
+ *
+ * Every log starts with the size and modification time of the deck file it applies to. A log rotated for
+ * compaction is stamped with the deck file it was recorded against, so if the machine stops after the snapshot
+ * has replaced the deck but before the old log is deleted, the stale log no longer matches and is not replayed
+ * twice. Anything else that writes or opens the deck file waits for the compactions under way first, so an older
+ * snapshot can never be renamed over a newer deck. */
+class DeckJournal implements Closeable {
+    private static final int MAGIC = 0x51434a4c; // "QCJL"
+    private static final int HEADER_SIZE = Integer.BYTES + 2 * Long.BYTES;
+    private static final long ANY_BASE = -1;
+    private static final long MINIMUM_COMPACTION_SIZE = 1 << 20;
+
+    private static final byte ADD = 1;
+    private static final byte EDIT = 2;
+    private static final byte SHUFFLE = 3;
+
+    private static final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "deck-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path deckPath;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final DataOutputStream pendingOutput = new DataOutputStream(pending);
+    private long drainedBytes;
+    private volatile long deckSize;
+    private volatile FileChannel channel;
+    private Future<?> compaction;
+
+    /** DeckJournal - a journal that collects records but has no log on disk until attach is called. */
+    DeckJournal(Path deckPath){
+        this.deckPath = deckPath;
+    }
+
+    private DeckJournal(Path deckPath, FileChannel channel, long drainedBytes) throws IOException {
+        this.deckPath = deckPath;
+        this.channel = channel;
+        this.drainedBytes = drainedBytes;
+        deckSize = Files.size(deckPath);
+    }
+
+    /** create - starts an empty log for a deck that has just been written in full, removing any old one. */
+    static DeckJournal create(Path deckPath) throws IOException {
+        DeckJournal journal = new DeckJournal(deckPath);
+        journal.attach();
+        return journal;
+    }
+
+    /** attach - creates the log on disk, once the deck file it belongs to has been written. */
+    void attach() throws IOException {
+        delete(deckPath);
+        deckSize = Files.size(deckPath);
+        channel = createLog(deckPath, deckSize, Files.getLastModifiedTime(deckPath).toMillis());
+    }
+
+    /** isAttached - false until the log exists, and again after appending to it has failed, in which case the
+     * deck has to be written in full. */
+    boolean isAttached(){
+        return channel != null;
+    }
+
+    /** open - replays any logs left next to the deck into it and returns the log that further changes go to. If a
+     * compaction was interrupted, the deck is rewritten in full first so the next one starts from a clean state. */
+    static DeckJournal open(Deck deck, Path deckPath) throws IOException {
+        awaitCompactions();
+        Path compactingPath = compactingPath(deckPath);
+        Path journalPath = journalPath(deckPath);
+        boolean wasCompacting = Files.exists(compactingPath);
+        if(wasCompacting){
+            replay(deck, deckPath, compactingPath);
+        }
+        long applied = Files.exists(journalPath) ? replay(deck, deckPath, journalPath) : -1;
+        if(wasCompacting){
+            DeckFormat.writeAtomically(deckPath, deck.getQuizCardList());
+            return create(deckPath);
+        }
+        if(applied < 0){
+            return create(deckPath);
+        }
+        // Later records are appended after the last complete one, dropping any record a crash cut short.
+        FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.WRITE);
+        channel.truncate(applied);
+        channel.position(applied);
+        return new DeckJournal(deckPath, channel, applied - HEADER_SIZE);
+    }
+
+    /** replayLogs - applies any logs left next to the deck to it, like open, but changes nothing on disk. For
+     * loaders that only read the deck and keep no journal of their own. */
+    static void replayLogs(Deck deck, Path deckPath) throws IOException {
+        Path compactingPath = compactingPath(deckPath);
+        if(Files.exists(compactingPath)){
+            replay(deck, deckPath, compactingPath);
+        }
+        Path journalPath = journalPath(deckPath);
+        if(Files.exists(journalPath)){
+            replay(deck, deckPath, journalPath);
+        }
+    }
+
+    /** hasLogs - whether logs next to the deck at deckPath may hold changes the deck file does not. */
+    static boolean hasLogs(Path deckPath) throws IOException {
+        Path journalPath = journalPath(deckPath);
+        return Files.exists(compactingPath(deckPath))
+                || Files.exists(journalPath) && Files.size(journalPath) > HEADER_SIZE;
+    }
+
+    /** loggedBytes - the length of the records in the log of the deck at deckPath, 0 if it has none. A log with no
+     * records is the same version of the deck as no log at all. */
+    static long loggedBytes(Path deckPath) throws IOException {
+        Path journalPath = journalPath(deckPath);
+        return Files.exists(journalPath) ? Math.max(0, Files.size(journalPath) - HEADER_SIZE) : 0;
+    }
+
+    /** delete - removes the logs of a deck, for when it is about to be written in full. */
+    static void delete(Path deckPath) throws IOException {
+        Files.deleteIfExists(journalPath(deckPath));
+        Files.deleteIfExists(compactingPath(deckPath));
+    }
+
+    static Path journalPath(Path deckPath){
+        return deckPath.resolveSibling(deckPath.getFileName() + ".journal");
+    }
+
+    private static Path compactingPath(Path deckPath){
+        return deckPath.resolveSibling(deckPath.getFileName() + ".journal.compacting");
+    }
+
+    void add(String question, String answer){
+        try{
+            pendingOutput.writeByte(ADD);
+            writeText(question);
+            writeText(answer);
+        }catch(IOException ioEx){
+            throw new AssertionError(ioEx); // ByteArrayOutputStream does not throw
+        }
+    }
+
+    void edit(int index, String question, String answer){
+        try{
+            pendingOutput.writeByte(EDIT);
+            pendingOutput.writeInt(index);
+            writeText(question);
+            writeText(answer);
+        }catch(IOException ioEx){
+            throw new AssertionError(ioEx);
+        }
+    }
+
+    void shuffle(long seed){
+        try{
+            pendingOutput.writeByte(SHUFFLE);
+            pendingOutput.writeLong(seed);
+        }catch(IOException ioEx){
+            throw new AssertionError(ioEx);
+        }
+    }
+
+    /** drainPending - takes the records of every change made since the last call, to be passed to append. */
+    byte[] drainPending(){
+        byte[] records = pending.toByteArray();
+        pending.reset();
+        drainedBytes += records.length;
+        return records;
+    }
+
+    /** shouldCompact - true once replaying the log would cost a sizeable fraction of reading the deck. Answering
+     * true starts the count again, as the caller is expected to compact. */
+    boolean shouldCompact(){
+        if(drainedBytes <= Math.max(MINIMUM_COMPACTION_SIZE, deckSize / 4)){
+            return false;
+        }
+        drainedBytes = 0;
+        return true;
+    }
+
+    /** append - writes records taken by drainPending and forces them to disk. If that fails the log is dropped,
+     * so the next save writes the whole deck instead of leaving a gap in the log. */
+    void append(byte[] records) throws IOException {
+        if(records.length == 0){
+            return;
+        }
+        try{
+            ByteBuffer buffer = ByteBuffer.wrap(records);
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }catch(IOException ioEx){
+            close();
+            throw ioEx;
+        }
+    }
+
+    /** compact - rotates the log and writes the given cards as the new deck file on the compactor thread. The
+     * snapshot must not be changed afterwards; edits made meanwhile go to the new log. */
+    void compact(List<QuizCard> snapshot) throws IOException {
+        Path compactingPath = compactingPath(deckPath);
+        if(compaction != null && !compaction.isDone() || Files.exists(compactingPath)){
+            return; // still running, or failed and left for the next open to replay
+        }
+        try{
+            writeHeader(channel, Files.size(deckPath), Files.getLastModifiedTime(deckPath).toMillis());
+            channel.force(true);
+            channel.close();
+            Files.move(journalPath(deckPath), compactingPath, StandardCopyOption.ATOMIC_MOVE);
+            channel = createLog(deckPath, ANY_BASE, ANY_BASE);
+        }catch(IOException ioEx){
+            close();
+            throw ioEx;
+        }
+        compaction = compactor.submit(() -> {
+            try{
+                DeckFormat.writeAtomically(deckPath, snapshot);
+                Files.delete(compactingPath);
+            }catch(IOException ioEx){
+                // The rotated log is still on disk and will be replayed the next time the deck is opened.
+                ioEx.printStackTrace();
+            }
+        });
+    }
+
+    /** close - closes the log, then waits for a compaction it started, as the deck is about to be written or
+     * opened afresh. */
+    @Override
+    public void close() throws IOException {
+        FileChannel open = channel;
+        channel = null;
+        if(open != null){
+            open.close();
+        }
+        if(compaction != null && !compaction.isDone()){
+            awaitCompactions();
+        }
+    }
+
+    /** awaitCompactions - waits until every compaction started so far has finished, so that a deck file is never
+     * written by a compaction and something else at once. */
+    static void awaitCompactions() throws IOException {
+        try{
+            compactor.submit(() -> {}).get();
+        }catch(InterruptedException interruptedEx){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a compaction");
+        }catch(ExecutionException executionEx){
+            throw new AssertionError(executionEx); // an empty task does not throw
+        }
+    }
+
+    private void writeText(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        pendingOutput.writeInt(bytes.length);
+        pendingOutput.write(bytes);
+    }
+
+    private static FileChannel createLog(Path deckPath, long baseSize, long baseModified) throws IOException {
+        FileChannel channel = FileChannel.open(journalPath(deckPath), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE);
+        writeHeader(channel, baseSize, baseModified);
+        channel.force(true);
+        return channel;
+    }
+
+    private static void writeHeader(FileChannel channel, long baseSize, long baseModified) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putLong(baseSize).putLong(baseModified);
+        header.flip();
+        channel.write(header, 0);
+        if(channel.position() < HEADER_SIZE){
+            channel.position(HEADER_SIZE);
+        }
+    }
+
+    /** replay - applies a log to the deck if it was recorded against the deck file as it is now, and returns the
+     * length of the part that was applied, or -1 if the log does not belong to the current deck file. A record
+     * cut short by a crash ends the replay. */
+    private static long replay(Deck deck, Path deckPath, Path path) throws IOException {
+        ByteBuffer input = ByteBuffer.wrap(Files.readAllBytes(path));
+        if(input.remaining() < HEADER_SIZE || input.getInt() != MAGIC){
+            return -1;
+        }
+        long baseSize = input.getLong();
+        long baseModified = input.getLong();
+        if(baseSize != ANY_BASE && (baseSize != Files.size(deckPath)
+                || baseModified != Files.getLastModifiedTime(deckPath).toMillis())){
+            return -1;
+        }
+        int applied = input.position();
+        try{
+            while(input.hasRemaining()){
+                byte type = input.get();
+                if(type == ADD){
+                    String question = readText(input);
+                    deck.addQuizCard(question, readText(input));
+                }else if(type == EDIT){
+                    int index = input.getInt();
+                    String question = readText(input);
+                    deck.editQuizCard(index, question, readText(input));
+                }else if(type == SHUFFLE){
+                    deck.shuffle(input.getLong());
+                }else{
+                    System.err.println("Unknown record in " + path.getFileName() + ", ignoring the rest");
+                    break;
+                }
+                applied = input.position();
+            }
+        }catch(BufferUnderflowException underflowEx){
+            // A record that was cut short; everything before it has been applied.
+        }
+        return applied;
+    }
+
+    private static String readText(ByteBuffer input){
+        int length = input.getInt();
+        if(length < 0 || length > input.remaining()){
+            throw new BufferUnderflowException();
+        }
+        String text = new String(input.array(), input.position(), length, StandardCharsets.UTF_8);
+        input.position(input.position() + length);
+        return text;
+    }
+}
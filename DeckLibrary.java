@@ -0,0 +1,317 @@
+package quizcard;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/** DeckLibrary - every deck in a folder, loaded in parallel into one Deck that a test can run across. Each card
+ * stays tagged with the deck it came from, so it can be traced back to its file.
+ *
+ * Every file is parsed by its own fork/join task. A text deck larger than CHUNK_SIZE is further split into chunks
+ * that end just after a QUIZ_CARD_TERMINATOR, which are parsed in parallel and joined back in file order. Any
+ * journal left next to a deck is replayed into it, but nothing is written: the library is read-only and has to
+ * be saved under a new name. Until then the images of each deck are shown from its own image files. */
+class DeckLibrary {
+    static final long CHUNK_SIZE = 8L << 20;
+
+    private static final String[] SIDECAR_SUFFIXES = {".journal", ".journal.compacting", ".schedule", ".stats",
+            ".tmp", DeckAutosave.SUFFIX, CsvImporter.REJECT_SUFFIX, ImageStore.SUFFIX,
+            ImageStore.INDEX_SUFFIX, DeckPatch.EXTENSION, ReviewHistory.SUFFIX};
+    private static final int SEARCH_BUFFER_SIZE = 1 << 16;
+
+    private final Deck deck;
+    private final String[] names;
+    private final int[] firstCards;
+
+    private DeckLibrary(Deck deck, String[] names, int[] firstCards){
+        this.deck = deck;
+        this.names = names;
+        this.firstCards = firstCards;
+    }
+
+    /** load - loads every deck in the folder, in file name order, on the common fork/join pool. */
+    static DeckLibrary load(Path directory, DeckProgress progress) throws IOException {
+        DeckMetrics.Span span = DeckMetrics.begin(DeckMetrics.LOAD, directory);
+        DeckLibrary loaded;
+        try{
+            loaded = loadFiles(directory, progress);
+        }catch(IOException | RuntimeException ex){
+            span.failed(ex);
+            throw ex;
+        }
+        long bytes = 0;
+        for(Path file : list(directory)){
+            bytes += Files.size(file);
+        }
+        span.finished("library", bytes, loaded.getDeck().getQuizCardList().size());
+        return loaded;
+    }
+
+    private static DeckLibrary loadFiles(Path directory, DeckProgress progress) throws IOException {
+        List<Path> files = list(directory);
+        List<FileTask> tasks = new ArrayList<>();
+        SharedProgress sharedProgress = new SharedProgress(progress);
+        for(Path file : files){
+            tasks.add(new FileTask(file, sharedProgress));
+        }
+        try{
+            ForkJoinPool.commonPool().invoke(new RecursiveTask<Void>() {
+                @Override
+                protected Void compute() {
+                    ForkJoinTask.invokeAll(tasks);
+                    return null;
+                }
+            });
+        }catch(RuntimeException runtimeEx){
+            throw unwrap(runtimeEx);
+        }
+
+        Deck library = new Deck();
+        library.setIsJournaled(false);
+        library.setFileName(directory.getFileName().toString());
+        String[] names = new String[tasks.size()];
+        int[] firstCards = new int[tasks.size()];
+        for(int i = 0; i < tasks.size(); i++){
+            Deck loaded = tasks.get(i).getRawResult();
+            names[i] = loaded.getFileName();
+            firstCards[i] = library.getQuizCardList().size();
+            library.addQuizCards(loaded);
+        }
+        library.linkImages(files);
+        return new DeckLibrary(library, names, firstCards);
+    }
+
+    /** loadFile - loads one deck the way load does, splitting a large text deck across the cores. */
+    static Deck loadFile(Path file, DeckProgress progress) throws IOException {
+        try{
+            return ForkJoinPool.commonPool().invoke(new FileTask(file, new SharedProgress(progress)));
+        }catch(RuntimeException runtimeEx){
+            throw unwrap(runtimeEx);
+        }
+    }
+
+    /** list - the deck files in a folder, leaving out hidden files and the files kept next to a deck. */
+    static List<Path> list(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try(Stream<Path> entries = Files.list(directory)){
+            for(Path entry : (Iterable<Path>) entries::iterator){
+                String name = entry.getFileName().toString();
+                if(Files.isRegularFile(entry) && !name.startsWith(".") && !isSidecar(name)){
+                    files.add(entry);
+                }
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+
+    Deck getDeck(){
+        return deck;
+    }
+
+    int getDeckCount(){
+        return names.length;
+    }
+
+    /** getDeckName - the name of the deck the card at index was loaded from. Cards added to the library since
+     * count as belonging to the last deck. */
+    String getDeckName(int index){
+        int found = Arrays.binarySearch(firstCards, index);
+        if(found < 0){
+            found = -found - 2;
+        }else{
+            while(found + 1 < firstCards.length && firstCards[found + 1] == index){
+                found++; // skips empty decks starting at the same card
+            }
+        }
+        return names[found];
+    }
+
+    private static boolean isSidecar(String name){
+        for(String suffix : SIDECAR_SUFFIXES){
+            if(name.endsWith(suffix)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static IOException unwrap(RuntimeException runtimeEx){
+        for(Throwable cause = runtimeEx; cause != null; cause = cause.getCause()){
+            if(cause instanceof IOException){
+                return (IOException) cause;
+            }
+        }
+        throw runtimeEx;
+    }
+
+    /** FileTask - loads one deck file, forking a ChunkTask per chunk of a large text deck. */
+    private static class FileTask extends RecursiveTask<Deck> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path file;
+        private final SharedProgress progress;
+
+        FileTask(Path file, SharedProgress progress){
+            this.file = file;
+            this.progress = progress;
+        }
+
+        @Override
+        protected Deck compute() {
+            try{
+                Deck loaded = new Deck();
+                loaded.setIsJournaled(false);
+                long size = Files.size(file);
+                if(size <= CHUNK_SIZE || DeckFormat.detect(file) != DeckFormat.TEXT){
+                    loaded.readFile(file.toString(), progress.forChunk());
+                }else{
+                    loaded.setFileName(file.getFileName().toString());
+                    List<ChunkTask> chunks = new ArrayList<>();
+                    DeckReader.MalformedReport report = new DeckReader.MalformedReport(file);
+                    try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+                        long from = 0;
+                        while(from < size){
+                            long to = findBoundary(channel, Math.min(from + CHUNK_SIZE, size), size);
+                            chunks.add(new ChunkTask(file, from, to, progress, report));
+                            from = to;
+                        }
+                    }
+                    for(ChunkTask chunk : ForkJoinTask.invokeAll(chunks)){
+                        loaded.addQuizCards(chunk.getRawResult());
+                    }
+                    report.finish();
+                }
+                DeckJournal.replayLogs(loaded, file);
+                return loaded;
+            }catch(IOException ioEx){
+                throw new UncheckedIOException(ioEx);
+            }
+        }
+    }
+
+    /** ChunkTask - parses the cards between two record boundaries of a text deck. */
+    private static class ChunkTask extends RecursiveTask<Deck> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path file;
+        private final long from;
+        private final long to;
+        private final SharedProgress progress;
+        private final DeckReader.MalformedReport report;
+
+        ChunkTask(Path file, long from, long to, SharedProgress progress, DeckReader.MalformedReport report){
+            this.file = file;
+            this.from = from;
+            this.to = to;
+            this.progress = progress;
+            this.report = report;
+        }
+
+        @Override
+        protected Deck compute() {
+            Deck chunk = new Deck();
+            chunk.setIsJournaled(false);
+            DeckReader reader = new DeckReader(new DeckReader.Handler() {
+                @Override
+                public void card(String question, String answer) {
+                    chunk.addQuizCard(question, answer);
+                }
+
+                @Override
+                public void malformed(long recordNumber, String record) {
+                    chunk.addMalformed();
+                    report.malformed("at byte " + from + " or later");
+                }
+            }, progress.forChunk());
+            try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+                reader.read(channel, from, to);
+                reader.finish();
+            }catch(IOException ioEx){
+                throw new UncheckedIOException(ioEx);
+            }
+            return chunk;
+        }
+    }
+
+    /** findBoundary - the position just after the first terminator that ends at or after from, or size if there is
+     * none. The sentinel starts and ends with '\n', so terminators can overlap, and DeckReader only ends a record
+     * at some of them. A terminator that does not overlap the end of an earlier one always ends a record, so only
+     * those are taken. */
+    static long findBoundary(FileChannel channel, long from, long size) throws IOException {
+        byte[] terminator = DeckReader.QUIZ_CARD_TERMINATOR;
+        int overlap = terminator.length - 1;
+        long start = Math.max(0, from - terminator.length - overlap);
+        ByteBuffer buffer = ByteBuffer.allocate(SEARCH_BUFFER_SIZE);
+        byte[] window = new byte[SEARCH_BUFFER_SIZE + 2 * overlap];
+        int kept = 0;
+        long windowStart = start;
+        long position = start;
+        while(position < size){
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if(read <= 0){
+                break;
+            }
+            System.arraycopy(buffer.array(), 0, window, kept, read);
+            int length = kept + read;
+            for(int end = terminator.length; end <= length; end++){
+                long endPosition = windowStart + end;
+                if(endPosition >= from && matches(window, end - terminator.length, terminator)
+                        && !(end - terminator.length >= overlap
+                        && matches(window, end - terminator.length - overlap, terminator))){
+                    return endPosition;
+                }
+            }
+            position += read;
+            kept = Math.min(length, terminator.length + overlap);
+            System.arraycopy(window, length - kept, window, 0, kept);
+            windowStart = position - kept;
+        }
+        return size;
+    }
+
+    private static boolean matches(byte[] bytes, int offset, byte[] sentinel){
+        for(int i = 0; i < sentinel.length; i++){
+            if(bytes[offset + i] != sentinel[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** SharedProgress - adds up the progress of the tasks running in parallel and reports the totals. */
+    static class SharedProgress {
+        private final DeckProgress progress;
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong cards = new AtomicLong();
+
+        SharedProgress(DeckProgress progress){
+            this.progress = progress;
+        }
+
+        /** forChunk - a DeckProgress for one task, whose running totals are added to the shared ones. */
+        DeckProgress forChunk(){
+            long[] reported = new long[2];
+            return (chunkBytes, chunkCards) -> {
+                long totalBytes = bytes.addAndGet(chunkBytes - reported[0]);
+                long totalCards = cards.addAndGet(chunkCards - reported[1]);
+                reported[0] = chunkBytes;
+                reported[1] = chunkCards;
+                progress.update(totalBytes, totalCards);
+            };
+        }
+    }
+}
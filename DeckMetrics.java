@@ -0,0 +1,392 @@
+package quizcard;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** DeckMetrics - records every deck load, parse and save, every card transition in the player and every answer,
+ * both as JDK Flight Recorder events and as counters behind a JMX MBean:
+ *
+ *     jcmd <pid> JFR.start name=quizcard filename=quizcard.jfr
+ *     jconsole <pid>    (MBeans tab, quizcard:type=DeckMetrics)
+ *
+ * It stays on all the time. A JFR event that is not being recorded costs a check of a flag, and the counters are
+ * LongAdders updated once per file or per click, never per card, so neither shows up next to the work measured.
+ *
+ * A load covers everything Deck.readFile or DeckLibrary.load does, including the parse, which is DeckReader
+ * scanning a text file and is recorded separately as well. A card transition runs from the click on the player's
+ * button until the next question, answer or the results have been painted; their times also go into a
+ * LatencyHistogram, whose percentiles show whether a long card makes the player slower to move on. */
+final class DeckMetrics implements DeckMetricsMBean {
+    static final String OBJECT_NAME = "quizcard:type=DeckMetrics";
+
+    static final Kind LOAD = new Kind("load");
+    static final Kind PARSE = new Kind("parse");
+    static final Kind SAVE = new Kind("save");
+
+    private static final DeckMetrics INSTANCE = new DeckMetrics();
+
+    private static final LongAdder transitions = new LongAdder();
+    private static final LongAdder transitionNanos = new LongAdder();
+    private static final LongAccumulator maximumTransitionNanos = new LongAccumulator(Math::max, 0);
+    private static final LatencyHistogram transitionLatencies = new LatencyHistogram();
+    private static final LongAdder correctAnswers = new LongAdder();
+    private static final LongAdder wrongAnswers = new LongAdder();
+    private static volatile String lastError;
+
+    private DeckMetrics(){
+    }
+
+    /** register - makes the counters visible over JMX. Called once by the application, not by the command line
+     * tools, which have no use for them. */
+    static void register(){
+        try{
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new StandardMBean(INSTANCE, DeckMetricsMBean.class), new ObjectName(OBJECT_NAME));
+        }catch(JMException jmEx){
+            jmEx.printStackTrace();
+        }
+    }
+
+    /** begin - starts timing a load, parse or save of file. */
+    static Span begin(Kind kind, Path file){
+        return new Span(kind, file);
+    }
+
+    /** beginTransition - starts timing the move to the next card, on the click that asked for it. */
+    static Transition beginTransition(){
+        return new Transition();
+    }
+
+    /** answered - counts an answer given in a test; correct and wrong are the totals of the test so far. */
+    static void answered(int card, boolean isCorrect, int correct, int wrong){
+        (isCorrect ? correctAnswers : wrongAnswers).increment();
+        AnswerEvent event = new AnswerEvent();
+        if(event.shouldCommit()){
+            event.card = card;
+            event.isCorrect = isCorrect;
+            event.sessionCorrect = correct;
+            event.sessionWrong = wrong;
+            event.commit();
+        }
+    }
+
+    /** Kind - a kind of deck I/O, with its counters. */
+    static final class Kind {
+        private final String name;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder cards = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAccumulator maximumNanos = new LongAccumulator(Math::max, 0);
+
+        private Kind(String name){
+            this.name = name;
+        }
+
+        private void reset(){
+            count.reset();
+            failures.reset();
+            bytes.reset();
+            cards.reset();
+            nanos.reset();
+            maximumNanos.reset();
+        }
+    }
+
+    /** Span - one load, parse or save being timed. It ends with either finished or failed. */
+    static final class Span {
+        private final Kind kind;
+        private final Path file;
+        private final DeckIOEvent event = new DeckIOEvent();
+        private final long start = System.nanoTime();
+
+        private Span(Kind kind, Path file){
+            this.kind = kind;
+            this.file = file;
+            event.begin();
+        }
+
+        void finished(String format, long bytes, long cards){
+            end(format, bytes, cards, null);
+        }
+
+        void failed(Exception ex){
+            lastError = kind.name + " " + file + ": " + ex;
+            kind.failures.increment();
+            end(null, 0, 0, ex.toString());
+        }
+
+        private void end(String format, long bytes, long cards, String error){
+            long elapsed = System.nanoTime() - start;
+            kind.count.increment();
+            kind.bytes.add(bytes);
+            kind.cards.add(cards);
+            kind.nanos.add(elapsed);
+            kind.maximumNanos.accumulate(elapsed);
+            event.end();
+            if(event.shouldCommit()){
+                event.operation = kind.name;
+                event.file = file.toString();
+                event.format = format;
+                event.bytes = bytes;
+                event.cards = cards;
+                event.error = error;
+                event.commit();
+            }
+        }
+    }
+
+    /** Transition - the move to the next card being timed. */
+    static final class Transition {
+        private final CardTransitionEvent event = new CardTransitionEvent();
+        private final long start = System.nanoTime();
+
+        private Transition(){
+            event.begin();
+        }
+
+        /** shown - ends the transition once what it showed (a question, an answer or the results) is painted. */
+        void shown(int card, String shown){
+            long elapsed = System.nanoTime() - start;
+            transitions.increment();
+            transitionNanos.add(elapsed);
+            maximumTransitionNanos.accumulate(elapsed);
+            synchronized(transitionLatencies){
+                transitionLatencies.record(elapsed);
+            }
+            event.end();
+            if(event.shouldCommit()){
+                event.card = card;
+                event.shown = shown;
+                event.commit();
+            }
+        }
+    }
+
+    @Name("quizcard.DeckIO")
+    @Label("Deck I/O")
+    @Category("QuizCard")
+    @Description("A deck being loaded, parsed or saved")
+    static class DeckIOEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("File")
+        String file;
+
+        @Label("Format")
+        String format;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Cards")
+        long cards;
+
+        @Label("Error")
+        String error;
+    }
+
+    @Name("quizcard.CardTransition")
+    @Label("Card Transition")
+    @Category("QuizCard")
+    @Description("The player moving on to the next question, answer or the results, until painted")
+    static class CardTransitionEvent extends Event {
+        @Label("Card")
+        int card;
+
+        @Label("Shown")
+        String shown;
+    }
+
+    @Name("quizcard.Answer")
+    @Label("Answer")
+    @Category("QuizCard")
+    @Description("A card answered in a test")
+    static class AnswerEvent extends Event {
+        @Label("Card")
+        int card;
+
+        @Label("Correct")
+        boolean isCorrect;
+
+        @Label("Correct In Session")
+        int sessionCorrect;
+
+        @Label("Wrong In Session")
+        int sessionWrong;
+    }
+
+    @Override
+    public long getLoadCount(){
+        return LOAD.count.sum();
+    }
+
+    @Override
+    public long getLoadFailures(){
+        return LOAD.failures.sum();
+    }
+
+    @Override
+    public long getLoadBytes(){
+        return LOAD.bytes.sum();
+    }
+
+    @Override
+    public long getLoadCards(){
+        return LOAD.cards.sum();
+    }
+
+    @Override
+    public double getLoadTotalMillis(){
+        return LOAD.nanos.sum() / 1e6;
+    }
+
+    @Override
+    public double getLoadMaxMillis(){
+        return LOAD.maximumNanos.get() / 1e6;
+    }
+
+    @Override
+    public long getParseCount(){
+        return PARSE.count.sum();
+    }
+
+    @Override
+    public long getParseFailures(){
+        return PARSE.failures.sum();
+    }
+
+    @Override
+    public long getParseBytes(){
+        return PARSE.bytes.sum();
+    }
+
+    @Override
+    public long getParseCards(){
+        return PARSE.cards.sum();
+    }
+
+    @Override
+    public double getParseTotalMillis(){
+        return PARSE.nanos.sum() / 1e6;
+    }
+
+    @Override
+    public double getParseMaxMillis(){
+        return PARSE.maximumNanos.get() / 1e6;
+    }
+
+    @Override
+    public long getSaveCount(){
+        return SAVE.count.sum();
+    }
+
+    @Override
+    public long getSaveFailures(){
+        return SAVE.failures.sum();
+    }
+
+    @Override
+    public long getSaveBytes(){
+        return SAVE.bytes.sum();
+    }
+
+    @Override
+    public long getSaveCards(){
+        return SAVE.cards.sum();
+    }
+
+    @Override
+    public double getSaveTotalMillis(){
+        return SAVE.nanos.sum() / 1e6;
+    }
+
+    @Override
+    public double getSaveMaxMillis(){
+        return SAVE.maximumNanos.get() / 1e6;
+    }
+
+    @Override
+    public String getLastError(){
+        return lastError;
+    }
+
+    @Override
+    public long getTransitionCount(){
+        return transitions.sum();
+    }
+
+    @Override
+    public double getTransitionMeanMillis(){
+        long count = transitions.sum();
+        return count == 0 ? 0 : transitionNanos.sum() / 1e6 / count;
+    }
+
+    @Override
+    public double getTransitionMaxMillis(){
+        return maximumTransitionNanos.get() / 1e6;
+    }
+
+    @Override
+    public double getTransitionP50Millis(){
+        return getTransitionPercentile(50);
+    }
+
+    @Override
+    public double getTransitionP99Millis(){
+        return getTransitionPercentile(99);
+    }
+
+    @Override
+    public String getTransitionHistogram(){
+        synchronized(transitionLatencies){
+            return transitionLatencies.summarize();
+        }
+    }
+
+    private static double getTransitionPercentile(double percentile){
+        synchronized(transitionLatencies){
+            return transitionLatencies.getPercentile(percentile) / 1e3;
+        }
+    }
+
+    @Override
+    public long getCorrectAnswers(){
+        return correctAnswers.sum();
+    }
+
+    @Override
+    public long getWrongAnswers(){
+        return wrongAnswers.sum();
+    }
+
+    @Override
+    public void resetStatistics(){
+        LOAD.reset();
+        PARSE.reset();
+        SAVE.reset();
+        transitions.reset();
+        transitionNanos.reset();
+        maximumTransitionNanos.reset();
+        synchronized(transitionLatencies){
+            transitionLatencies.reset();
+        }
+        correctAnswers.reset();
+        wrongAnswers.reset();
+        lastError = null;
+    }
+}
@@ -0,0 +1,63 @@
+package quizcard;
+
+/** DeckMetricsMBean - the JMX view of DeckMetrics, registered as quizcard:type=DeckMetrics. Times are totals and
+ * maximums in milliseconds since the application started or resetStatistics was last called. */
+public interface DeckMetricsMBean {
+    long getLoadCount();
+
+    long getLoadFailures();
+
+    long getLoadBytes();
+
+    long getLoadCards();
+
+    double getLoadTotalMillis();
+
+    double getLoadMaxMillis();
+
+    long getParseCount();
+
+    long getParseFailures();
+
+    long getParseBytes();
+
+    long getParseCards();
+
+    double getParseTotalMillis();
+
+    double getParseMaxMillis();
+
+    long getSaveCount();
+
+    long getSaveFailures();
+
+    long getSaveBytes();
+
+    long getSaveCards();
+
+    double getSaveTotalMillis();
+
+    double getSaveMaxMillis();
+
+    /** getLastError - the last load, parse or save that failed, and why, or null. */
+    String getLastError();
+
+    long getTransitionCount();
+
+    double getTransitionMeanMillis();
+
+    double getTransitionMaxMillis();
+
+    double getTransitionP50Millis();
+
+    double getTransitionP99Millis();
+
+    /** getTransitionHistogram - the count and percentiles of the transitions, on one line. */
+    String getTransitionHistogram();
+
+    long getCorrectAnswers();
+
+    long getWrongAnswers();
+
+    void resetStatistics();
+}
@@ -0,0 +1,19 @@
+package quizcard;
+
+import java.io.IOException;
+
+/** DeckOperation - a load or save that has been prepared on the thread that owns the Deck and can then be run on
+ * any other thread. */
+interface DeckOperation<T> {
+    T run(DeckProgress progress) throws IOException;
+
+    /** isCancellable - false for operations that must not be interrupted part way, such as a journal append. */
+    default boolean isCancellable(){
+        return true;
+    }
+
+    /** cancelled - called instead of run, on the thread it would have run on, when the operation is cancelled
+     * before it starts, so that it can let go of what preparing it took over. */
+    default void cancelled(){
+    }
+}
@@ -0,0 +1,472 @@
+package quizcard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/** DeckPatch - the changes that turn one version of a deck into another: cards added, removed and modified. Two
+ * copies of a deck edited apart are reconciled by sending each other a patch instead of the whole deck.
+ *
+ * A card is known by an id, a 64-bit hash of the UTF-8 bytes of its question; the second and later cards asking
+ * the same question get the id of its occurrence number instead. The id does not depend on where the card is, so
+ * shuffling changes nothing. A card whose question changed is removed and added; one whose answer changed is
+ * modified. Each card also has a content hash, of question and answer together.
+ *
+ * diff compares two deck files in one streaming pass over each, holding only a table of ids and content hashes of
+ * the first: about 32 bytes per card, never the text. Cards are added or modified as the second deck streams past,
+ * and whatever of the first it never reached is removed. The patch file is gzipped and holds the text of the added
+ * and modified cards only, plus the content hash each removed or modified card had, so applying it to a deck
+ * changed meanwhile finds the cards both sides changed and keeps the deck's own version of those.
+ *
+ * apply makes the changes through the Deck's usual edits, so a journaled deck saves them by appending to its
+ * journal. Removals are the exception: the journal cannot record them, so a patch that removes cards makes the
+ * next save write the whole deck. */
+class DeckPatch {
+    static final String EXTENSION = ".qcpatch";
+
+    private static final int MAGIC = 0x51435054; // "QCPT"
+    private static final int VERSION = 1;
+    private static final byte END = 0;
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final byte MODIFY = 3;
+    private static final byte[] PLACEHOLDER = {' '};
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final int MAXIMUM_REPORTED_CONFLICTS = 20;
+
+    private final long baseFingerprint;
+    private final long targetFingerprint;
+    private final List<Change> changes;
+
+    private DeckPatch(long baseFingerprint, long targetFingerprint, List<Change> changes){
+        this.baseFingerprint = baseFingerprint;
+        this.targetFingerprint = targetFingerprint;
+        this.changes = changes;
+    }
+
+    /** Summary - how many cards a diff or apply added, removed and modified, and which changes it could not make
+     * because the deck had changed the same card. */
+    static final class Summary {
+        int added;
+        int removed;
+        int modified;
+        int unchanged;
+        int conflicts;
+        boolean wasBase;
+        boolean isTarget;
+        final List<String> conflictReports = new ArrayList<>();
+
+        private void conflict(String report){
+            if(++conflicts <= MAXIMUM_REPORTED_CONFLICTS){
+                conflictReports.add(report);
+            }
+        }
+
+        @Override
+        public String toString(){
+            return added + " added, " + removed + " removed, " + modified + " modified" +
+                    (conflicts > 0 ? ", " + conflicts + " conflicting" : "");
+        }
+    }
+
+    /** diff - writes to patch the changes that turn the deck at from into the deck at to. */
+    static Summary diff(Path from, Path to, Path patch) throws IOException {
+        IdTable base = new IdTable();
+        CardIds baseIds = new CardIds();
+        long[] baseFingerprint = new long[1];
+        forEachCard(from, (question, questionHash, answer) -> {
+            long id = baseIds.next(questionHash);
+            long content = contentHash(questionHash, hash(answer));
+            base.put(id, content);
+            baseFingerprint[0] += fingerprint(id, content);
+        });
+
+        Summary summary = new Summary();
+        Path temporary = patch.resolveSibling(patch.getFileName() + ".tmp");
+        try(DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(temporary), 1 << 16)))){
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(baseFingerprint[0]);
+            CardIds targetIds = new CardIds();
+            long[] targetFingerprint = new long[1];
+            try{
+                forEachCard(to, (question, questionHash, answer) -> {
+                    long id = targetIds.next(questionHash);
+                    long content = contentHash(questionHash, hash(answer));
+                    targetFingerprint[0] += fingerprint(id, content);
+                    int slot = base.find(id);
+                    try{
+                        if(slot < 0){
+                            output.writeByte(ADD);
+                            output.writeLong(id);
+                            writeText(output, question);
+                            writeText(output, answer);
+                            summary.added++;
+                        }else{
+                            if(base.isSeen(slot)){
+                                throw new IOException("Two cards of " + to.getFileName() + " have the same id");
+                            }
+                            base.markSeen(slot);
+                            if(base.valueAt(slot) != content){
+                                output.writeByte(MODIFY);
+                                output.writeLong(id);
+                                output.writeLong(base.valueAt(slot));
+                                writeText(output, answer);
+                                summary.modified++;
+                            }else{
+                                summary.unchanged++;
+                            }
+                        }
+                    }catch(IOException ioEx){
+                        throw new UncheckedIOException(ioEx);
+                    }
+                });
+            }catch(UncheckedIOException uncheckedEx){
+                throw uncheckedEx.getCause();
+            }
+            for(int slot = base.nextSlot(0); slot >= 0; slot = base.nextSlot(slot + 1)){
+                if(!base.isSeen(slot)){
+                    output.writeByte(REMOVE);
+                    output.writeLong(base.keyAt(slot));
+                    output.writeLong(base.valueAt(slot));
+                    summary.removed++;
+                }
+            }
+            output.writeByte(END);
+            output.writeLong(targetFingerprint[0]);
+        }catch(IOException | RuntimeException ex){
+            Files.deleteIfExists(temporary);
+            throw ex;
+        }
+        Files.move(temporary, patch, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return summary;
+    }
+
+    /** read - a patch written by diff. */
+    static DeckPatch read(Path patch) throws IOException {
+        try(DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(patch), 1 << 16)))){
+            if(input.readInt() != MAGIC || input.readInt() != VERSION){
+                throw new IOException(patch.getFileName() + " is not a deck patch");
+            }
+            long baseFingerprint = input.readLong();
+            List<Change> changes = new ArrayList<>();
+            for(byte kind = input.readByte(); kind != END; kind = input.readByte()){
+                Change change = new Change(kind, input.readLong());
+                switch(kind){
+                    case ADD:
+                        change.question = readText(input);
+                        change.answer = readText(input);
+                        break;
+                    case MODIFY:
+                        change.expected = input.readLong();
+                        change.answer = readText(input);
+                        break;
+                    case REMOVE:
+                        change.expected = input.readLong();
+                        break;
+                    default:
+                        throw new IOException("Unknown change " + kind + " in " + patch.getFileName());
+                }
+                changes.add(change);
+            }
+            return new DeckPatch(baseFingerprint, input.readLong(), changes);
+        }catch(EOFException eofEx){
+            throw new IOException(patch.getFileName() + " is cut short", eofEx);
+        }
+    }
+
+    /** apply - makes the changes of the patch to deck. A change to a card the deck has changed too, or no longer
+     * has, is a conflict: the deck's version is kept and the change reported. Changes the deck already has are
+     * skipped, so applying a patch twice changes nothing the second time. Summary.wasBase tells whether the deck
+     * was the one the patch was made from and Summary.isTarget whether it now is the one the patch was made to,
+     * judged by a fingerprint of every card that does not depend on their order. */
+    Summary apply(Deck deck){
+        List<QuizCard> quizCards = deck.getQuizCardList();
+        IdTable index = new IdTable();
+        CardIds ids = new CardIds();
+        long fingerprint = 0;
+        for(int i = 0; i < quizCards.size(); i++){
+            QuizCard quizCard = quizCards.get(i);
+            long questionHash = hash(quizCard.getQuestion());
+            long id = ids.next(questionHash);
+            index.put(id, i);
+            fingerprint += fingerprint(id, contentHash(questionHash, hash(quizCard.getAnswer())));
+        }
+
+        Summary summary = new Summary();
+        summary.wasBase = fingerprint == baseFingerprint;
+        List<Integer> removed = new ArrayList<>();
+        for(Change change : changes){
+            int slot = index.find(change.id);
+            QuizCard current = slot < 0 ? null : quizCards.get((int) index.valueAt(slot));
+            long currentContent = current == null ? 0 : contentHash(current);
+            switch(change.kind){
+                case ADD:
+                    if(current == null){
+                        deck.addQuizCard(change.question, change.answer);
+                        fingerprint += fingerprint(change.id, contentHash(change.question, change.answer));
+                        index.put(change.id, quizCards.size() - 1);
+                        summary.added++;
+                    }else if(currentContent != contentHash(change.question, change.answer)){
+                        summary.conflict("Both added \"" + firstLine(change.question) + "\" with different answers");
+                    }
+                    break;
+                case MODIFY:
+                    if(current == null){
+                        summary.conflict("Changed, but no longer in the deck: " + change.idText());
+                    }else if(currentContent == change.expected){
+                        int card = (int) index.valueAt(slot);
+                        deck.editQuizCard(card, current.getQuestion(), change.answer);
+                        fingerprint += fingerprint(change.id, contentHash(current.getQuestion(), change.answer))
+                                - fingerprint(change.id, currentContent);
+                        summary.modified++;
+                    }else if(currentContent != contentHash(current.getQuestion(), change.answer)){
+                        summary.conflict("Both changed the answer of \"" + firstLine(current.getQuestion()) + "\"");
+                    }
+                    break;
+                case REMOVE:
+                    if(current == null){
+                        break;
+                    }
+                    if(currentContent == change.expected){
+                        removed.add((int) index.valueAt(slot));
+                        fingerprint -= fingerprint(change.id, currentContent);
+                        summary.removed++;
+                    }else{
+                        summary.conflict("Removed, but changed in the deck: \"" +
+                                firstLine(current.getQuestion()) + "\"");
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown change " + change.kind);
+            }
+        }
+        if(!removed.isEmpty()){
+            int[] cards = removed.stream().mapToInt(Integer::intValue).toArray();
+            Arrays.sort(cards);
+            deck.removeQuizCards(cards);
+        }
+        summary.isTarget = fingerprint == targetFingerprint;
+        return summary;
+    }
+
+    int size(){
+        return changes.size();
+    }
+
+    /** CardVisitor - receives the cards of a deck with the hash of their question, in order. */
+    private interface CardVisitor {
+        void card(String question, long questionHash, String answer);
+    }
+
+    /** forEachCard - streams the cards of the deck at path. A deck with a journal next to it is loaded instead, so
+     * that the journal is replayed into it. */
+    private static void forEachCard(Path path, CardVisitor visitor) throws IOException {
+        if(DeckJournal.hasLogs(path)){
+            for(QuizCard quizCard : DeckLibrary.loadFile(path, DeckProgress.NONE).getQuizCardList()){
+                visitor.card(quizCard.getQuestion(), hash(quizCard.getQuestion()), quizCard.getAnswer());
+            }
+            return;
+        }
+        DeckReader.MalformedReport report = new DeckReader.MalformedReport(path);
+        DeckFormat.detect(path).read(path, new DeckReader.Handler() {
+            @Override
+            public void card(String question, String answer) {
+                visitor.card(question, hash(question), answer);
+            }
+
+            @Override
+            public void malformed(long recordNumber, String record) {
+                report.malformed(recordNumber);
+            }
+        });
+        report.finish();
+    }
+
+    /** hash - a 64-bit hash of the UTF-8 bytes of text, with an empty text standing for the single space a Deck
+     * stores in its place. */
+    static long hash(String text){
+        byte[] bytes = text.isEmpty() ? PLACEHOLDER : text.getBytes(StandardCharsets.UTF_8);
+        long hash = 0xcbf29ce484222325L; // FNV-1a
+        for(byte b : bytes){
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    static long contentHash(QuizCard quizCard){
+        return contentHash(quizCard.getQuestion(), quizCard.getAnswer());
+    }
+
+    private static long contentHash(String question, String answer){
+        return contentHash(hash(question), hash(answer));
+    }
+
+    private static long contentHash(long questionHash, long answerHash){
+        return mix(questionHash + GOLDEN_GAMMA * answerHash);
+    }
+
+    private static long fingerprint(long id, long content){
+        return mix(id ^ content);
+    }
+
+    private static String firstLine(String text){
+        return text.split("\n", 2)[0];
+    }
+
+    private static void writeText(DataOutputStream output, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readText(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if(length < 0){
+            throw new IOException("Corrupt text length " + length);
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** mix - the finaliser of SplitMix64, as in Permutation. */
+    private static long mix(long value){
+        value = (value ^ value >>> 30) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ value >>> 27) * 0x94D049BB133111EBL;
+        return value ^ value >>> 31;
+    }
+
+    private static final class Change {
+        final byte kind;
+        final long id;
+        long expected;
+        String question;
+        String answer;
+
+        Change(byte kind, long id){
+            this.kind = kind;
+            this.id = id;
+        }
+
+        String idText(){
+            return String.format("card %016x", id);
+        }
+    }
+
+    /** cardIds - the id of every card of quizCards, in order. Scheduler and CardStatistics keep the state of a card
+     * under its id, so it stays with the card when the deck is shuffled or cards are removed. */
+    static long[] cardIds(List<QuizCard> quizCards){
+        long[] ids = new long[quizCards.size()];
+        CardIds cardIds = new CardIds();
+        for(int i = 0; i < ids.length; i++){
+            ids[i] = cardIds.next(hash(quizCards.get(i).getQuestion()));
+        }
+        return ids;
+    }
+
+    /** CardIds - gives the cards of one deck their ids, in order: the hash of the question for its first card, and
+     * a hash of the question and the occurrence number for any later card asking the same. */
+    static final class CardIds {
+        private final IdTable occurrences = new IdTable();
+
+        long next(long questionHash){
+            int slot = occurrences.find(questionHash);
+            long occurrence = slot < 0 ? 0 : occurrences.valueAt(slot);
+            occurrences.put(questionHash, occurrence + 1);
+            long id = occurrence == 0 ? questionHash : mix(questionHash + GOLDEN_GAMMA * occurrence);
+            return id == 0 ? 1 : id; // 0 marks an empty slot of an IdTable
+        }
+    }
+
+    /** IdTable - an open-addressing hash table from non-zero longs to longs, in two primitive arrays, with a bit per
+     * slot that diff uses to mark the cards it has met. */
+    static final class IdTable {
+        private long[] keys = new long[1024];
+        private long[] values = new long[1024];
+        private long[] seen = new long[1024 / Long.SIZE];
+        private int size;
+
+        int find(long key){
+            int mask = keys.length - 1;
+            for(int slot = (int) mix(key) & mask; ; slot = slot + 1 & mask){
+                if(keys[slot] == key){
+                    return slot;
+                }
+                if(keys[slot] == 0){
+                    return -1;
+                }
+            }
+        }
+
+        void put(long key, long value){
+            int mask = keys.length - 1;
+            int slot = (int) mix(key) & mask;
+            while(keys[slot] != 0 && keys[slot] != key){
+                slot = slot + 1 & mask;
+            }
+            values[slot] = value;
+            if(keys[slot] == 0){
+                keys[slot] = key;
+                if(++size > keys.length / 2){
+                    grow();
+                }
+            }
+        }
+
+        long keyAt(int slot){
+            return keys[slot];
+        }
+
+        long valueAt(int slot){
+            return values[slot];
+        }
+
+        boolean isSeen(int slot){
+            return (seen[slot >>> 6] & 1L << slot) != 0;
+        }
+
+        void markSeen(int slot){
+            seen[slot >>> 6] |= 1L << slot;
+        }
+
+        /** nextSlot - the first slot from slot on that holds a key, or -1. */
+        int nextSlot(int slot){
+            for(; slot < keys.length; slot++){
+                if(keys[slot] != 0){
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        private void grow(){
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new long[oldKeys.length * 2];
+            seen = new long[keys.length / Long.SIZE];
+            size = 0;
+            for(int slot = 0; slot < oldKeys.length; slot++){
+                if(oldKeys[slot] != 0){
+                    put(oldKeys[slot], oldValues[slot]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package quizcard;
+
+import java.io.InterruptedIOException;
+
+/** DeckProgress - told how far a load or save has got. Implementations may throw InterruptedIOException to
+ * cancel the operation, which then stops at the next report. */
+interface DeckProgress {
+    DeckProgress NONE = (bytes, cards) -> { };
+
+    void update(long bytes, long cards) throws InterruptedIOException;
+}
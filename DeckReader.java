@@ -0,0 +1,174 @@
+package quizcard;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/** DeckReader - streams a deck saved in the sentinel format through memory-mapped windows and hands every
+ * QuizCard to a Handler as soon as its terminator is seen. Only the record currently being scanned is buffered,
+ * so the memory used beyond the cards themselves does not grow with the size of the file. */
+class DeckReader {
+    static final byte[] QUIZ_CARD_TERMINATOR = "\n29rje2r9\n".getBytes(StandardCharsets.UTF_8);
+    static final byte[] QUIZ_CARD_SEPARATOR = "\te23bf0hj\t".getBytes(StandardCharsets.UTF_8);
+
+    private static final long WINDOW_SIZE = 64L << 20;
+    private static final int PROGRESS_INTERVAL = 1 << 20;
+    private static final int INITIAL_RECORD_SIZE = 256;
+
+    /** Handler - receives the cards, and the records that could not be turned into cards, in file order. */
+    interface Handler {
+        void card(String question, String answer);
+
+        /** card - receives a card as the UTF-8 bytes of its record, which are only valid during the call. Handlers
+         * that store text as bytes can override this to skip decoding; by default the text is decoded. */
+        default void card(byte[] record, int questionEnd, int answerStart, int answerEnd){
+            card(new String(record, 0, questionEnd, StandardCharsets.UTF_8),
+                    new String(record, answerStart, answerEnd - answerStart, StandardCharsets.UTF_8));
+        }
+
+        void malformed(long recordNumber, String record);
+    }
+
+    /** MalformedReport - tells stderr about the malformed records of one file: each of the first
+     * MAXIMUM_REPORTED_MALFORMED, then, once the file is read, how many there were in all, so that a badly damaged
+     * file cannot flood it. Chunks of one file parsed in parallel can share a report. */
+    static final class MalformedReport {
+        static final int MAXIMUM_REPORTED_MALFORMED = 20;
+
+        private final String fileName;
+        private long count;
+
+        MalformedReport(Path file){
+            fileName = String.valueOf(file.getFileName());
+        }
+
+        void malformed(long recordNumber){
+            malformed("#" + recordNumber);
+        }
+
+        /** malformed - counts one malformed record, reporting it as the card at where if it is one of the first. */
+        synchronized void malformed(String where){
+            if(++count <= MAXIMUM_REPORTED_MALFORMED){
+                System.err.println("Skipped malformed card " + where + " in " + fileName);
+            }
+        }
+
+        synchronized long getCount(){
+            return count;
+        }
+
+        /** finish - reports the total, if there were more malformed records than were reported one by one. */
+        synchronized void finish(){
+            if(count > MAXIMUM_REPORTED_MALFORMED){
+                System.err.println("Skipped " + count + " malformed cards in " + fileName + ", " +
+                        (count - MAXIMUM_REPORTED_MALFORMED) + " more than listed");
+            }
+        }
+    }
+
+    private final Handler handler;
+    private final DeckProgress progress;
+    private long bytesScanned;
+    private byte[] record = new byte[INITIAL_RECORD_SIZE];
+    private int length;
+    private int separatorAt = -1;
+    private long recordNumber;
+
+    DeckReader(Handler handler){
+        this(handler, DeckProgress.NONE);
+    }
+
+    DeckReader(Handler handler, DeckProgress progress){
+        this.handler = handler;
+        this.progress = progress;
+    }
+
+    /** read - scans a whole file and flushes the final record, even if it is missing its terminator. The scan is
+     * recorded as a parse in DeckMetrics. */
+    void read(Path path) throws IOException {
+        DeckMetrics.Span span = DeckMetrics.begin(DeckMetrics.PARSE, path);
+        long size;
+        try{
+            try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+                size = channel.size();
+                read(channel, 0, size);
+            }
+            finish();
+        }catch(IOException | RuntimeException ex){
+            span.failed(ex);
+            throw ex;
+        }
+        span.finished("text", size, recordNumber);
+    }
+
+    /** read - scans the bytes between from and to, mapping at most WINDOW_SIZE bytes at a time. */
+    void read(FileChannel channel, long from, long to) throws IOException {
+        for(long position = from; position < to; position += WINDOW_SIZE){
+            scan(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, to - position)));
+        }
+    }
+
+    /** scan - feeds the remaining bytes of a buffer into the sentinel scanner, reporting progress every
+     * PROGRESS_INTERVAL bytes. */
+    void scan(ByteBuffer buffer) throws InterruptedIOException {
+        while(buffer.hasRemaining()){
+            int chunk = Math.min(buffer.remaining(), PROGRESS_INTERVAL);
+            for(int i = 0; i < chunk; i++){
+                accept(buffer.get());
+            }
+            bytesScanned += chunk;
+            progress.update(bytesScanned, recordNumber);
+        }
+    }
+
+    /** finish - emits whatever is left after the last terminator. */
+    void finish(){
+        if(length > 0){
+            emit(length);
+        }
+    }
+
+    private void accept(byte b){
+        if(length == record.length){
+            record = Arrays.copyOf(record, length * 2);
+        }
+        record[length++] = b;
+
+        // Both sentinels end with a single-byte character, so the full comparison only runs on '\n' and '\t'.
+        if(b == '\n' && endsWith(QUIZ_CARD_TERMINATOR)){
+            emit(length - QUIZ_CARD_TERMINATOR.length);
+        }else if(b == '\t' && separatorAt < 0 && endsWith(QUIZ_CARD_SEPARATOR)){
+            separatorAt = length - QUIZ_CARD_SEPARATOR.length;
+        }
+    }
+
+    private boolean endsWith(byte[] sentinel){
+        if(length < sentinel.length){
+            return false;
+        }
+        int offset = length - sentinel.length;
+        for(int i = 0; i < sentinel.length; i++){
+            if(record[offset + i] != sentinel[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void emit(int end){
+        recordNumber++;
+        if(separatorAt < 0 || separatorAt > end){
+            handler.malformed(recordNumber, new String(record, 0, end, StandardCharsets.UTF_8));
+        }else{
+            int answerAt = separatorAt + QUIZ_CARD_SEPARATOR.length;
+            handler.card(record, separatorAt, answerAt, end);
+        }
+        length = 0;
+        separatorAt = -1;
+    }
+}
@@ -0,0 +1,554 @@
+package quizcard;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/** DeckTool - processes deck files from the command line, without a display. It only touches the storage classes
+ * (DeckFormat, DeckReader, the DeckWriters and the mapped card lists), never the Swing ones, so no AWT class is loaded
+ * and it starts in a few tens of milliseconds:
+ *
+ *     java -cp classes quizcard.DeckTool convert biology.txt biology.qcdb
+ *
+ * Every command streams its input card by card, so decks larger than the heap can be processed. Shuffle reads
+ * the cards through a memory-mapped binary copy of the deck in the order of a computed Permutation, so it needs
+ * no memory per card either. Duplicates keeps about 100 bytes per card in a DuplicateIndex, but never the text.
+ * Import is the exception: it parses the file in parallel chunks into a Deck, so it needs the cards to fit. So is
+ * patch, which loads the deck so that, patching in place, only the changed cards are appended to its journal.
+ *
+ * The images of the cards go along with them: convert, merge and shuffle copy all those of their inputs, split and
+ * patch only those the cards written attach.
+ *
+ * The exit status is 0 on success, 1 when validate finds malformed cards, patch finds conflicting changes or a
+ * file cannot be processed, and 2 for a usage error. */
+public class DeckTool {
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java quizcard.DeckTool <command> <arguments>",
+            "  convert <in> <out>                   copy a deck, in the format implied by the extension of out",
+            "  merge <out> <in>...                  concatenate decks into one",
+            "  split <in> <cards> <out>             write every <cards> cards to out-1, out-2, ...",
+            "  count <in>...                        print the number of cards in each deck",
+            "  validate <in>...                     count cards and report malformed records",
+            "  duplicates <in>                      list cards whose question repeats an earlier one",
+            "  shuffle <in> <out> [--seed <seed>]   write the cards in a shuffled order",
+            "  import <in> <out> [--tsv] [--header] [--question <column>] [--answer <column>]",
+            "                                       read a CSV (or TSV) file, by default question and answer from",
+            "                                       columns 1 and 2; a column is a number or a header title",
+            "  diff <old> <new> <patch>             write the cards added, removed and modified since old",
+            "  patch <in> <patch> [<out>]           make those changes to in (in place unless out is given);",
+            "                                       cards in has changed too keep its version and are reported",
+            "  history <in> [--top <n>]             report on the answers logged for a deck in its tests",
+            "Decks ending in " + DeckFormat.BINARY_EXTENSION + " are written in the binary format, in " +
+                    DeckFormat.COMPRESSED_EXTENSION + " block-compressed, all others as text.");
+
+    private static final int EXIT_FAILURE = 1;
+    private static final int EXIT_USAGE = 2;
+    private static final int RETENTION_DAYS = 14;
+    private static final int MINIMUM_HARDEST_ANSWERS = 3;
+
+    private long cards;
+    private long malformed;
+
+    public static void main(String[] args){
+        if(args.length == 0){
+            System.err.println(USAGE);
+            System.exit(EXIT_USAGE);
+        }
+        int status;
+        try{
+            status = new DeckTool().run(args);
+        }catch(IllegalArgumentException argumentEx){
+            System.err.println(argumentEx.getMessage());
+            System.err.println(USAGE);
+            status = EXIT_USAGE;
+        }catch(IOException ioEx){
+            System.err.println("deck: " + ioEx);
+            status = EXIT_FAILURE;
+        }
+        System.exit(status);
+    }
+
+    /** run - carries out one command and returns the exit status. */
+    int run(String[] args) throws IOException {
+        switch(args[0]){
+            case "convert":
+                requireArguments(args, 3, 3);
+                copy(Paths.get(args[1]), Paths.get(args[2]));
+                return 0;
+            case "merge":
+                requireArguments(args, 3, Integer.MAX_VALUE);
+                merge(Paths.get(args[1]), args, 2);
+                return 0;
+            case "split":
+                requireArguments(args, 4, 4);
+                split(Paths.get(args[1]), parseCount(args[2]), Paths.get(args[3]));
+                return 0;
+            case "count":
+                requireArguments(args, 2, Integer.MAX_VALUE);
+                for(int i = 1; i < args.length; i++){
+                    scan(Paths.get(args[i]), null);
+                    System.out.println(cards + "\t" + args[i]);
+                }
+                return 0;
+            case "validate":
+                requireArguments(args, 2, Integer.MAX_VALUE);
+                return validate(args);
+            case "duplicates":
+                requireArguments(args, 2, 2);
+                duplicates(Paths.get(args[1]));
+                return 0;
+            case "shuffle":
+                requireArguments(args, 3, 5);
+                long seed = new Random().nextLong();
+                if(args.length > 3){
+                    if(args.length != 5 || !args[3].equals("--seed")){
+                        throw new IllegalArgumentException("Unknown option " + args[3]);
+                    }
+                    seed = parseSeed(args[4]);
+                }
+                shuffle(Paths.get(args[1]), Paths.get(args[2]), seed);
+                return 0;
+            case "import":
+                requireArguments(args, 3, 9);
+                importCsv(Paths.get(args[1]), Paths.get(args[2]), args);
+                return 0;
+            case "diff":
+                requireArguments(args, 4, 4);
+                DeckPatch.Summary differences = DeckPatch.diff(Paths.get(args[1]), Paths.get(args[2]),
+                        Paths.get(args[3]));
+                System.err.println(differences + ", " + differences.unchanged + " unchanged; wrote " +
+                        Files.size(Paths.get(args[3])) + " bytes to " + args[3]);
+                return 0;
+            case "patch":
+                requireArguments(args, 3, 4);
+                return patch(Paths.get(args[1]), Paths.get(args[2]), args.length == 4 ? Paths.get(args[3]) : null);
+            case "history":
+                requireArguments(args, 2, 4);
+                int top = 10;
+                if(args.length > 2){
+                    if(args.length != 4 || !args[2].equals("--top")){
+                        throw new IllegalArgumentException("Unknown option " + args[2]);
+                    }
+                    top = (int) Math.min(Integer.MAX_VALUE, parseCount(args[3]));
+                }
+                history(Paths.get(args[1]), top);
+                return 0;
+            default:
+                throw new IllegalArgumentException("Unknown command " + args[0]);
+        }
+    }
+
+    /** copy - streams a whole deck into a new file, which replaces the target only once it is complete. */
+    private void copy(Path from, Path to) throws IOException {
+        requireDistinct(from, to);
+        DeckFormat.writeAtomically(to, output -> {
+            scan(from, output);
+            return cards;
+        });
+        ImageStore.copy(List.of(from), to, id -> true);
+        System.err.println("Wrote " + cards + " cards to " + to);
+    }
+
+    private void merge(Path to, String[] args, int firstInput) throws IOException {
+        List<Path> inputs = new ArrayList<>();
+        for(int i = firstInput; i < args.length; i++){
+            requireDistinct(Paths.get(args[i]), to);
+            inputs.add(Paths.get(args[i]));
+        }
+        long[] total = new long[1];
+        DeckFormat.writeAtomically(to, output -> {
+            for(Path input : inputs){
+                scan(input, output);
+                total[0] += cards;
+            }
+            return total[0];
+        });
+        ImageStore.copy(inputs, to, id -> true);
+        System.err.println("Wrote " + total[0] + " cards to " + to);
+    }
+
+    /** split - writes the cards of a deck into numbered parts of at most cardsPerPart cards each, named after the
+     * target with the part number inserted before its extension. Each part is written to a temporary file that
+     * replaces the part once it is complete, so a failed split leaves no part half written. Each part gets the
+     * images its own cards attach. */
+    private void split(Path from, long cardsPerPart, Path to) throws IOException {
+        String name = to.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String stem = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        DeckWriter[] part = new DeckWriter[1];
+        Path[] partPath = new Path[1];
+        long[] parts = new long[1];
+        Set<Long> partImages = new HashSet<>();
+        boolean isComplete = false;
+        try{
+            new CountingHandler(from) {
+                @Override
+                void write(String question, String answer) throws IOException {
+                    if(cards % cardsPerPart == 0){
+                        if(part[0] != null){
+                            part[0].close();
+                            part[0] = null;
+                            finishPart(from, partPath[0], partImages);
+                        }
+                        partPath[0] = to.resolveSibling(stem + "-" + (++parts[0]) + extension);
+                        requireDistinct(from, partPath[0]);
+                        part[0] = DeckFormat.forFile(partPath[0].toFile()).newWriter(partTemporary(partPath[0]));
+                    }
+                    part[0].write(question, answer);
+                    ImageStore.addReferences(partImages, question);
+                    ImageStore.addReferences(partImages, answer);
+                }
+            }.read();
+            if(part[0] != null){
+                part[0].close();
+                part[0] = null;
+                finishPart(from, partPath[0], partImages);
+            }
+            isComplete = true;
+        }catch(UncheckedIOException uncheckedEx){
+            throw uncheckedEx.getCause();
+        }finally{
+            if(!isComplete && partPath[0] != null){
+                if(part[0] != null){
+                    part[0].close();
+                }
+                Files.deleteIfExists(partTemporary(partPath[0]));
+            }
+        }
+        System.err.println("Wrote " + cards + " cards to " + parts[0] + " parts");
+    }
+
+    private static Path partTemporary(Path part){
+        return part.resolveSibling(part.getFileName() + ".tmp");
+    }
+
+    /** finishPart - puts a written part in place, with the images of the deck at from that its cards attach, and
+     * starts over for the next part. */
+    private static void finishPart(Path from, Path part, Set<Long> partImages) throws IOException {
+        Files.move(partTemporary(part), part, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        ImageStore.copy(List.of(from), part, partImages::contains);
+        partImages.clear();
+    }
+
+    /** requireDistinct - refuses to write over an input, which would truncate it before it had been read. */
+    private static void requireDistinct(Path input, Path output) throws IOException {
+        if(input.toAbsolutePath().normalize().equals(output.toAbsolutePath().normalize())
+                || Files.exists(input) && Files.exists(output) && Files.isSameFile(input, output)){
+            throw new IllegalArgumentException("Cannot write " + output + " over its own input");
+        }
+    }
+
+    private int validate(String[] args){
+        int status = 0;
+        for(int i = 1; i < args.length; i++){
+            try{
+                scan(Paths.get(args[i]), null);
+                System.out.println(args[i] + ": " + cards + " cards, " + malformed + " malformed");
+                if(malformed > 0){
+                    status = EXIT_FAILURE;
+                }
+            }catch(IOException ioEx){
+                System.out.println(args[i] + ": unreadable (" + ioEx + ")");
+                status = EXIT_FAILURE;
+            }
+        }
+        return status;
+    }
+
+    /** duplicates - prints a line for every card whose question repeats, exactly or nearly, the question of an
+     * earlier card. Cards are numbered from 1. */
+    private void duplicates(Path from) throws IOException {
+        DuplicateIndex index = new DuplicateIndex();
+        long[] found = new long[2];
+        DuplicateIndex.Handler report = new DuplicateIndex.Handler() {
+            @Override
+            public void exact(int card, int original) {
+                found[0]++;
+                System.out.println((card + 1) + "\t" + (original + 1) + "\texact");
+            }
+
+            @Override
+            public void similar(int card, int original, double similarity) {
+                found[1]++;
+                System.out.println((card + 1) + "\t" + (original + 1) + "\t" +
+                        String.format(Locale.ROOT, "%.2f", similarity));
+            }
+        };
+        try{
+            new CountingHandler(from) {
+                @Override
+                void write(String question, String answer) {
+                    if(cards >= Integer.MAX_VALUE){
+                        throw new UncheckedIOException(new IOException("Too many cards to index in " + from));
+                    }
+                    index.add((int) cards, question, report);
+                }
+            }.read();
+        }catch(UncheckedIOException uncheckedEx){
+            throw uncheckedEx.getCause();
+        }
+        System.err.println(found[0] + " exact and " + found[1] + " near duplicates among " + cards + " cards");
+    }
+
+    /** shuffle - writes the cards of a deck in the play order Deck.setPlayOrder(seed) gives it. A text deck is
+     * first converted to a temporary binary deck, so that the cards can be read in any order without loading
+     * them. */
+    private void shuffle(Path from, Path to, long seed) throws IOException {
+        Path binary = from;
+        if(DeckFormat.detect(from) != DeckFormat.BINARY){
+            binary = Files.createTempFile(to.toAbsolutePath().getParent(), "shuffle", DeckFormat.BINARY_EXTENSION);
+        }
+        try{
+            if(binary != from){
+                try(DeckWriter output = DeckFormat.BINARY.newWriter(binary)){
+                    scan(from, output);
+                }
+            }
+            MappedCardList quizCards = new MappedCardList(new MappedFile(binary));
+            DeckFormat.writeAtomically(to, new PermutedList(quizCards, new Permutation(quizCards.size(), seed)));
+        }finally{
+            if(binary != from){
+                Files.deleteIfExists(binary);
+            }
+        }
+        ImageStore.copy(List.of(from), to, id -> true);
+        System.err.println("Wrote " + to + " shuffled with seed " + seed);
+    }
+
+    /** importCsv - converts a CSV or TSV file into a deck with a CsvImporter, which parses it on every core. Rows
+     * that cannot be read are skipped and written next to the input. */
+    private void importCsv(Path from, Path to, String[] args) throws IOException {
+        boolean isTsv = false;
+        boolean hasHeader = false;
+        String question = "1";
+        String answer = "2";
+        for(int i = 3; i < args.length; i++){
+            switch(args[i]){
+                case "--tsv":
+                    isTsv = true;
+                    break;
+                case "--header":
+                    hasHeader = true;
+                    break;
+                case "--question":
+                case "--answer":
+                    if(i + 1 == args.length){
+                        throw new IllegalArgumentException("Missing column after " + args[i]);
+                    }
+                    if(args[i].equals("--question")){
+                        question = args[++i];
+                    }else{
+                        answer = args[++i];
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        CsvImporter importer = isTsv ? new CsvImporter('\t', hasHeader, question, answer)
+                : CsvImporter.forFile(from, hasHeader, question, answer);
+        Deck imported = importer.read(from, DeckProgress.NONE);
+        DeckFormat.writeAtomically(to, imported.getQuizCardList());
+        System.err.println("Wrote " + imported.getQuizCardList().size() + " cards to " + to + ", skipped " +
+                imported.getNumMalformed() + " rows");
+    }
+
+    /** patch - makes the changes of a patch written by diff to a deck, and saves it to out or, if out is null, in
+     * place. In place, the deck is opened with its journal, so unless cards were removed the save only appends
+     * the changed cards to the journal. A patch holds text only, so the images the cards it adds attach are
+     * carried over only if the deck had them already. */
+    private int patch(Path from, Path patchFile, Path to) throws IOException {
+        DeckPatch patch = DeckPatch.read(patchFile);
+        Deck deck;
+        if(to == null){
+            deck = new Deck();
+            deck.readFile(from.toString(), DeckProgress.NONE);
+        }else{
+            deck = DeckLibrary.loadFile(from, DeckProgress.NONE);
+        }
+        DeckPatch.Summary summary = patch.apply(deck);
+        if(to == null){
+            deck.save(from.toString());
+        }else{
+            DeckFormat.writeAtomically(to, deck.getQuizCardList());
+            ImageStore.copy(List.of(from), to, ImageStore.referencedBy(deck.getQuizCardList())::contains);
+        }
+        for(String conflict : summary.conflictReports){
+            System.out.println("conflict\t" + conflict);
+        }
+        System.err.println(summary + "; " + (summary.isTarget ? "the deck now matches the patched one"
+                : summary.wasBase ? "the deck does not match the patched one" : "the deck had changes of its own") +
+                "; wrote " + (to == null ? from : to));
+        return summary.conflicts > 0 ? EXIT_FAILURE : 0;
+    }
+
+    /** history - reports on the answers logged for a deck: how many were right, how long recalling took, how
+     * many of the cards answered before were remembered on each of the last RETENTION_DAYS days with answers,
+     * and the top hardest cards. Only the questions of those are looked up in the deck. */
+    private void history(Path from, int top) throws IOException {
+        Path path = ReviewHistory.historyPath(from);
+        if(!Files.exists(path)){
+            throw new IOException("No history next to " + from);
+        }
+        long start = System.nanoTime();
+        HistoryQuery.CardAccuracy accuracy = HistoryQuery.accuracy(path);
+        LatencyHistogram recall = HistoryQuery.responseTimes(path);
+        HistoryQuery.Retention retention = HistoryQuery.retention(path);
+        long[] hardest = accuracy.hardest(top, MINIMUM_HARDEST_ANSWERS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf(Locale.ROOT, "%d answers to %d cards, %.1f%% right%n", accuracy.getTotalAnswers(),
+                accuracy.getCards(), 100.0 * accuracy.getTotalCorrect() / Math.max(1, accuracy.getTotalAnswers()));
+        System.out.println("recall time " + recall.summarize());
+        System.out.println("cards seen before, remembered:");
+        int shown = 0;
+        for(int day = retention.getDays() - 1; day >= 0 && shown < RETENTION_DAYS; day--){
+            if(retention.reviews[day] > 0){
+                System.out.printf(Locale.ROOT, "  %s %8d answers %6.1f%%%n",
+                        LocalDate.ofEpochDay(retention.firstDay + day), retention.reviews[day],
+                        100 * retention.getRate(day));
+                shown++;
+            }
+        }
+        Map<Long, String> questions = new HashMap<>();
+        for(long card : hardest){
+            questions.put(card, "(no longer in the deck)");
+        }
+        DeckPatch.CardIds ids = new DeckPatch.CardIds();
+        try{
+            new CountingHandler(from) {
+                @Override
+                void write(String question, String answer) {
+                    long card = ids.next(DeckPatch.hash(question));
+                    if(questions.containsKey(card)){
+                        questions.put(card, question.split("\n", 2)[0]);
+                    }
+                }
+            }.read();
+        }catch(UncheckedIOException uncheckedEx){
+            throw uncheckedEx.getCause();
+        }
+        System.out.println("hardest cards:");
+        for(long card : hardest){
+            System.out.printf(Locale.ROOT, "  %5.1f%% of %6d  %s%n",
+                    100.0 * accuracy.getCorrect(card) / accuracy.getAnswers(card), accuracy.getAnswers(card),
+                    questions.get(card));
+        }
+        System.err.printf(Locale.ROOT, "Queried %d answers in %.2f s%n", accuracy.getTotalAnswers(), seconds);
+    }
+
+    /** scan - streams every card of a deck to output, or only counts them when output is null. */
+    private void scan(Path from, DeckWriter output) throws IOException {
+        try{
+            new CountingHandler(from) {
+                @Override
+                void write(String question, String answer) throws IOException {
+                    if(output != null){
+                        output.write(question, answer);
+                    }
+                }
+            }.read();
+        }catch(UncheckedIOException uncheckedEx){
+            throw uncheckedEx.getCause();
+        }
+    }
+
+    /** CountingHandler - counts the cards and malformed records of one file as they are streamed past. */
+    private abstract class CountingHandler implements DeckReader.Handler {
+        private final Path file;
+        private final DeckReader.MalformedReport report;
+
+        CountingHandler(Path file){
+            this.file = file;
+            report = new DeckReader.MalformedReport(file);
+            cards = 0;
+            malformed = 0;
+        }
+
+        abstract void write(String question, String answer) throws IOException;
+
+        @Override
+        public void card(String question, String answer) {
+            try{
+                write(question, answer);
+            }catch(IOException ioEx){
+                throw new UncheckedIOException(ioEx);
+            }
+            cards++;
+        }
+
+        @Override
+        public void malformed(long recordNumber, String record) {
+            malformed++;
+            report.malformed(recordNumber);
+        }
+
+        /** read - streams the cards of the file through this handler, then sums up its malformed records. */
+        void read() throws IOException {
+            DeckFormat.detect(file).read(file, this);
+            report.finish();
+        }
+    }
+
+    /** PermutedList - a read-only view of a list in the order given by a permutation of its indexes. */
+    private static class PermutedList extends AbstractList<QuizCard> implements RandomAccess {
+        private final List<QuizCard> quizCards;
+        private final Permutation order;
+
+        PermutedList(List<QuizCard> quizCards, Permutation order){
+            this.quizCards = quizCards;
+            this.order = order;
+        }
+
+        @Override
+        public QuizCard get(int index){
+            return quizCards.get(order.get(index));
+        }
+
+        @Override
+        public int size(){
+            return order.size();
+        }
+    }
+
+    private static void requireArguments(String[] args, int minimum, int maximum){
+        if(args.length < minimum || args.length > maximum){
+            throw new IllegalArgumentException("Wrong number of arguments for " + args[0]);
+        }
+    }
+
+    private static long parseCount(String value){
+        try{
+            long count = Long.parseLong(value);
+            if(count > 0){
+                return count;
+            }
+        }catch(NumberFormatException numberEx){
+            // reported below
+        }
+        throw new IllegalArgumentException("Not a positive number of cards: " + value);
+    }
+
+    private static long parseSeed(String value){
+        try{
+            return Long.parseLong(value);
+        }catch(NumberFormatException numberEx){
+            throw new IllegalArgumentException("Not a seed: " + value);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package quizcard;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/** DeckWriter - writes cards one at a time in a particular on-disk format, so that a deck can be saved or
+ * converted without first building the whole file in memory. */
+interface DeckWriter extends Closeable {
+    void write(String question, String answer) throws IOException;
+}
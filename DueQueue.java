@@ -0,0 +1,122 @@
+package quizcard;
+
+import java.util.Arrays;
+
+/** DueQueue - an indexed binary min-heap of card indexes ordered by due time, then by card index or play order.
+ * Each card's place in the heap is tracked, so changing a card's due time moves it in O(log n) without searching. */
+class DueQueue {
+    private long[] due = new long[16];
+    private int[] heap = new int[16];
+    private int[] position = new int[16];
+    private int size;
+    private Permutation order;
+
+    int size(){
+        return size;
+    }
+
+    /** add - adds the next card index, which must be equal to size(). */
+    void add(long dueTime){
+        int card = size;
+        if(card == heap.length){
+            int capacity = Math.max(16, card * 2);
+            due = Arrays.copyOf(due, capacity);
+            heap = Arrays.copyOf(heap, capacity);
+            position = Arrays.copyOf(position, capacity);
+        }
+        due[card] = dueTime;
+        heap[size] = card;
+        position[card] = size;
+        size++;
+        siftUp(position[card]);
+    }
+
+    long getDue(int card){
+        return due[card];
+    }
+
+    void setDue(int card, long dueTime){
+        long previous = due[card];
+        due[card] = dueTime;
+        if(dueTime < previous){
+            siftUp(position[card]);
+        }else{
+            siftDown(position[card]);
+        }
+    }
+
+    /** setOrder - breaks ties between cards due at the same time by their position in order rather than by their
+     * index, so that new cards come up shuffled. Cards beyond the end of order come after it, by index. */
+    void setOrder(Permutation newOrder){
+        order = newOrder;
+        for(int at = size / 2 - 1; at >= 0; at--){
+            siftDown(at);
+        }
+    }
+
+    /** peek - the card due soonest, or -1 if there are no cards. */
+    int peek(){
+        return size == 0 ? -1 : heap[0];
+    }
+
+    /** peek - the first count cards in due order, or all of them if there are fewer. The k-th card is never deeper
+     * than level k of the heap, so only the top 2^count - 1 entries are sorted. */
+    int[] peek(int count){
+        int candidates = (int) Math.min(size, (1L << Math.min(count, 31)) - 1);
+        int[] first = Arrays.copyOf(heap, candidates);
+        for(int i = 1; i < candidates; i++){
+            int card = first[i];
+            int at = i;
+            for(; at > 0 && isBefore(card, first[at - 1]); at--){
+                first[at] = first[at - 1];
+            }
+            first[at] = card;
+        }
+        return Arrays.copyOf(first, Math.min(count, candidates));
+    }
+
+    private boolean isBefore(int card, int other){
+        return due[card] != due[other] ? due[card] < due[other] : rank(card) < rank(other);
+    }
+
+    private int rank(int card){
+        return order != null && card < order.size() ? order.positionOf(card) : card;
+    }
+
+    private void siftUp(int at){
+        int card = heap[at];
+        while(at > 0){
+            int parent = (at - 1) >>> 1;
+            if(!isBefore(card, heap[parent])){
+                break;
+            }
+            place(heap[parent], at);
+            at = parent;
+        }
+        place(card, at);
+    }
+
+    private void siftDown(int at){
+        int card = heap[at];
+        while(true){
+            int child = 2 * at + 1;
+            if(child >= size){
+                break;
+            }
+            if(child + 1 < size && isBefore(heap[child + 1], heap[child])){
+                child++;
+            }
+            if(!isBefore(heap[child], card)){
+                break;
+            }
+            place(heap[child], at);
+            at = child;
+        }
+        place(card, at);
+    }
+
+    private void place(int card, int at){
+        heap[at] = card;
+        position[card] = at;
+    }
+}
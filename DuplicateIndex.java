@@ -0,0 +1,295 @@
+package quizcard;
+
+import java.util.Arrays;
+import java.util.List;
+
+/** DuplicateIndex - finds the cards whose question repeats, or nearly repeats, the question of another card,
+ * without ever comparing two strings.
+ *
+ * A question is normalized on the fly: case is ignored and every run of characters other than letters and digits
+ * counts as one space. Exact repeats are found through a 64-bit hash of the normalized text. Near repeats are found
+ * through a MinHash signature of its three-character shingles, which estimates the Jaccard similarity of two
+ * questions as the share of the signature they have in common. The signature is cut into bands, and locality
+ * sensitive hashing on the bands turns "find similar questions" into a few bucket lookups: two questions land in
+ * the same bucket of some band with a probability that rises steeply around a similarity of 0.55.
+ *
+ * Everything is kept in primitive arrays indexed by card: the hash, the signature (the low 16 bits of each
+ * minimum) and the links of the bucket chains, about 100 bytes per card whatever the length of its text. The text
+ * itself is not kept, so a deck can be checked while it is streamed past. Only the latest MAXIMUM_CANDIDATES cards
+ * of a bucket are looked at, which keeps a query cheap even when thousands of questions share a template. */
+class DuplicateIndex {
+    /** SIMILARITY - the estimated similarity from which a question counts as a near repeat. */
+    static final double SIMILARITY = 0.6;
+
+    private static final int SHINGLE = 3;
+    private static final int BANDS = 6;
+    private static final int ROWS = 3;
+    private static final int HASHES = BANDS * ROWS;
+    private static final int MAXIMUM_CANDIDATES = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int END = -1;
+
+    private int capacity = INITIAL_CAPACITY;
+    private int size;
+    private long[] hashes = new long[capacity];
+    private char[] signatures = new char[capacity * HASHES];
+    private int[] exactHeads = newHeads(capacity);
+    private int[] exactNext = new int[capacity];
+    private int[] bandHeads = newHeads(capacity * BANDS);
+    private int[] bandNext = new int[capacity * BANDS];
+
+    private long hash;
+    private final int[] minimums = new int[HASHES];
+    private final char[] signature = new char[HASHES];
+
+    /** Handler - is told about a card that repeats a card indexed before it. */
+    interface Handler {
+        void exact(int card, int original);
+
+        void similar(int card, int original, double similarity);
+    }
+
+    /** build - indexes every card in order, telling handler (if any) about each card that repeats an earlier
+     * one. */
+    static DuplicateIndex build(List<QuizCard> quizCards, Handler handler){
+        DuplicateIndex index = new DuplicateIndex();
+        for(int i = 0; i < quizCards.size(); i++){
+            index.add(i, quizCards.get(i).getQuestion(), handler);
+        }
+        return index;
+    }
+
+    /** add - indexes the question of a card, replacing whatever was indexed for it before. */
+    void add(int card, String question){
+        add(card, question, null);
+    }
+
+    /** add - indexes the question of a card like add(card, question), first telling handler (if any) which
+     * indexed card, if any, it repeats exactly or nearly. A question with no letters or digits is not indexed. */
+    void add(int card, String question, Handler handler){
+        remove(card);
+        if(!sign(question)){
+            return;
+        }
+        if(handler != null){
+            int original = findExactSigned();
+            if(original != END){
+                handler.exact(card, original);
+            }else{
+                original = findSimilarSigned();
+                if(original != END){
+                    handler.similar(card, original, similarity(original));
+                }
+            }
+        }
+        if(card >= capacity){
+            grow(card + 1);
+        }
+        hashes[card] = hash;
+        System.arraycopy(signature, 0, signatures, card * HASHES, HASHES);
+        size = Math.max(size, card + 1);
+        link(card);
+    }
+
+    /** remove - forgets the question of a card. */
+    void remove(int card){
+        if(card >= size || hashes[card] == 0){
+            return;
+        }
+        unlink(exactHeads, exactNext, 1, 0, exactBucket(hashes[card]), card);
+        for(int band = 0; band < BANDS; band++){
+            unlink(bandHeads, bandNext, BANDS, band, bandBucket(signatures, card * HASHES, band), card);
+        }
+        hashes[card] = 0;
+    }
+
+    /** findExact - the first indexed card whose question is the same as question once normalized, or -1. */
+    int findExact(String question){
+        return sign(question) ? findExactSigned() : END;
+    }
+
+    /** findSimilar - an indexed card whose question is estimated to be at least SIMILARITY like question, otherwise
+     * -1. The most recently indexed candidates are looked at first, and the first close enough is taken. */
+    int findSimilar(String question){
+        return sign(question) ? findSimilarSigned() : END;
+    }
+
+    private int findExactSigned(){
+        for(int card = exactHeads[exactBucket(hash)]; card != END; card = exactNext[card]){
+            if(hashes[card] == hash){
+                return card;
+            }
+        }
+        return END;
+    }
+
+    private int findSimilarSigned(){
+        for(int band = 0; band < BANDS; band++){
+            int candidates = 0;
+            for(int card = bandHeads[band * capacity + bandBucket(signature, 0, band)];
+                card != END && candidates < MAXIMUM_CANDIDATES; card = bandNext[card * BANDS + band]){
+                candidates++;
+                if(isSameBand(card, band) && similarity(card) >= SIMILARITY){
+                    return card;
+                }
+            }
+        }
+        return END;
+    }
+
+    /** similarity - the share of the signature of card that is the same as the last signed question's. */
+    private double similarity(int card){
+        int same = 0;
+        for(int k = 0; k < HASHES; k++){
+            if(signatures[card * HASHES + k] == signature[k]){
+                same++;
+            }
+        }
+        return same / (double) HASHES;
+    }
+
+    private boolean isSameBand(int card, int band){
+        for(int k = band * ROWS; k < (band + 1) * ROWS; k++){
+            if(signatures[card * HASHES + k] != signature[k]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** sign - normalizes text into hash and signature. Returns false if it has no letters or digits. */
+    private boolean sign(String text){
+        Arrays.fill(minimums, -1);
+        long textHash = 0xCBF29CE484222325L;
+        long shingle = 0;
+        int length = 0;
+        boolean isSpacePending = false;
+        for(int i = 0; i < text.length(); i++){
+            char c = text.charAt(i);
+            if(!Character.isLetterOrDigit(c)){
+                isSpacePending = length > 0;
+                continue;
+            }
+            for(int step = isSpacePending ? 0 : 1; step < 2; step++){
+                char next = step == 0 ? ' ' : Character.toLowerCase(c);
+                textHash = (textHash ^ next) * 0x100000001B3L;
+                shingle = (shingle << Character.SIZE | next) & (1L << SHINGLE * Character.SIZE) - 1;
+                if(++length >= SHINGLE){
+                    addShingle(shingle);
+                }
+            }
+            isSpacePending = false;
+        }
+        if(length == 0){
+            return false;
+        }
+        if(length < SHINGLE){
+            addShingle(shingle);
+        }
+        hash = mix(textHash);
+        hash = hash == 0 ? 1 : hash; // 0 marks a card that is not indexed
+        for(int k = 0; k < HASHES; k++){
+            signature[k] = (char) minimums[k];
+        }
+        return true;
+    }
+
+    /** addShingle - lowers the minimums to the shingle's hashes where smaller. The HASHES hash functions are
+     * derived from two 64-bit hashes of the shingle (a + k * b), which is as good as independent ones for MinHash
+     * and far cheaper. */
+    private void addShingle(long shingle){
+        long a = mix(shingle);
+        long b = mix(a) | 1;
+        for(int k = 0; k < HASHES; k++){
+            int value = (int) (a + k * b >>> 32);
+            if(Integer.compareUnsigned(value, minimums[k]) < 0){
+                minimums[k] = value;
+            }
+        }
+    }
+
+    /** link - puts an indexed card into its buckets. A card goes straight after the first card with the same hash
+     * in its exact bucket, so findExact finds the earliest of them; otherwise it goes first. */
+    private void link(int card){
+        int bucket = exactBucket(hashes[card]);
+        int previous = END;
+        for(int other = exactHeads[bucket]; other != END; other = exactNext[other]){
+            if(hashes[other] == hashes[card]){
+                previous = other;
+                break;
+            }
+        }
+        if(previous == END){
+            exactNext[card] = exactHeads[bucket];
+            exactHeads[bucket] = card;
+        }else{
+            exactNext[card] = exactNext[previous];
+            exactNext[previous] = card;
+        }
+        for(int band = 0; band < BANDS; band++){
+            int head = band * capacity + bandBucket(signatures, card * HASHES, band);
+            bandNext[card * BANDS + band] = bandHeads[head];
+            bandHeads[head] = card;
+        }
+    }
+
+    private void unlink(int[] heads, int[] next, int stride, int band, int bucket, int card){
+        int head = band * capacity + bucket;
+        if(heads[head] == card){
+            heads[head] = next[card * stride + band];
+            return;
+        }
+        for(int other = heads[head]; other != END; other = next[other * stride + band]){
+            if(next[other * stride + band] == card){
+                next[other * stride + band] = next[card * stride + band];
+                return;
+            }
+        }
+    }
+
+    /** grow - makes room for at least minimum cards. There is a bucket per card, so the buckets are rebuilt from
+     * the stored hashes and signatures. */
+    private void grow(int minimum){
+        int newCapacity = capacity;
+        while(newCapacity < minimum){
+            newCapacity *= 2;
+        }
+        capacity = newCapacity;
+        hashes = Arrays.copyOf(hashes, capacity);
+        signatures = Arrays.copyOf(signatures, capacity * HASHES);
+        exactHeads = newHeads(capacity);
+        exactNext = new int[capacity];
+        bandHeads = newHeads(capacity * BANDS);
+        bandNext = new int[capacity * BANDS];
+        for(int card = 0; card < size; card++){
+            if(hashes[card] != 0){
+                link(card);
+            }
+        }
+    }
+
+    private int exactBucket(long textHash){
+        return (int) textHash & capacity - 1;
+    }
+
+    private int bandBucket(char[] from, int offset, int band){
+        long key = band;
+        for(int k = band * ROWS; k < (band + 1) * ROWS; k++){
+            key = mix(key ^ from[offset + k]);
+        }
+        return (int) key & capacity - 1;
+    }
+
+    private static int[] newHeads(int length){
+        int[] heads = new int[length];
+        Arrays.fill(heads, END);
+        return heads;
+    }
+
+    /** mix - the finaliser of SplitMix64, as in Permutation. */
+    private static long mix(long value){
+        value = (value ^ value >>> 30) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ value >>> 27) * 0x94D049BB133111EBL;
+        return value ^ value >>> 31;
+    }
+}
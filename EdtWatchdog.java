@@ -0,0 +1,230 @@
+package quizcard;
+
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/** EdtWatchdog - finds the events that keep the event dispatch thread busy long enough for the window to freeze.
+ *
+ * It replaces the system EventQueue and times every event it dispatches. A sampling thread looks at the clock
+ * four times per threshold; while an event has been running for longer than the threshold it takes the stack of
+ * the event thread and counts where it was. When the event ends, a compact report of the stall (its length, the
+ * event and the places it spent its time, worst first) is appended to the stall log, and when the application
+ * exits a histogram of the worst places over the whole session follows. All file writing happens on the sampling
+ * thread, never on the event thread.
+ *
+ * A modal dialog runs its own event loop inside the event that opened it. The time the dialog waits for input is
+ * not counted against that event: waiting in getNextEvent marks the thread idle, and the outer event is timed
+ * again from when the inner one returns.
+ *
+ * The threshold is set in milliseconds with -Dquizcard.stallMillis (0 turns the watchdog off) and the log with
+ * -Dquizcard.stallLog. */
+class EdtWatchdog extends EventQueue {
+    static final String THRESHOLD_PROPERTY = "quizcard.stallMillis";
+    static final String LOG_PROPERTY = "quizcard.stallLog";
+
+    private static final long DEFAULT_THRESHOLD = 200;
+    private static final long MINIMUM_SAMPLE_INTERVAL = 10;
+    private static final int STALL_OFFENDERS = 5;
+    private static final int SESSION_OFFENDERS = 10;
+
+    private final long thresholdNanos;
+    private final long sampleInterval;
+    private final Path log;
+    private final ConcurrentLinkedQueue<Stall> ended = new ConcurrentLinkedQueue<>();
+    private final Map<String, Integer> sessionSamples = new HashMap<>();
+    private volatile Thread eventThread;
+    private volatile long dispatchStart;
+    private volatile long dispatchNumber;
+    private int depth;
+
+    private long sampledNumber = -1;
+    private final Map<String, Integer> stallSamples = new HashMap<>();
+    private int stalls;
+
+    /** Stall - an event that ran for longer than the threshold. */
+    private static class Stall {
+        final long number;
+        final String event;
+        final long nanos;
+
+        Stall(long number, String event, long nanos){
+            this.number = number;
+            this.event = event;
+            this.nanos = nanos;
+        }
+    }
+
+    private EdtWatchdog(long thresholdMillis, Path log){
+        thresholdNanos = thresholdMillis * 1_000_000;
+        sampleInterval = Math.max(MINIMUM_SAMPLE_INTERVAL, thresholdMillis / 4);
+        this.log = log;
+    }
+
+    /** install - puts a watchdog in front of the system event queue, unless it has been turned off. */
+    static void install(){
+        long threshold = Long.getLong(THRESHOLD_PROPERTY, DEFAULT_THRESHOLD);
+        if(threshold <= 0){
+            return;
+        }
+        String logLocation = System.getProperty(LOG_PROPERTY);
+        Path log = logLocation != null ? Paths.get(logLocation)
+                : Paths.get(System.getProperty("user.home"), ".quizcard-stalls.log");
+        EdtWatchdog watchdog = new EdtWatchdog(threshold, log);
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(watchdog);
+        Thread sampler = new Thread(watchdog::sample, "edt-watchdog");
+        sampler.setDaemon(true);
+        sampler.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(watchdog::writeSessionReport, "edt-watchdog-report"));
+    }
+
+    @Override
+    public AWTEvent getNextEvent() throws InterruptedException {
+        dispatchStart = 0;
+        return super.getNextEvent();
+    }
+
+    @Override
+    protected void dispatchEvent(AWTEvent event){
+        eventThread = Thread.currentThread();
+        depth++;
+        dispatchNumber++;
+        dispatchStart = System.nanoTime();
+        try{
+            super.dispatchEvent(event);
+        }finally{
+            // dispatchStart and dispatchNumber were moved on if this event dispatched others in a loop of its own
+            long start = dispatchStart;
+            long number = dispatchNumber;
+            long elapsed = System.nanoTime() - start;
+            if(--depth > 0){
+                dispatchNumber++; // the event that dispatched this one carries on from here
+                dispatchStart = System.nanoTime();
+            }else{
+                dispatchStart = 0;
+            }
+            if(start != 0 && elapsed > thresholdNanos){
+                ended.add(new Stall(number, describe(event), elapsed));
+            }
+        }
+    }
+
+    /** sample - the sampling thread. Takes the event thread's stack while an event overruns the threshold and
+     * reports each stall once its event has ended. */
+    private void sample(){
+        while(true){
+            try{
+                Thread.sleep(sampleInterval);
+            }catch(InterruptedException interruptedEx){
+                return;
+            }
+            long start = dispatchStart;
+            long number = dispatchNumber;
+            Thread thread = eventThread;
+            if(start != 0 && thread != null && System.nanoTime() - start > thresholdNanos){
+                StackTraceElement[] stack = thread.getStackTrace();
+                if(number == dispatchNumber){ // the stack may belong to a later event otherwise
+                    if(number != sampledNumber){
+                        stallSamples.clear();
+                        sampledNumber = number;
+                    }
+                    stallSamples.merge(describe(stack), 1, Integer::sum);
+                }
+            }
+            for(Stall stall; (stall = ended.poll()) != null; ){
+                report(stall);
+            }
+        }
+    }
+
+    /** report - appends the report of one stall to the log, with the samples taken during it, if any. */
+    private synchronized void report(Stall stall){
+        stalls++;
+        StringWriter report = new StringWriter();
+        PrintWriter out = new PrintWriter(report);
+        List<Map.Entry<String, Integer>> offenders = new ArrayList<>();
+        int samples = 0;
+        if(stall.number == sampledNumber){
+            for(Map.Entry<String, Integer> entry : stallSamples.entrySet()){
+                offenders.add(entry);
+                samples += entry.getValue();
+                sessionSamples.merge(entry.getKey(), entry.getValue(), Integer::sum);
+            }
+            sampledNumber = -1;
+        }
+        out.printf("%s stall %d ms in %s (%d samples)%n", Instant.now(), stall.nanos / 1_000_000, stall.event,
+                samples);
+        printOffenders(out, offenders, STALL_OFFENDERS);
+        stallSamples.clear();
+        append(report.toString());
+    }
+
+    /** writeSessionReport - appends the places the event thread was found stalled most often this session. */
+    private synchronized void writeSessionReport(){
+        if(stalls == 0){
+            return;
+        }
+        StringWriter report = new StringWriter();
+        PrintWriter out = new PrintWriter(report);
+        out.printf("%s session: %d stalls, worst offenders%n", Instant.now(), stalls);
+        printOffenders(out, new ArrayList<>(sessionSamples.entrySet()), SESSION_OFFENDERS);
+        append(report.toString());
+    }
+
+    private static void printOffenders(PrintWriter out, List<Map.Entry<String, Integer>> offenders, int limit){
+        offenders.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        for(int i = 0; i < Math.min(limit, offenders.size()); i++){
+            out.printf("  %5d  %s%n", offenders.get(i).getValue(), offenders.get(i).getKey());
+        }
+        out.flush();
+    }
+
+    private void append(String report){
+        try{
+            Files.write(log, report.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+        }catch(IOException ioEx){
+            System.err.print(report);
+        }
+    }
+
+    /** describe - the kind of event and where it came from, such as "ActionEvent from JButton". */
+    private static String describe(AWTEvent event){
+        Object source = event.getSource();
+        return event.getClass().getSimpleName() + (source == null ? "" : " from " + source.getClass().getName());
+    }
+
+    /** describe - the frame a stack was stopped in, followed by the innermost frame of this application that led
+     * to it, which is where a fix usually belongs. */
+    private static String describe(StackTraceElement[] stack){
+        if(stack.length == 0){
+            return "(no stack)";
+        }
+        String top = describe(stack[0]);
+        for(StackTraceElement frame : stack){
+            if(frame.getClassName().startsWith("quizcard.")){
+                return frame == stack[0] ? top : top + " <- " + describe(frame);
+            }
+        }
+        return top;
+    }
+
+    private static String describe(StackTraceElement frame){
+        return frame.getClassName() + "." + frame.getMethodName() + "(" +
+                (frame.isNativeMethod() ? "native" : frame.getFileName() + ":" + frame.getLineNumber()) + ")";
+    }
+}
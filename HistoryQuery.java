@@ -0,0 +1,232 @@
+package quizcard;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/** HistoryQuery - the questions asked of a ReviewHistory: how often each card is answered right, which cards are
+ * hardest, how well cards already seen are remembered day by day, and how long recalling takes.
+ *
+ * Each query is one pass over the columns it needs, segment by segment, into primitive arrays sized by the cards
+ * or days, never by the rows: response times touch 4 bytes a row, accuracy 9 and retention 17. Cards are counted
+ * in an open-addressing table of their ids. */
+class HistoryQuery {
+    static final long DAY = 24L * 60 * 60 * 1000;
+
+    private HistoryQuery(){
+    }
+
+    /** accuracy - the answers given to each card of the history at path. */
+    static CardAccuracy accuracy(Path path) throws IOException {
+        CardAccuracy accuracy = new CardAccuracy();
+        ReviewHistory.scan(path, (segment, rows) -> {
+            for(int row = 0; row < rows; row++){
+                accuracy.count(ReviewHistory.card(segment, row), ReviewHistory.isCorrect(segment, row));
+            }
+        });
+        return accuracy;
+    }
+
+    /** responseTimes - how long the card was shown before the answer was asked for, over every answer. */
+    static LatencyHistogram responseTimes(Path path) throws IOException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        ReviewHistory.scan(path, (segment, rows) -> {
+            for(int row = 0; row < rows; row++){
+                histogram.record(ReviewHistory.responseMillis(segment, row) * 1_000_000L);
+            }
+        });
+        return histogram;
+    }
+
+    /** retention - for each day, in UTC, how many answers were given to cards answered before and how many of
+     * those were right. The first answer to a card tests nothing learned, so it is left out. */
+    static Retention retention(Path path) throws IOException {
+        long[] range = {Long.MAX_VALUE, Long.MIN_VALUE};
+        ReviewHistory.scan(path, (segment, rows) -> {
+            for(int row = 0; row < rows; row++){
+                long day = Math.floorDiv(ReviewHistory.time(segment, row), DAY);
+                range[0] = Math.min(range[0], day);
+                range[1] = Math.max(range[1], day);
+            }
+        });
+        if(range[0] > range[1]){
+            return new Retention(0, new int[0], new int[0]);
+        }
+        Retention retention = new Retention(range[0], new int[(int) (range[1] - range[0] + 1)],
+                new int[(int) (range[1] - range[0] + 1)]);
+        CardAccuracy seen = new CardAccuracy();
+        ReviewHistory.scan(path, (segment, rows) -> {
+            for(int row = 0; row < rows; row++){
+                long card = ReviewHistory.card(segment, row);
+                boolean isCorrect = ReviewHistory.isCorrect(segment, row);
+                if(seen.count(card, isCorrect) > 1){
+                    int day = (int) (Math.floorDiv(ReviewHistory.time(segment, row), DAY) - retention.firstDay);
+                    retention.reviews[day]++;
+                    if(isCorrect){
+                        retention.remembered[day]++;
+                    }
+                }
+            }
+        });
+        return retention;
+    }
+
+    /** CardAccuracy - the answers and right answers of every card, by card id, in primitive arrays. */
+    static final class CardAccuracy {
+        private long[] cards = new long[1024];
+        private int[] answers = new int[1024];
+        private int[] correct = new int[1024];
+        private int size;
+        private long totalAnswers;
+        private long totalCorrect;
+
+        /** count - counts one answer to card and returns the answers it has had, this one included. */
+        int count(long card, boolean isCorrect){
+            int slot = slot(card);
+            if(answers[slot] == 0){
+                if(++size > cards.length / 2){
+                    grow();
+                    slot = slot(card);
+                }
+                cards[slot] = card;
+            }
+            totalAnswers++;
+            if(isCorrect){
+                correct[slot]++;
+                totalCorrect++;
+            }
+            return ++answers[slot];
+        }
+
+        int getCards(){
+            return size;
+        }
+
+        long getTotalAnswers(){
+            return totalAnswers;
+        }
+
+        long getTotalCorrect(){
+            return totalCorrect;
+        }
+
+        int getAnswers(long card){
+            return answers[slot(card)];
+        }
+
+        int getCorrect(long card){
+            return correct[slot(card)];
+        }
+
+        /** hardest - the ids of at most count cards answered at least minimumAnswers times with the lowest share
+         * of right answers, hardest first. The share is smoothed as (right + 1) / (answers + 2), so a card answered
+         * wrong once does not outrank one answered wrong ten times out of eleven. */
+        long[] hardest(int count, int minimumAnswers){
+            int[] heap = new int[Math.max(0, count)];
+            int heapSize = 0;
+            for(int slot = 0; slot < cards.length && count > 0; slot++){
+                if(answers[slot] < Math.max(1, minimumAnswers)){
+                    continue;
+                }
+                if(heapSize < count){
+                    heap[heapSize] = slot;
+                    siftUp(heap, heapSize++);
+                }else if(score(slot) < score(heap[0])){
+                    heap[0] = slot;
+                    siftDown(heap, heapSize);
+                }
+            }
+            // Emptying the heap, whose root is the easiest card kept, fills the result from the back.
+            long[] hardest = new long[heapSize];
+            for(int i = heapSize - 1; i >= 0; i--){
+                hardest[i] = cards[heap[0]];
+                heap[0] = heap[i];
+                siftDown(heap, i);
+            }
+            return hardest;
+        }
+
+        private double score(int slot){
+            return (correct[slot] + 1.0) / (answers[slot] + 2.0);
+        }
+
+        /** siftUp - keeps the card with the highest score at the root of the heap. */
+        private void siftUp(int[] heap, int i){
+            while(i > 0 && score(heap[(i - 1) / 2]) < score(heap[i])){
+                swap(heap, i, (i - 1) / 2);
+                i = (i - 1) / 2;
+            }
+        }
+
+        private void siftDown(int[] heap, int heapSize){
+            int i = 0;
+            while(true){
+                int largest = i;
+                for(int child = 2 * i + 1; child <= 2 * i + 2 && child < heapSize; child++){
+                    if(score(heap[child]) > score(heap[largest])){
+                        largest = child;
+                    }
+                }
+                if(largest == i){
+                    return;
+                }
+                swap(heap, i, largest);
+                i = largest;
+            }
+        }
+
+        private static void swap(int[] heap, int i, int j){
+            int swapped = heap[i];
+            heap[i] = heap[j];
+            heap[j] = swapped;
+        }
+
+        /** slot - the slot of card, or the empty slot it would take. A slot is empty while it has no answers. */
+        private int slot(long card){
+            int mask = cards.length - 1;
+            int slot = (int) (card ^ card >>> 32) & mask;
+            while(answers[slot] != 0 && cards[slot] != card){
+                slot = slot + 1 & mask;
+            }
+            return slot;
+        }
+
+        private void grow(){
+            long[] oldCards = cards;
+            int[] oldAnswers = answers;
+            int[] oldCorrect = correct;
+            cards = new long[oldCards.length * 2];
+            answers = new int[cards.length];
+            correct = new int[cards.length];
+            for(int old = 0; old < oldCards.length; old++){
+                if(oldAnswers[old] != 0){
+                    int slot = slot(oldCards[old]);
+                    cards[slot] = oldCards[old];
+                    answers[slot] = oldAnswers[old];
+                    correct[slot] = oldCorrect[old];
+                }
+            }
+        }
+    }
+
+    /** Retention - the answers to cards seen before and the right ones among them, per day from firstDay. */
+    static final class Retention {
+        final long firstDay;
+        final int[] reviews;
+        final int[] remembered;
+
+        Retention(long firstDay, int[] reviews, int[] remembered){
+            this.firstDay = firstDay;
+            this.reviews = reviews;
+            this.remembered = remembered;
+        }
+
+        int getDays(){
+            return reviews.length;
+        }
+
+        /** getRate - the share of the day's reviews that were right, or NaN if there were none. */
+        double getRate(int day){
+            return reviews[day] == 0 ? Double.NaN : (double) remembered[day] / reviews[day];
+        }
+    }
+}
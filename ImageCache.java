@@ -0,0 +1,203 @@
+package quizcard;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/** ImageCache - the images of an ImageStore decoded and scaled down to fit the box they are shown in, held in an
+ * LRU cache bounded by the bytes of their pixels.
+ *
+ * Images are decoded on one background thread, so the event thread never waits for one and at most one image is
+ * being decoded at a time. A large image is decoded subsampled, at no less than twice the size it is shown at, and
+ * then smoothed down, so decoding a photograph for a small window never allocates its full resolution. What the
+ * cache holds is kept within the budget, quizcard.imageCacheMegabytes or an eighth of the heap, by dropping the
+ * images used least recently; an image larger than the whole budget is handed out but not kept. Every method is
+ * safe to call from any thread. */
+class ImageCache {
+    private static final long DEFAULT_BUDGET = Math.min(64L << 20, Runtime.getRuntime().maxMemory() / 8);
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final ImageStore store;
+    private final long budget;
+    private final ExecutorService decoder = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "image-decode");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+    private final Map<Key, CompletableFuture<BufferedImage>> images = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+
+    ImageCache(ImageStore store){
+        this(store, Long.getLong("quizcard.imageCacheMegabytes", DEFAULT_BUDGET >> 20) << 20);
+    }
+
+    ImageCache(ImageStore store, long budget){
+        this.store = store;
+        this.budget = budget;
+    }
+
+    /** get - the image named id, scaled to fit within width by height pixels, once it is decoded. The future is
+     * already complete when the image is cached. It completes exceptionally if the image is missing or cannot be
+     * read. */
+    synchronized CompletableFuture<BufferedImage> get(long id, int width, int height){
+        Key key = new Key(id, Math.max(1, width), Math.max(1, height));
+        CompletableFuture<BufferedImage> image = images.get(key);
+        if(image == null){
+            CompletableFuture<BufferedImage> decoding = CompletableFuture.supplyAsync(() -> decode(key), decoder);
+            images.put(key, decoding);
+            decoding.whenComplete((decoded, failure) -> decoded(key, decoding, decoded));
+            image = decoding;
+        }
+        return image;
+    }
+
+    /** prefetch - starts decoding the image named id for a box of width by height, unless it is cached. */
+    void prefetch(long id, int width, int height){
+        get(id, width, height);
+    }
+
+    synchronized long getCachedBytes(){
+        return cachedBytes;
+    }
+
+    long getBudget(){
+        return budget;
+    }
+
+    /** close - stops the decoder and empties the cache. Images being decoded are dropped. */
+    synchronized void close(){
+        decoder.shutdownNow();
+        images.clear();
+        cachedBytes = 0;
+    }
+
+    /** decoded - counts a finished image against the budget, dropping it or the least recently used images as
+     * needed. A failure is not kept, so that it is tried again next time. */
+    private synchronized void decoded(Key key, CompletableFuture<BufferedImage> decoding, BufferedImage image){
+        if(images.get(key) != decoding){
+            return; // closed, or already dropped
+        }
+        long bytes = image == null ? 0 : bytesOf(image);
+        if(image == null || bytes > budget){
+            images.remove(key);
+            return;
+        }
+        cachedBytes += bytes;
+        Iterator<CompletableFuture<BufferedImage>> oldest = images.values().iterator();
+        while(cachedBytes > budget && oldest.hasNext()){
+            CompletableFuture<BufferedImage> candidate = oldest.next();
+            if(candidate.isDone() && !candidate.isCompletedExceptionally() && candidate != decoding){
+                cachedBytes -= bytesOf(candidate.join());
+                oldest.remove();
+            }
+        }
+    }
+
+    private BufferedImage decode(Key key){
+        try{
+            byte[] encoded = store.read(key.id);
+            if(encoded == null){
+                throw new IOException("No image " + Long.toHexString(key.id));
+            }
+            return decode(encoded, key.width, key.height);
+        }catch(IOException ioEx){
+            throw new UncheckedIOException(ioEx);
+        }
+    }
+
+    /** decode - the image file encoded, scaled down to fit within width by height pixels but never up. */
+    static BufferedImage decode(byte[] encoded, int width, int height) throws IOException {
+        try(ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(encoded))){
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if(!readers.hasNext()){
+                throw new IOException("Not an image format that can be read");
+            }
+            ImageReader reader = readers.next();
+            try{
+                reader.setInput(input, true, true);
+                int fullWidth = reader.getWidth(0);
+                int fullHeight = reader.getHeight(0);
+                double scale = Math.min(1, Math.min((double) width / fullWidth, (double) height / fullHeight));
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, (int) (0.5 / scale));
+                param.setSourceSubsampling(step, step, 0, 0);
+                BufferedImage decoded = reader.read(0, param);
+                return scale(decoded, Math.max(1, (int) Math.round(fullWidth * scale)),
+                        Math.max(1, (int) Math.round(fullHeight * scale)));
+            }finally{
+                reader.dispose();
+            }
+        }
+    }
+
+    /** isImage - whether encoded is an image file that decode can read. */
+    static boolean isImage(byte[] encoded){
+        try(ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(encoded))){
+            return ImageIO.getImageReaders(input).hasNext();
+        }catch(IOException ioEx){
+            return false;
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage image, int width, int height){
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        if(image.getWidth() == width && image.getHeight() == height && image.getType() == type){
+            return image;
+        }
+        BufferedImage scaled = new BufferedImage(width, height, type);
+        Graphics2D graphics = scaled.createGraphics();
+        try{
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        }finally{
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private static long bytesOf(BufferedImage image){
+        return (long) image.getWidth() * image.getHeight() * BYTES_PER_PIXEL;
+    }
+
+    private static final class Key {
+        final long id;
+        final int width;
+        final int height;
+
+        Key(long id, int width, int height){
+            this.id = id;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object other){
+            if(!(other instanceof Key)){
+                return false;
+            }
+            Key key = (Key) other;
+            return id == key.id && width == key.width && height == key.height;
+        }
+
+        @Override
+        public int hashCode(){
+            return Objects.hash(id, width, height);
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package quizcard;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** ImageStore - the images attached to the cards of a Deck. A card carries an image by naming it in its question or
+ * answer with a reference such as [image:3fa94c0d12b7e861], the first 64 bits of the SHA-256 of the image file, so
+ * the deck formats stay text, the same image is stored once however many cards show it, and reordering, merging or
+ * editing cards never detaches one.
+ *
+ * The encoded image files are appended, as they are, to a file next to the deck, <deck>.images, and their places
+ * are appended to a small index, <deck>.images.index, of INDEX_ENTRY_SIZE bytes per image. Opening a deck reads the
+ * index only, however many images there are; an image is read when it is first shown. An image is written and
+ * forced before its index entry, so an entry left half written by a crash points past the data and is dropped.
+ * Decks that have not been saved yet keep their images on the heap until they are, and a deck made of the cards of
+ * other decks shows their images from their own files. Saving a deck rewrites its image files without the images
+ * none of its cards attach any more. */
+class ImageStore {
+    static final String SUFFIX = ".images";
+    static final String INDEX_SUFFIX = ".images.index";
+
+    private static final int DATA_MAGIC = 0x5143494d; // "QCIM"
+    private static final int INDEX_MAGIC = 0x51434949; // "QCII"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int INDEX_ENTRY_SIZE = 2 * Long.BYTES + Integer.BYTES;
+    private static final Pattern REFERENCE = Pattern.compile("\\[image:([0-9a-f]{16})\\]");
+    private static final Pattern REFERENCE_LINE = Pattern.compile("\\[image:[0-9a-f]{16}\\][ \\t]*\\R?");
+    private static final String REFERENCE_START = "[image:";
+
+    private Path dataPath;
+    private Path indexPath;
+    private FileChannel data;
+    private FileChannel index;
+    private final Map<Long, long[]> places = new HashMap<>();
+    private final Map<Long, byte[]> unsaved = new HashMap<>();
+    private final List<ImageStore> linked = new ArrayList<>();
+    private final Set<Long> added = new HashSet<>();
+    private Path pending;
+
+    private ImageStore(){
+    }
+
+    /** open - the images of the deck saved at deckPath. Their index is read when they are first used, off the event
+     * thread if that is where they are used, and nothing is created until an image is added. */
+    static ImageStore open(Path deckPath){
+        ImageStore store = new ImageStore();
+        store.pending = deckPath;
+        return store;
+    }
+
+    /** linking - a store for a deck with no file yet, made of the cards of the decks at deckPaths, that shows their
+     * images until it is saved and they are copied into its own files. */
+    static ImageStore linking(List<Path> deckPaths){
+        ImageStore store = new ImageStore();
+        for(Path deckPath : deckPaths){
+            store.linked.add(open(deckPath));
+        }
+        return store;
+    }
+
+    /** inMemory - a store for a deck that has no file yet. */
+    static ImageStore inMemory(){
+        return new ImageStore();
+    }
+
+    static Path dataPath(Path deckPath){
+        return deckPath.resolveSibling(deckPath.getFileName() + SUFFIX);
+    }
+
+    static Path indexPath(Path deckPath){
+        return deckPath.resolveSibling(deckPath.getFileName() + INDEX_SUFFIX);
+    }
+
+    /** add - stores image, the bytes of an image file, unless the same bytes are stored already, and returns the id
+     * its references name. */
+    synchronized long add(byte[] image) throws IOException {
+        attached();
+        long id = idOf(image);
+        added.add(id);
+        if(contains(id)){
+            return id;
+        }
+        if(dataPath == null){
+            unsaved.put(id, image);
+        }else{
+            append(id, image);
+        }
+        return id;
+    }
+
+    synchronized boolean contains(long id) throws IOException {
+        attached();
+        if(places.containsKey(id) || unsaved.containsKey(id)){
+            return true;
+        }
+        for(ImageStore store : linked){
+            if(store.contains(id)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** size - the number of images, counting an image once for each linked deck that has it. */
+    synchronized int size() throws IOException {
+        attached();
+        int size = places.size() + unsaved.size();
+        for(ImageStore store : linked){
+            size += store.size();
+        }
+        return size;
+    }
+
+    /** read - the bytes of the image named id, or null if there is none. */
+    synchronized byte[] read(long id) throws IOException {
+        attached();
+        byte[] image = unsaved.get(id);
+        if(image != null){
+            return image;
+        }
+        long[] place = places.get(id);
+        if(place == null){
+            for(ImageStore store : linked){
+                image = store.read(id);
+                if(image != null){
+                    return image;
+                }
+            }
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) place[1]);
+        while(buffer.hasRemaining()){
+            if(data.read(buffer, place[0] + buffer.position()) < 0){
+                throw new IOException("Image " + Long.toHexString(id) + " is cut short in " + dataPath.getFileName());
+            }
+        }
+        return buffer.array();
+    }
+
+    /** relocate - writes the images isKept accepts, from this store and the decks it links, to the image files of
+     * deckPath, which then replace any already there, and reads them from there on. A deck saved under its own
+     * name drops the images its cards no longer attach; one saved under a new name takes its images along. Images
+     * added since the last relocate are kept all the same, as their references may not have reached a card yet. */
+    synchronized void relocate(Path deckPath, LongPredicate isKept) throws IOException {
+        attached();
+        Set<Long> recent = new HashSet<>(added);
+        LongPredicate isKeptOrRecent = id -> isKept.test(id) || recent.contains(id);
+        if(dataPath(deckPath).equals(dataPath) && linked.isEmpty()
+                && places.keySet().stream().allMatch(isKeptOrRecent::test)){
+            added.removeAll(recent);
+            return;
+        }
+        List<ImageStore> sources = new ArrayList<>();
+        sources.add(this);
+        sources.addAll(linked);
+        boolean hasImages = writeTemporaries(sources, isKeptOrRecent, deckPath);
+        close();
+        unsaved.clear();
+        replace(deckPath, hasImages);
+        attach(deckPath);
+        added.removeAll(recent);
+    }
+
+    /** copy - writes the images isKept accepts, from the decks at from, to the image files of the deck at to,
+     * replacing any there, or deletes those files if there are none to write. */
+    static void copy(List<Path> from, Path to, LongPredicate isKept) throws IOException {
+        ImageStore store = linking(from);
+        try{
+            store.relocate(to, isKept);
+        }finally{
+            store.close();
+        }
+    }
+
+    /** referencedBy - the ids of the images the cards of quizCards and texts attach. */
+    static Set<Long> referencedBy(Iterable<QuizCard> quizCards, String... texts){
+        Set<Long> ids = new HashSet<>();
+        for(QuizCard quizCard : quizCards){
+            addReferences(ids, quizCard.getQuestion());
+            addReferences(ids, quizCard.getAnswer());
+        }
+        for(String text : texts){
+            addReferences(ids, text);
+        }
+        return ids;
+    }
+
+    static void addReferences(Set<Long> ids, String text){
+        for(long id : references(text)){
+            ids.add(id);
+        }
+    }
+
+    /** writeTemporaries - writes each image of sources that isKept accepts once, the first store that has it giving
+     * its bytes, to temporary files next to the image files of deckPath, and whether there were any. */
+    private static boolean writeTemporaries(List<ImageStore> sources, LongPredicate isKept, Path deckPath)
+            throws IOException {
+        Set<Long> kept = new HashSet<>();
+        for(ImageStore source : sources){
+            source.attached();
+            for(Long id : source.unsaved.keySet()){
+                if(isKept.test(id)){
+                    kept.add(id);
+                }
+            }
+            for(Long id : source.places.keySet()){
+                if(isKept.test(id)){
+                    kept.add(id);
+                }
+            }
+        }
+        if(kept.isEmpty()){
+            return false;
+        }
+        List<long[]> entries = new ArrayList<>();
+        try(FileChannel out = FileChannel.open(temporary(dataPath(deckPath)), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            writeFully(out, header(DATA_MAGIC), 0);
+            long position = HEADER_SIZE;
+            for(ImageStore source : sources){
+                for(Map.Entry<Long, byte[]> image : source.unsaved.entrySet()){
+                    if(kept.remove(image.getKey())){
+                        writeFully(out, ByteBuffer.wrap(image.getValue()), position);
+                        entries.add(new long[]{image.getKey(), position, image.getValue().length});
+                        position += image.getValue().length;
+                    }
+                }
+                for(Map.Entry<Long, long[]> place : source.places.entrySet()){
+                    if(kept.remove(place.getKey())){
+                        long copied = 0;
+                        while(copied < place.getValue()[1]){
+                            copied += source.data.transferTo(place.getValue()[0] + copied,
+                                    place.getValue()[1] - copied, out.position(position + copied));
+                        }
+                        entries.add(new long[]{place.getKey(), position, place.getValue()[1]});
+                        position += place.getValue()[1];
+                    }
+                }
+            }
+            out.force(false);
+        }
+        try(FileChannel out = FileChannel.open(temporary(indexPath(deckPath)), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + entries.size() * INDEX_ENTRY_SIZE);
+            buffer.putInt(INDEX_MAGIC).putInt(VERSION);
+            for(long[] entry : entries){
+                buffer.putLong(entry[0]).putLong(entry[1]).putInt((int) entry[2]);
+            }
+            buffer.flip();
+            writeFully(out, buffer, 0);
+            out.force(false);
+        }
+        return true;
+    }
+
+    /** replace - puts the temporary files writeTemporaries wrote in place of the image files of deckPath, once every
+     * store reading those has been closed, or deletes them if there were no images to write. */
+    private static void replace(Path deckPath, boolean hasImages) throws IOException {
+        Path target = dataPath(deckPath);
+        Path targetIndex = indexPath(deckPath);
+        // The index goes first, so that a crash in between leaves the old data with no index rather than a
+        // stale index pointing into the new data.
+        Files.deleteIfExists(targetIndex);
+        if(!hasImages){
+            Files.deleteIfExists(target);
+            return;
+        }
+        Files.move(temporary(target), target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(temporary(targetIndex), targetIndex, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Path temporary(Path path){
+        return path.resolveSibling(path.getFileName() + ".tmp");
+    }
+
+    synchronized void close() throws IOException {
+        try{
+            if(data != null){
+                data.close();
+            }
+        }finally{
+            if(index != null){
+                index.close();
+            }
+            data = null;
+            index = null;
+            dataPath = null;
+            indexPath = null;
+            pending = null;
+            places.clear();
+            for(ImageStore store : linked){
+                store.close();
+            }
+            linked.clear();
+        }
+    }
+
+    /** attached - reads the index of the deck this store was opened for, if it has not been read yet. A failed read
+     * is tried again the next time the images are used. */
+    private void attached() throws IOException {
+        if(pending != null){
+            Path deckPath = pending;
+            try{
+                attach(deckPath);
+            }catch(IOException ioEx){
+                close();
+                pending = deckPath;
+                throw ioEx;
+            }
+            pending = null;
+        }
+    }
+
+    /** attach - reads the index of the images of the deck at deckPath, dropping any entry that points past the end
+     * of the data, as one whose image was never completely written does. */
+    private void attach(Path deckPath) throws IOException {
+        dataPath = dataPath(deckPath);
+        indexPath = indexPath(deckPath);
+        if(!Files.exists(dataPath) || !Files.exists(indexPath)){
+            return;
+        }
+        data = FileChannel.open(dataPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long dataSize = data.size();
+        long indexSize = index.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        data.read(header, 0);
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(indexSize, Integer.MAX_VALUE - 8));
+        while(buffer.hasRemaining() && index.read(buffer, buffer.position()) >= 0){
+            // reads the whole index, which is small
+        }
+        buffer.flip();
+        if(header.getInt(0) != DATA_MAGIC || header.getInt(Integer.BYTES) != VERSION || buffer.remaining() < HEADER_SIZE
+                || buffer.getInt() != INDEX_MAGIC || buffer.getInt() != VERSION){
+            close();
+            throw new IOException("Unreadable image files " + dataPath.getFileName());
+        }
+        long validSize = HEADER_SIZE;
+        while(buffer.remaining() >= INDEX_ENTRY_SIZE){
+            long id = buffer.getLong();
+            long offset = buffer.getLong();
+            int length = buffer.getInt();
+            if(offset < HEADER_SIZE || length < 0 || offset + length > dataSize){
+                break;
+            }
+            places.put(id, new long[]{offset, length});
+            validSize += INDEX_ENTRY_SIZE;
+        }
+        if(validSize < indexSize){
+            index.truncate(validSize);
+        }
+    }
+
+    private void append(long id, byte[] image) throws IOException {
+        if(data == null){
+            data = FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            writeFully(data, header(DATA_MAGIC), 0);
+            index = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            writeFully(index, header(INDEX_MAGIC), 0);
+        }
+        long offset = data.size();
+        writeFully(data, ByteBuffer.wrap(image), offset);
+        data.force(false);
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        entry.putLong(id).putLong(offset).putInt(image.length).flip();
+        writeFully(index, entry, index.size());
+        index.force(false);
+        places.put(id, new long[]{offset, image.length});
+    }
+
+    private static ByteBuffer header(int magic){
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(magic).putInt(VERSION).flip();
+        return header;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()){
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /** idOf - the first 64 bits of the SHA-256 of image. */
+    static long idOf(byte[] image){
+        try{
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(image)).getLong();
+        }catch(NoSuchAlgorithmException noSuchAlgorithmEx){
+            throw new IllegalStateException(noSuchAlgorithmEx); // every JDK has SHA-256
+        }
+    }
+
+    /** reference - the text that attaches the image named id to a question or answer. */
+    static String reference(long id){
+        return REFERENCE_START + String.format("%016x", id) + "]";
+    }
+
+    /** references - the ids of the images text attaches, in order. */
+    static long[] references(String text){
+        if(!text.contains(REFERENCE_START)){
+            return new long[0];
+        }
+        List<Long> ids = new ArrayList<>();
+        Matcher matcher = REFERENCE.matcher(text);
+        while(matcher.find()){
+            ids.add(Long.parseUnsignedLong(matcher.group(1), 16));
+        }
+        return ids.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /** stripReferences - text without its image references, nor the line breaks that end them, for showing next
+     * to the images. */
+    static String stripReferences(String text){
+        if(!text.contains(REFERENCE_START)){
+            return text;
+        }
+        return REFERENCE_LINE.matcher(text).replaceAll("").strip();
+    }
+}
@@ -0,0 +1,93 @@
+package quizcard;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/** LatencyHistogram - counts durations in logarithmic buckets, so that percentiles of millions of them can be read
+ * off a fixed 15 KB of counters. Every power of two of microseconds is split into SUB_BUCKETS equal buckets, which
+ * keeps each reported value within 1/SUB_BUCKETS (about 3%) of the true one, from 1 microsecond to over an hour.
+ *
+ * It is not thread-safe: each thread records into its own histogram, and the histograms are added together with
+ * add when the run is over. */
+class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total;
+    private long maximum;
+
+    /** record - counts one duration, in nanoseconds. */
+    void record(long nanos){
+        long micros = Math.max(0, nanos / 1000);
+        counts[bucket(micros)]++;
+        total++;
+        maximum = Math.max(maximum, micros);
+    }
+
+    /** add - counts every duration of other as well. */
+    void add(LatencyHistogram other){
+        for(int i = 0; i < BUCKETS; i++){
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        maximum = Math.max(maximum, other.maximum);
+    }
+
+    void reset(){
+        Arrays.fill(counts, 0);
+        total = 0;
+        maximum = 0;
+    }
+
+    long getCount(){
+        return total;
+    }
+
+    /** getPercentile - the duration in microseconds that the given share (0 to 100) of the durations do not
+     * exceed, as the upper end of its bucket. */
+    long getPercentile(double percentile){
+        if(total == 0){
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            seen += counts[i];
+            if(seen >= rank){
+                return Math.min(maximum, upperBound(i));
+            }
+        }
+        return maximum;
+    }
+
+    long getMaximum(){
+        return maximum;
+    }
+
+    /** summarize - the count and the usual percentiles in milliseconds, on one line. */
+    String summarize(){
+        return String.format(Locale.ROOT, "n=%d p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f ms", total,
+                getPercentile(50) / 1000.0, getPercentile(90) / 1000.0, getPercentile(99) / 1000.0,
+                getPercentile(99.9) / 1000.0, maximum / 1000.0);
+    }
+
+    /** bucket - values below SUB_BUCKETS have a bucket each; above, a power of two is shared by SUB_BUCKETS. */
+    private static int bucket(long micros){
+        if(micros < SUB_BUCKETS){
+            return (int) micros;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (micros >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long upperBound(int bucket){
+        if(bucket < SUB_BUCKETS){
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
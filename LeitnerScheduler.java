@@ -0,0 +1,50 @@
+package quizcard;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/** LeitnerScheduler - the Leitner box system. A Right answer moves a card up one box, and each box waits longer
+ * than the one before; a Wrong answer sends the card back to the first box, to be asked again shortly. */
+class LeitnerScheduler extends Scheduler {
+    private static final long[] BOX_INTERVALS = {Scheduler.MINUTE, Scheduler.DAY, 3 * Scheduler.DAY,
+            7 * Scheduler.DAY, 14 * Scheduler.DAY, 30 * Scheduler.DAY};
+
+    private byte[] boxes = new byte[16];
+    private int cards;
+
+    @Override
+    Algorithm getAlgorithm(){
+        return Algorithm.LEITNER;
+    }
+
+    @Override
+    protected long reschedule(int card, boolean isCorrect, long now){
+        boxes[card] = isCorrect ? (byte) Math.min(boxes[card] + 1, BOX_INTERVALS.length - 1) : 0;
+        return now + BOX_INTERVALS[boxes[card]];
+    }
+
+    @Override
+    protected void addCard(){
+        if(cards == boxes.length){
+            boxes = Arrays.copyOf(boxes, cards * 2);
+        }
+        cards++;
+    }
+
+    @Override
+    protected void copyState(Scheduler from, int fromCard, int toCard){
+        boxes[toCard] = ((LeitnerScheduler) from).boxes[fromCard];
+    }
+
+    @Override
+    protected void writeState(DataOutputStream output, int cards) throws IOException {
+        output.write(boxes, 0, cards);
+    }
+
+    @Override
+    protected void readState(DataInputStream input, int cards) throws IOException {
+        input.readFully(boxes, 0, cards);
+    }
+}
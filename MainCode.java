@@ -10,6 +10,8 @@ public class MainCode {
         q.go();
     }
     private void go(){
+        DeckMetrics.register();
+        EdtWatchdog.install();
         QuizCardBuilder quizCardBuilder = new QuizCardBuilder(new Deck());
         quizCardBuilder.build();
     }
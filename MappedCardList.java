@@ -0,0 +1,51 @@
+package quizcard;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/** MappedCardList - the cards of a binary deck, read straight from a memory-mapped file. Nothing is decoded
+ * when the deck is opened: get only looks up the record offset in the trailing table and builds the QuizCard
+ * being asked for. The list cannot be changed; a Deck keeps the cards replaced or added since opening in its
+ * CardStore. */
+class MappedCardList extends AbstractList<QuizCard> implements RandomAccess {
+    private final MappedFile mappedFile;
+    private final long tableOffset;
+    private final int mappedCount;
+
+    MappedCardList(MappedFile mappedFile) throws IOException {
+        this.mappedFile = mappedFile;
+        long size = mappedFile.size();
+        if(size < BinaryDeckWriter.HEADER_SIZE + BinaryDeckWriter.TRAILER_SIZE
+                || mappedFile.getInt(0) != BinaryDeckWriter.MAGIC
+                || mappedFile.getInt(size - Integer.BYTES) != BinaryDeckWriter.MAGIC){
+            throw new IOException("Not a binary deck file");
+        }
+        if(mappedFile.getInt(Integer.BYTES) != BinaryDeckWriter.VERSION){
+            throw new IOException("Unsupported binary deck version " + mappedFile.getInt(Integer.BYTES));
+        }
+        tableOffset = mappedFile.getLong(size - BinaryDeckWriter.TRAILER_SIZE);
+        long count = mappedFile.getLong(size - BinaryDeckWriter.TRAILER_SIZE + Long.BYTES);
+        if(count > Integer.MAX_VALUE || tableOffset + count * Long.BYTES != size - BinaryDeckWriter.TRAILER_SIZE){
+            throw new IOException("Corrupt binary deck trailer");
+        }
+        mappedCount = (int) count;
+    }
+
+    @Override
+    public QuizCard get(int index){
+        if(index < 0 || index >= mappedCount){
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mappedCount);
+        }
+        long offset = mappedFile.getLong(tableOffset + (long) index * Long.BYTES);
+        int questionLength = mappedFile.getInt(offset);
+        String question = mappedFile.getString(offset + Integer.BYTES, questionLength);
+        offset += Integer.BYTES + questionLength;
+        return new QuizCard(question, mappedFile.getString(offset + Integer.BYTES, mappedFile.getInt(offset)));
+    }
+
+    @Override
+    public int size(){
+        return mappedCount;
+    }
+}
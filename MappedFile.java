@@ -0,0 +1,78 @@
+package quizcard;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** MappedFile - a read-only memory-mapped view of a whole file. A single MappedByteBuffer cannot address more
+ * than 2 GB, so the file is mapped as a row of fixed-size segments and every read is addressed by a long
+ * position. */
+class MappedFile {
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = (int) (SEGMENT_SIZE - 1);
+
+    private final MappedByteBuffer[] segments;
+    private final long size;
+
+    MappedFile(Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            size = channel.size();
+            segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+            for(int i = 0; i < segments.length; i++){
+                long position = (long) i << SEGMENT_SHIFT;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(SEGMENT_SIZE, size - position));
+            }
+        }
+    }
+
+    long size(){
+        return size;
+    }
+
+    byte getByte(long position){
+        return segments[(int) (position >>> SEGMENT_SHIFT)].get((int) position & SEGMENT_MASK);
+    }
+
+    int getInt(long position){
+        int offset = (int) position & SEGMENT_MASK;
+        MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+        if(offset + Integer.BYTES <= segment.limit()){
+            return segment.getInt(offset);
+        }
+        return (getByte(position) & 0xFF) << 24 | (getByte(position + 1) & 0xFF) << 16
+                | (getByte(position + 2) & 0xFF) << 8 | getByte(position + 3) & 0xFF;
+    }
+
+    long getLong(long position){
+        int offset = (int) position & SEGMENT_MASK;
+        MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+        if(offset + Long.BYTES <= segment.limit()){
+            return segment.getLong(offset);
+        }
+        return (long) getInt(position) << 32 | getInt(position + Integer.BYTES) & 0xFFFFFFFFL;
+    }
+
+    /** get - copies length bytes starting at position into destination, crossing segments if needed. */
+    void get(long position, byte[] destination, int offset, int length){
+        while(length > 0){
+            MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+            int segmentOffset = (int) position & SEGMENT_MASK;
+            int chunk = Math.min(length, segment.limit() - segmentOffset);
+            segment.get(segmentOffset, destination, offset, chunk);
+            position += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    String getString(long position, int length){
+        byte[] bytes = new byte[length];
+        get(position, bytes, 0, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,99 @@
+package quizcard;
+
+/** Permutation - a seeded shuffle of the indexes 0 to size - 1 that is computed rather than stored, so it takes
+ * the same few bytes for a deck of any size and never copies or reorders the cards.
+ *
+ * The indexes are enciphered with a four-round Feistel network over the smallest even number of bits that holds
+ * them. Being a cipher it is a bijection, but over a power-of-two range that may be up to four times larger than
+ * size, so results that fall outside are enciphered again until one lands inside ("cycle walking"), which still
+ * leaves a bijection of 0 to size - 1 and takes fewer than four rounds of the network on average. */
+class Permutation {
+    private static final int ROUNDS = 4;
+
+    private final int size;
+    private final long seed;
+    private final int halfBits;
+    private final long halfMask;
+    private final long[] keys = new long[ROUNDS];
+
+    Permutation(int size, long seed){
+        if(size < 0){
+            throw new IllegalArgumentException("Negative size " + size);
+        }
+        this.size = size;
+        this.seed = seed;
+        int bits = Math.max(2, 64 - Long.numberOfLeadingZeros(Math.max(size - 1, 1)));
+        halfBits = (bits + 1) / 2;
+        halfMask = (1L << halfBits) - 1;
+        long state = seed;
+        for(int i = 0; i < ROUNDS; i++){
+            state += 0x9E3779B97F4A7C15L;
+            keys[i] = mix(state);
+        }
+    }
+
+    int size(){
+        return size;
+    }
+
+    long getSeed(){
+        return seed;
+    }
+
+    /** get - the index found at position in the shuffled order. */
+    int get(int position){
+        if(position < 0 || position >= size){
+            throw new IndexOutOfBoundsException("Position: " + position + ", Size: " + size);
+        }
+        long index = position;
+        do{
+            index = encipher(index);
+        }while(index >= size);
+        return (int) index;
+    }
+
+    /** positionOf - the position of index in the shuffled order; the inverse of get. */
+    int positionOf(int index){
+        if(index < 0 || index >= size){
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        long position = index;
+        do{
+            position = decipher(position);
+        }while(position >= size);
+        return (int) position;
+    }
+
+    private long encipher(long value){
+        long left = value >>> halfBits;
+        long right = value & halfMask;
+        for(int i = 0; i < ROUNDS; i++){
+            long next = left ^ round(right, i);
+            left = right;
+            right = next;
+        }
+        return left << halfBits | right;
+    }
+
+    private long decipher(long value){
+        long left = value >>> halfBits;
+        long right = value & halfMask;
+        for(int i = ROUNDS - 1; i >= 0; i--){
+            long previous = right ^ round(left, i);
+            right = left;
+            left = previous;
+        }
+        return left << halfBits | right;
+    }
+
+    private long round(long half, int round){
+        return mix(half ^ keys[round]) & halfMask;
+    }
+
+    /** mix - the finaliser of SplitMix64, which spreads every input bit over the whole result. */
+    private static long mix(long value){
+        value = (value ^ value >>> 30) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ value >>> 27) * 0x94D049BB133111EBL;
+        return value ^ value >>> 31;
+    }
+}
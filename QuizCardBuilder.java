@@ -2,31 +2,116 @@
 package quizcard;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import javax.imageio.ImageIO;
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.TableCellEditor;
 
 /** QuizCardBuilder - This class allows the user to create, edit and save a Deck of QuizCards. */
 public class QuizCardBuilder {
     private Deck deck;
     private JButton button;
     private JFileChooser fileChooser = new JFileChooser();
+    private JFileChooser libraryChooser;
     private JFrame frame;
     private JTextArea answerText = new JTextArea();
     private JTextArea questionText = new JTextArea();
     private JPanel panel;
+    private JPanel progressPanel;
+    private JProgressBar progressBar;
+    private JButton cancelButton;
+    private JTextField searchField;
+    private JLabel searchCountLabel;
+    private JScrollPane searchResultPane;
+    private final DefaultListModel<Integer> searchResults = new DefaultListModel<>();
+    private JTable cardTable;
+    private CardTableModel cardTableModel;
 
+    private DeckLibrary library;
+    private JFileChooser importChooser;
+    private JFileChooser imageChooser;
     private QuizCardPlayer quizCardPlayer;
+    private Scheduler.Algorithm algorithm = Scheduler.Algorithm.SM2;
+    private boolean isCompactStorage;
+    private final DeckIOService deckIOService = new DeckIOService();
+    private final DeckAutosave autosave;
+    private DeckIOService.Task<?> currentTask;
+    private int tasksRunning;
+    private Deck indexingDeck;
+    private List<Runnable> afterIndexing = new ArrayList<>();
+
+    private static final int MAXIMUM_SEARCH_RESULTS = 500;
+    private static final int MAXIMUM_CELL_TEXT = 200;
+    private static final int VISIBLE_CARD_ROWS = 8;
+    private static final int MAXIMUM_REPORTED_DUPLICATES = 1000;
 
 
     public QuizCardBuilder(Deck deck) {
         this.deck = deck;
         createQuizCardPlayer();
+        autosave = new DeckAutosave(deckIOService, new DeckAutosave.Draft() {
+            @Override
+            public String getQuestion() {
+                return questionText.getText();
+            }
+
+            @Override
+            public String getAnswer() {
+                return answerText.getText();
+            }
+        });
     }
 
-    /** addCard - adds a QuizCard to the current Deck. */
-    private void addCard(){
+    /** addCard - adds a QuizCard to the current Deck, asking first if its question repeats another card's, then
+     * runs afterAdd (if any) whether it was added or not. If a change dropped the Deck's indexes, this waits for
+     * them to be rebuilt in the background. */
+    private void addCard(Runnable afterAdd){
+        if(!deck.hasIndexes()){
+            indexInBackground(() -> addCard(afterAdd));
+            return;
+        }
+        String question = getQuestionText().getText();
+        int original = deck.findDuplicate(question);
+        boolean isExact = original >= 0;
+        if(!isExact){
+            original = deck.findSimilar(question);
+        }
+        if(original >= 0){
+            showCard(original);
+            int optionChosen = JOptionPane.showConfirmDialog(frame, "Card " + (original + 1) +
+                            (isExact ? " has the same question." : " has a very similar question.") +
+                            " Add this card anyway?", "Duplicate card", JOptionPane.YES_NO_OPTION,
+                    JOptionPane.WARNING_MESSAGE);
+            if(optionChosen != JOptionPane.YES_OPTION){
+                if(afterAdd != null){
+                    afterAdd.run();
+                }
+                return;
+            }
+        }
+        deck.checkpoint();
         deck.addQuizCard(getQuestionText().getText(), getAnswerText().getText());
+        markChanged();
+        cardTableModel.fireTableRowsInserted(deck.getQuizCardList().size() - 1, deck.getQuizCardList().size() - 1);
+        if(!searchField.getText().trim().isEmpty()){
+            runSearch();
+        }
         setQuestionText(null);
         setAnswerText(null);
+        if(afterAdd != null){
+            afterAdd.run();
+        }
     }
 
     void build() {
@@ -35,13 +120,17 @@ public class QuizCardBuilder {
                         buildFrame();
                         buildContentPane();
                         buildMenuBar();
+                        buildSearchPanel();
                         buildLabel(new JLabel("Question:"));
                         buildTextArea(questionText);
                         buildLabel(new JLabel("Answer:"));
                         buildTextArea(answerText);
                         buildButtonPanel();
+                        buildCardBrowser();
+                        buildProgressPanel();
                         displayFrame();
                         questionText.requestFocusInWindow();
+                        followWithAutosave();
                 }
         );
 
@@ -50,10 +139,136 @@ public class QuizCardBuilder {
     private void buildButtonPanel() {
         button = new JButton("Add");
         button.setAlignmentX(Component.LEFT_ALIGNMENT);
-        button.addActionListener(ev -> addCard());
+        button.addActionListener(ev -> addCard(null));
         panel.add(button);
     }
 
+    /** buildCardBrowser - a table of every card in the Deck, which can be edited in place. Rows have a fixed
+     * height and show only the first line of long texts, so the table never measures or lays out text it does
+     * not show. */
+    private void buildCardBrowser() {
+        cardTableModel = new CardTableModel(deck, (index, question, answer) -> {
+            deck.checkpoint();
+            deck.editQuizCard(index, question.isEmpty() ? " " : question, answer.isEmpty() ? " " : answer);
+            markChanged();
+            runSearch();
+        });
+        cardTable = new JTable(cardTableModel);
+        cardTable.setFont(FontConstants.labelFont);
+        cardTable.setRowHeight(cardTable.getFontMetrics(FontConstants.labelFont).getHeight() + 4);
+        cardTable.setFillsViewportHeight(true);
+        cardTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        cardTable.putClientProperty("terminateEditOnFocusLost", Boolean.TRUE);
+        cardTable.setDefaultRenderer(String.class, new DefaultTableCellRenderer() {
+            @Override
+            protected void setValue(Object value) {
+                String text = (String) value;
+                int end = Math.min(text.length(), MAXIMUM_CELL_TEXT);
+                int newline = text.indexOf('\n');
+                if(newline >= 0 && newline < end){
+                    end = newline;
+                }
+                super.setValue(end < text.length() ? text.substring(0, end) + "\u2026" : text);
+            }
+        });
+        cardTable.setDefaultEditor(String.class, new CardTextEditor());
+        cardTable.getColumnModel().getColumn(CardTableModel.NUMBER).setMaxWidth(
+                cardTable.getFontMetrics(FontConstants.labelFont).stringWidth("00000000"));
+        cardTable.setPreferredScrollableViewportSize(new Dimension(400, VISIBLE_CARD_ROWS * cardTable.getRowHeight()));
+
+        JLabel cardsLabel = new JLabel("Cards:");
+        buildLabel(cardsLabel);
+        JScrollPane cardPane = new JScrollPane(cardTable);
+        cardPane.setAlignmentX(Component.LEFT_ALIGNMENT);
+        panel.add(cardPane);
+    }
+
+    /** showCard - selects a card in the card browser and scrolls to it. */
+    private void showCard(int index) {
+        cardTable.getSelectionModel().setSelectionInterval(index, index);
+        cardTable.scrollRectToVisible(cardTable.getCellRect(index, 0, true));
+    }
+
+    /** deckChanged - shows the cards of the Deck again after more than a single card changed. */
+    private void deckChanged() {
+        cardTableModel.setDeck(deck);
+        if(!deck.hasIndexes()){
+            indexInBackground(null);
+        }
+        runSearch();
+    }
+
+    /** indexInBackground - rebuilds the indexes of the Deck that a change dropped (see Deck.hasIndexes) on the
+     * DeckIOService, so that the event thread never indexes a whole deck, then runs afterIndexed (if any). */
+    private void indexInBackground(Runnable afterIndexed){
+        if(indexingDeck != deck){
+            indexingDeck = deck;
+            afterIndexing = new ArrayList<>();
+            startIndexing(deck, afterIndexing);
+        }
+        if(afterIndexed != null){
+            afterIndexing.add(afterIndexed);
+        }
+    }
+
+    private void startIndexing(Deck indexedDeck, List<Runnable> pending){
+        runInBackground("Indexing cards", 0, indexedDeck.prepareIndexes(),
+                indexes -> {
+                    if(deck == indexedDeck && !indexedDeck.installIndexes(indexes)){
+                        startIndexing(indexedDeck, pending); // the cards changed while they were being indexed
+                        return;
+                    }
+                    if(indexingDeck == indexedDeck){
+                        indexingDeck = null;
+                    }
+                    if(deck == indexedDeck){
+                        runSearch();
+                        pending.forEach(Runnable::run);
+                    }
+                },
+                () -> {
+                    if(indexingDeck == indexedDeck){
+                        indexingDeck = null;
+                    }
+                });
+    }
+
+    /** startShuffle - shuffles the cards of shuffledDeck on the DeckIOService, which only moves their indexes, and
+     * puts them in place on the event thread. */
+    private void startShuffle(Deck shuffledDeck){
+        runInBackground("Shuffling deck", 0, shuffledDeck.prepareShuffle(),
+                shuffle -> {
+                    if(deck != shuffledDeck){
+                        return;
+                    }
+                    if(!shuffledDeck.installShuffle(shuffle)){
+                        startShuffle(shuffledDeck); // the cards changed while they were being shuffled
+                        return;
+                    }
+                    markChanged();
+                    deckChanged();
+                },
+                null);
+    }
+
+    private void buildProgressPanel() {
+        progressBar = new JProgressBar();
+        progressBar.setStringPainted(true);
+        cancelButton = new JButton("Cancel");
+        cancelButton.addActionListener(ev -> {
+            if(currentTask != null && currentTask.isCancellable()){
+                currentTask.cancel(true);
+            }
+        });
+        progressPanel = new JPanel(new BorderLayout(5, 0));
+        progressPanel.setBorder(BorderFactory.createEmptyBorder(5, 0, 5, 0));
+        progressPanel.add(BorderLayout.CENTER, progressBar);
+        progressPanel.add(BorderLayout.EAST, cancelButton);
+        progressPanel.setAlignmentX(Component.LEFT_ALIGNMENT);
+        progressPanel.setVisible(false);
+        panel.add(progressPanel);
+    }
+
     private void buildContentPane() {
         panel = new JPanel();
         panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
@@ -85,19 +300,130 @@ public class QuizCardBuilder {
         JMenuBar jMenuBar = new JMenuBar();
         JMenu file = new JMenu("File");
         file.add(Open);
+        file.add(OpenLibrary);
+        file.add(ImportCsv);
         file.add(Save);
         file.add(SaveAs);
         file.add(Exit);
 
+        JMenu edit = new JMenu("Edit");
+        edit.add(Undo);
+        edit.add(Redo);
+        edit.add(AttachImage);
+
         JMenu card = new JMenu("Deck");
         card.add(ShuffleDeck);
+        card.add(ShufflePlayOrder);
+        card.add(FindDuplicates);
         card.add(Play);
+        card.add(buildSchedulingMenu());
+        JCheckBoxMenuItem compactStorage = new JCheckBoxMenuItem("Compact card storage", isCompactStorage);
+        compactStorage.setToolTipText("Keep the text of decks opened from now on in one block of memory");
+        compactStorage.addActionListener(ev -> isCompactStorage = compactStorage.isSelected());
+        card.add(compactStorage);
 
         jMenuBar.add(file);
+        jMenuBar.add(edit);
         jMenuBar.add(card);
         frame.setJMenuBar(jMenuBar);
     }
 
+    /** buildSchedulingMenu - lets the user pick the algorithm the next test is scheduled with. */
+    private JMenu buildSchedulingMenu() {
+        JMenu scheduling = new JMenu("Scheduling");
+        ButtonGroup group = new ButtonGroup();
+        for(Scheduler.Algorithm choice : Scheduler.Algorithm.values()){
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(choice.getDisplayName(), choice == algorithm);
+            item.addActionListener(ev -> algorithm = choice);
+            group.add(item);
+            scheduling.add(item);
+        }
+        return scheduling;
+    }
+
+    /** buildSearchPanel - a search box that queries the Deck's index as the user types. The last word is matched
+     * as a prefix, so results appear before it is finished. */
+    private void buildSearchPanel() {
+        searchField = new JTextField();
+        searchField.setFont(FontConstants.textAreaFont);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                runSearch();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                runSearch();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                runSearch();
+            }
+        });
+        searchCountLabel = new JLabel();
+        JPanel searchPanel = new JPanel(new BorderLayout(5, 0));
+        JLabel searchLabel = new JLabel("Search:");
+        searchLabel.setFont(FontConstants.labelFont);
+        searchPanel.add(BorderLayout.WEST, searchLabel);
+        searchPanel.add(BorderLayout.CENTER, searchField);
+        searchPanel.add(BorderLayout.EAST, searchCountLabel);
+        searchPanel.setAlignmentX(Component.LEFT_ALIGNMENT);
+        searchPanel.setMaximumSize(new Dimension(Integer.MAX_VALUE, searchField.getPreferredSize().height));
+        panel.add(searchPanel);
+
+        JList<Integer> resultList = new JList<>(searchResults);
+        resultList.setVisibleRowCount(5);
+        resultList.addListSelectionListener(ev -> {
+            if(!ev.getValueIsAdjusting() && resultList.getSelectedValue() != null){
+                showCard(resultList.getSelectedValue());
+            }
+        });
+        resultList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                QuizCard quizCard = deck.getQuizCardList().get((Integer) value);
+                String text = quizCard.getQuestion() + "  \u2014  " + quizCard.getAnswer();
+                if(library != null){
+                    text = "[" + library.getDeckName((Integer) value) + "] " + text;
+                }
+                return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+            }
+        });
+        searchResultPane = new JScrollPane(resultList);
+        searchResultPane.setAlignmentX(Component.LEFT_ALIGNMENT);
+        searchResultPane.setVisible(false);
+        panel.add(searchResultPane);
+    }
+
+    private void runSearch() {
+        String query = searchField.getText();
+        searchResults.clear();
+        if(query.trim().isEmpty()){
+            searchCountLabel.setText("");
+            searchResultPane.setVisible(false);
+        }else if(!deck.hasIndexes()){
+            searchCountLabel.setText("Indexing...");
+            searchResultPane.setVisible(false);
+            indexInBackground(null); // which searches again once it is done
+        }else{
+            boolean isInsidePhrase = query.chars().filter(c -> c == '"').count() % 2 == 1;
+            char last = query.charAt(query.length() - 1);
+            if(!isInsidePhrase && !Character.isWhitespace(last) && last != '"' && last != '*'){
+                query += "*";
+            }
+            int[] cards = deck.search(query);
+            for(int i = 0; i < cards.length && i < MAXIMUM_SEARCH_RESULTS; i++){
+                searchResults.addElement(cards[i]);
+            }
+            searchCountLabel.setText(cards.length + " found");
+            searchResultPane.setVisible(true);
+        }
+        panel.revalidate();
+    }
+
     private void buildTextArea(JTextArea jTextArea) {
         jTextArea.setWrapStyleWord(true);
         jTextArea.setLineWrap(true);
@@ -105,7 +431,7 @@ public class QuizCardBuilder {
         jTextArea.addKeyListener(new KeyAdapter() {
             @Override
             public void keyTyped(KeyEvent e) {
-                deck.setIsModified(true);
+                markChanged();
             }
         });
         JScrollPane jsp = new JScrollPane(jTextArea);
@@ -119,26 +445,52 @@ public class QuizCardBuilder {
             // Automatically closes the program if there's nothing to be saved.
             if(deck.getQuizCardList().size() == 0 && getQuestionText().getText().length() == 0
                     && getAnswerText().getText().length() == 0) {
-                System.exit(0);
+                autosave.discard(() -> exitWhenIdle(false));
             }else {
                 int optionChosen = JOptionPane.showConfirmDialog(frame, "Do you want to save this deck?", "Save",
                         JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE);
                 if (optionChosen == JOptionPane.YES_OPTION) {
-                    save();
-                }
-                if (optionChosen != JOptionPane.CANCEL_OPTION) {
-                    System.exit(0);
+                    save(() -> exitWhenIdle(true));
+                }else if (optionChosen != JOptionPane.CANCEL_OPTION) {
+                    autosave.discard(() -> exitWhenIdle(false));
                 }
             }
         }else{
-            System.exit(0);
+            exitWhenIdle(true);
         }
     }
 
+    /** exitWhenIdle - exits once every operation queued on the DeckIOService so far has finished, and any
+     * compaction of a deck file with it, so that quitting never cuts short a save or the writing of a test's
+     * results. The I/O thread is a daemon and would be stopped half way otherwise. If isSaveRequired and a save
+     * still queued failed, the deck is modified again and close asks once more instead. */
+    private void exitWhenIdle(boolean isSaveRequired){
+        runInBackground("Finishing before exit", 0, new DeckOperation<Void>() {
+                    @Override
+                    public Void run(DeckProgress progress) throws IOException {
+                        DeckJournal.awaitCompactions();
+                        return null;
+                    }
+
+                    @Override
+                    public boolean isCancellable() {
+                        return false;
+                    }
+                },
+                result -> {
+                    if(isSaveRequired && deck.getIsModified()){
+                        close();
+                    }else{
+                        System.exit(0);
+                    }
+                },
+                null);
+    }
+
     /** createQuizCardPlayer - safely creates an instance of QuizCardPlayer, whilst allowing QuizCardPlayer to
      * have a callback */
     private void createQuizCardPlayer(){
-        quizCardPlayer = new QuizCardPlayer(deck);
+        quizCardPlayer = new QuizCardPlayer(deck, algorithm);
         quizCardPlayer.registerQuizCardBuilder(this);   // registers the callback
     }
 
@@ -148,53 +500,353 @@ public class QuizCardBuilder {
         frame.setVisible(true);
     }
 
-    /** openFile - opens a saved Deck */
-    private void openFile(){
+    /** markChanged - marks the Deck as modified and lets the autosave know. */
+    private void markChanged(){
+        deck.setIsModified(true);
+        autosave.changed();
+    }
+
+    /** followWithAutosave - starts the autosave of the current Deck, first offering to restore the changes a
+     * crash left unsaved. */
+    private void followWithAutosave(){
+        autosave.attach(deck);
+        autosave.offerRecovery(
+                () -> JOptionPane.showConfirmDialog(frame, "Changes to " + deck.getFileName() + " were not saved " +
+                                "the last time Quiz card closed. Do you want to restore them?", "Restore",
+                        JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE) == JOptionPane.YES_OPTION,
+                (question, answer) -> {
+                    setQuestionText(question);
+                    setAnswerText(answer);
+                    deckChanged();
+                });
+    }
+
+    /** offerToSave - asks whether to save a modified Deck before another one replaces it. False if the user
+     * cancelled. */
+    private boolean offerToSave(){
         int optionChosen = JOptionPane.YES_OPTION;
         if(deck.getIsModified()){
             optionChosen = JOptionPane.showConfirmDialog(frame, "Do you want to save this deck before " +
                             "opening another?", "Save", JOptionPane.YES_NO_CANCEL_OPTION,JOptionPane.QUESTION_MESSAGE);
             if(optionChosen == JOptionPane.YES_OPTION){
-                save();
+                save(null);
             }
         }
+        return optionChosen != JOptionPane.CANCEL_OPTION;
+    }
 
-        if(optionChosen != JOptionPane.CANCEL_OPTION && fileChooser.showOpenDialog(frame) == JFileChooser.APPROVE_OPTION){
-            deck = new Deck();
-            deck.readFile(fileChooser.getSelectedFile().getAbsolutePath());
-            setTitle(deck.getFileName());
-            setQuestionText(null);
-            setAnswerText(null);
+    /** openFile - opens a saved Deck in the background, then runs afterOpen (if any) on the event thread */
+    private void openFile(Runnable afterOpen){
+        if(offerToSave() && fileChooser.showOpenDialog(frame) == JFileChooser.APPROVE_OPTION){
+            File selectedFile = fileChooser.getSelectedFile();
+            runInBackground("Opening " + selectedFile.getName(), selectedFile.length(),
+                    progress -> {
+                        Deck openedDeck = new Deck();
+                        openedDeck.setIsCompact(isCompactStorage);
+                        openedDeck.readFile(selectedFile.getAbsolutePath(), progress);
+                        openedDeck.buildSearchIndex();
+                        openedDeck.buildDuplicateIndex();
+                        return openedDeck;
+                    },
+                    openedDeck -> {
+                        library = null;
+                        showOpenedDeck(openedDeck);
+                        if(afterOpen != null){
+                            afterOpen.run();
+                        }
+                    },
+                    null);
         }
     }
 
-    /** save - Saves the current Deck under the same name, if previously saved. If the Deck is new,
-     * then saveAs is invoked */
-    private void save(){
-        if(deck.getFileName().equals("Untitled")){
-            saveAs();
-        }else{
-            if(getQuestionText().getText().length() > 0){
-                addCard();
+    /** openLibrary - opens every deck in a folder as one Deck, loading the files in parallel. The library has no
+     * file of its own, so saving it asks for a new one. */
+    private void openLibrary(){
+        if(libraryChooser == null){
+            libraryChooser = new JFileChooser();
+            libraryChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        }
+        if(offerToSave() && libraryChooser.showOpenDialog(frame) == JFileChooser.APPROVE_OPTION){
+            Path directory = libraryChooser.getSelectedFile().toPath();
+            runInBackground("Opening library " + directory.getFileName(), 0,
+                    progress -> {
+                        DeckLibrary openedLibrary = DeckLibrary.load(directory, progress);
+                        openedLibrary.getDeck().buildSearchIndex();
+                        openedLibrary.getDeck().buildDuplicateIndex();
+                        return openedLibrary;
+                    },
+                    openedLibrary -> {
+                        library = openedLibrary;
+                        showOpenedDeck(openedLibrary.getDeck());
+                    },
+                    null);
+        }
+    }
+
+    /** importCsv - reads the cards of a CSV or TSV file in the background, taking the question and the answer from
+     * the columns the user picks. The imported deck is new, so saving it asks for a file. */
+    private void importCsv(){
+        if(importChooser == null){
+            importChooser = new JFileChooser();
+            importChooser.setFileFilter(new FileNameExtensionFilter("CSV and TSV files", "csv", "tsv", "tab", "txt"));
+        }
+        if(!offerToSave() || importChooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION){
+            return;
+        }
+        Path selectedFile = importChooser.getSelectedFile().toPath();
+        JCheckBox hasHeader = new JCheckBox("The first row holds the column titles");
+        JTextField questionColumn = new JTextField("1", 12);
+        JTextField answerColumn = new JTextField("2", 12);
+        JPanel mapping = new JPanel(new GridLayout(0, 1));
+        mapping.add(hasHeader);
+        mapping.add(new JLabel("Question column (number or title):"));
+        mapping.add(questionColumn);
+        mapping.add(new JLabel("Answer column (number or title):"));
+        mapping.add(answerColumn);
+        if(JOptionPane.showConfirmDialog(frame, mapping, "Import " + selectedFile.getFileName(),
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION){
+            return;
+        }
+        CsvImporter importer = CsvImporter.forFile(selectedFile, hasHeader.isSelected(), questionColumn.getText(),
+                answerColumn.getText());
+        runInBackground("Importing " + selectedFile.getFileName(), selectedFile.toFile().length(),
+                progress -> {
+                    Deck importedDeck = importer.read(selectedFile, progress);
+                    importedDeck.setIsModified(true);
+                    importedDeck.buildSearchIndex();
+                    importedDeck.buildDuplicateIndex();
+                    return importedDeck;
+                },
+                importedDeck -> {
+                    library = null;
+                    showOpenedDeck(importedDeck);
+                    if(importedDeck.getNumMalformed() > 0){
+                        JOptionPane.showMessageDialog(frame, "The rows that could not be read were written to " +
+                                CsvImporter.rejectPath(selectedFile), "Import", JOptionPane.INFORMATION_MESSAGE);
+                    }
+                },
+                null);
+    }
+
+    /** attachImage - stores an image file with the deck's images in the background and puts a reference to it at
+     * the caret of the answer, if that is being edited, or else of the question. The card shows the image once it
+     * is added. */
+    private void attachImage(){
+        JTextArea target = KeyboardFocusManager.getCurrentKeyboardFocusManager().getPermanentFocusOwner() == answerText
+                ? answerText : questionText;
+        if(imageChooser == null){
+            imageChooser = new JFileChooser();
+            imageChooser.setFileFilter(new FileNameExtensionFilter("Images", ImageIO.getReaderFileSuffixes()));
+        }
+        if(imageChooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION){
+            return;
+        }
+        Path selectedFile = imageChooser.getSelectedFile().toPath();
+        Deck attachedDeck = deck;
+        ImageStore images = deck.getImages();
+        runInBackground("Attaching " + selectedFile.getFileName(), 0,
+                progress -> {
+                    byte[] image = Files.readAllBytes(selectedFile);
+                    if(!ImageCache.isImage(image)){
+                        throw new IOException(selectedFile.getFileName() + " is not an image that can be shown");
+                    }
+                    return images.add(image);
+                },
+                id -> {
+                    if(deck == attachedDeck){
+                        target.insert(ImageStore.reference(id) + "\n", target.getCaretPosition());
+                        target.requestFocusInWindow();
+                    }
+                },
+                null);
+    }
+
+    private void showOpenedDeck(Deck openedDeck){
+        deck = openedDeck;
+        createQuizCardPlayer();
+        deckChanged();
+        setTitle(deck.getFileName());
+        setQuestionText(null);
+        setAnswerText(null);
+        followWithAutosave();
+        if(deck.getNumMalformed() > 0){
+            JOptionPane.showMessageDialog(frame, deck.getNumMalformed() + " malformed card(s) " +
+                    "could not be read and were skipped.", "Open", JOptionPane.WARNING_MESSAGE);
+        }
+        if(deck.getNumDuplicates() > 0){
+            JOptionPane.showMessageDialog(frame, deck.getNumDuplicates() + " card(s) repeat the question of an " +
+                    "earlier card, exactly or nearly. Deck > Find duplicates lists them.", "Open",
+                    JOptionPane.INFORMATION_MESSAGE);
+        }
+    }
+
+    /** findDuplicates - lists every card whose question repeats an earlier card's, found in the background on a
+     * snapshot of the deck. */
+    private void findDuplicates(){
+        CardVector snapshot = deck.snapshot();
+        runInBackground("Finding duplicates", 0,
+                progress -> {
+                    StringBuilder report = new StringBuilder();
+                    int[] found = new int[1];
+                    DuplicateIndex.build(snapshot, new DuplicateIndex.Handler() {
+                        @Override
+                        public void exact(int card, int original) {
+                            report(card, "repeats card " + (original + 1));
+                        }
+
+                        @Override
+                        public void similar(int card, int original, double similarity) {
+                            report(card, "is about " + Math.round(similarity * 100) + "% like card " + (original + 1));
+                        }
+
+                        private void report(int card, String text) {
+                            if(++found[0] <= MAXIMUM_REPORTED_DUPLICATES){
+                                report.append("Card ").append(card + 1).append(' ').append(text).append(": ")
+                                        .append(snapshot.get(card).getQuestion().split("\n", 2)[0]).append('\n');
+                            }
+                        }
+                    });
+                    if(found[0] > MAXIMUM_REPORTED_DUPLICATES){
+                        report.append("... and ").append(found[0] - MAXIMUM_REPORTED_DUPLICATES).append(" more\n");
+                    }
+                    return found[0] == 0 ? "No card repeats another." : report.toString();
+                },
+                report -> {
+                    JTextArea reportText = new JTextArea(report, 20, 60);
+                    reportText.setEditable(false);
+                    JOptionPane.showMessageDialog(frame, new JScrollPane(reportText), "Duplicates",
+                            JOptionPane.INFORMATION_MESSAGE);
+                },
+                null);
+    }
+
+    /** runInBackground - hands an operation to the DeckIOService and shows its progress until every queued
+     * operation has finished. onFinished and onFailed (either may be null) are run on the event thread. */
+    private <T> void runInBackground(String description, long totalBytes, DeckOperation<T> operation,
+                                     Consumer<T> onFinished, Runnable onFailed){
+        progressBar.setIndeterminate(totalBytes <= 0);
+        progressBar.setValue(0);
+        progressBar.setString(description);
+        cancelButton.setEnabled(operation.isCancellable());
+        progressPanel.setVisible(true);
+        panel.revalidate();
+        tasksRunning++;
+        currentTask = deckIOService.submit(operation, new DeckIOService.Listener<T>() {
+            @Override
+            public void progress(long bytes, long cards) {
+                if(totalBytes > 0){
+                    progressBar.setValue((int) (bytes * 100 / totalBytes));
+                }
+                progressBar.setString(description + " - " + cards + " cards");
+            }
+
+            @Override
+            public void finished(T result) {
+                taskEnded();
+                if(onFinished != null){
+                    onFinished.accept(result);
+                }
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                taskEnded();
+                ex.printStackTrace();
+                if(onFailed != null){
+                    onFailed.run();
+                }
+                JOptionPane.showMessageDialog(frame, description + " failed:\n" + ex.getMessage(), "Error",
+                        JOptionPane.ERROR_MESSAGE);
             }
-            deck.save(deck.getFileLocation());
-            deck.setIsModified(false);
+
+            @Override
+            public void cancelled() {
+                taskEnded();
+                if(onFailed != null){
+                    onFailed.run();
+                }
+            }
+        });
+    }
+
+    /** testStarting - opens what a test records to on the DeckIOService, behind the writing of the previous test's
+     * results, and hands it to onOpened on the event thread. If that fails, the test does not start. */
+    <T> void testStarting(Deck testedDeck, DeckOperation<T> open, Consumer<T> onOpened){
+        runInBackground("Opening test", 0, open, onOpened, () -> {
+            testedDeck.setIsTestRunning(false);
+            setTextAreaEditability(true);
+        });
+    }
+
+    /** testEnded - runs what the player hands over when a test ends, which writes what the test recorded, on the
+     * DeckIOService. The deck can only be edited and tested again once that is done, so the next test never reads
+     * a schedule that is still being written. */
+    void testEnded(Deck testedDeck, DeckOperation<Void> saveResults){
+        Runnable ended = () -> {
+            testedDeck.setIsTestRunning(false);
+            setTextAreaEditability(true);
+            getQuestionText().requestFocusInWindow();
+        };
+        runInBackground("Saving test results", 0, saveResults, result -> ended.run(), ended);
+    }
+
+    private void taskEnded(){
+        if(--tasksRunning == 0){
+            currentTask = null;
+            progressPanel.setVisible(false);
+            panel.revalidate();
+        }
+    }
+
+    /** save - Saves the current Deck under the same name, if previously saved. If the Deck has no file yet (it is
+     * new, or a library), then saveAs is invoked. afterSave (if any) runs once the save has succeeded */
+    private void save(Runnable afterSave){
+        if(!deck.hasFileLocation()){
+            saveAs(afterSave);
+        }else if(getQuestionText().getText().length() > 0){
+            String fileLocation = deck.getFileLocation();
+            addCard(() -> startSave(fileLocation, afterSave));
+        }else{
+            startSave(deck.getFileLocation(), afterSave);
         }
     }
 
     /** saveAs - User gets to choose the filename that stores the current Deck */
-    private void saveAs(){
+    private void saveAs(Runnable afterSave){
         if(fileChooser.showSaveDialog(frame) == JFileChooser.APPROVE_OPTION) {
+            String fileLocation = fileChooser.getSelectedFile().getAbsolutePath();
             if(getQuestionText().getText().length() > 0){
-                addCard();
+                addCard(() -> startSave(fileLocation, afterSave));
+            }else{
+                startSave(fileLocation, afterSave);
             }
-            deck.save(fileChooser.getSelectedFile().getAbsolutePath());
             deck.setFileName(fileChooser.getSelectedFile().getName());
             setTitle(deck.getFileName());
-            deck.setIsModified(false);
         }
     }
 
+    /** startSave - takes a snapshot of the Deck and writes it in the background. The Deck counts as modified until
+     * the save has gone through, and after it too if it was changed meanwhile. The images the card being written
+     * attaches are kept with the deck's. */
+    private void startSave(String fileLocation, Runnable afterSave){
+        Deck savedDeck = deck;
+        CardVector snapshot = savedDeck.snapshot();
+        String draft = getQuestionText().getText() + "\n" + getAnswerText().getText();
+        DeckOperation<Void> operation = autosave.wrapSave(savedDeck.prepareSave(fileLocation, draft),
+                Paths.get(fileLocation), snapshot);
+        long modifications = savedDeck.getModifications();
+        runInBackground("Saving " + new File(fileLocation).getName(), 0, operation,
+                result -> {
+                    if(savedDeck.getModifications() == modifications){
+                        savedDeck.setIsModified(false);
+                    }
+                    if(afterSave != null){
+                        afterSave.run();
+                    }
+                },
+                autosave::saveFailed);
+    }
+
 
     // GETTERS
     private JTextArea getAnswerText() {
@@ -215,6 +867,10 @@ public class QuizCardBuilder {
         questionText.setEditable(isEditable);
         answerText.setEditable(isEditable);
         button.setEnabled(isEditable);
+        if(!isEditable && cardTable.isEditing()){
+            cardTable.getCellEditor().stopCellEditing();
+        }
+        cardTableModel.setIsEditable(isEditable);
     }
 
     private void setTitle(String newTitle){
@@ -228,6 +884,41 @@ public class QuizCardBuilder {
 
 
 
+    /** CardTextEditor - edits a question or answer in place. The text can span several lines, so Enter starts a
+     * new line and Ctrl+Enter, or leaving the cell, finishes the edit. */
+    private static class CardTextEditor extends AbstractCellEditor implements TableCellEditor {
+        private static final long serialVersionUID = 1L;
+
+        private final JTextArea textArea = new JTextArea();
+
+        CardTextEditor() {
+            textArea.setFont(FontConstants.labelFont);
+            textArea.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, InputEvent.CTRL_DOWN_MASK),
+                    "finishEdit");
+            textArea.getActionMap().put("finishEdit", new AbstractAction() {
+                @Override
+                public void actionPerformed(ActionEvent ev) {
+                    stopCellEditing();
+                }
+            });
+        }
+
+        @Override
+        public Component getTableCellEditorComponent(JTable table, Object value, boolean isSelected, int row,
+                                                     int column) {
+            textArea.setText((String) value);
+            textArea.setCaretPosition(0);
+            return new JScrollPane(textArea, ScrollPaneConstants.VERTICAL_SCROLLBAR_NEVER,
+                    ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+        }
+
+        @Override
+        public Object getCellEditorValue() {
+            return textArea.getText();
+        }
+    }
+
+
     // ACTIONS
     private Action Exit = new AbstractAction("Quit"){
         @Override
@@ -239,7 +930,28 @@ public class QuizCardBuilder {
     private Action Open = new AbstractAction("Open"){
         @Override
         public void actionPerformed(ActionEvent ev){
-            openFile();
+            openFile(null);
+        }
+    };
+
+    private Action OpenLibrary = new AbstractAction("Open library..."){
+        @Override
+        public void actionPerformed(ActionEvent ev){
+            openLibrary();
+        }
+    };
+
+    private Action ImportCsv = new AbstractAction("Import CSV/TSV..."){
+        @Override
+        public void actionPerformed(ActionEvent ev){
+            importCsv();
+        }
+    };
+
+    private Action AttachImage = new AbstractAction("Attach image..."){
+        @Override
+        public void actionPerformed(ActionEvent ev){
+            attachImage();
         }
     };
 
@@ -248,9 +960,13 @@ public class QuizCardBuilder {
         public void actionPerformed(ActionEvent ev){
             // Allows the user to open a file if no file is already open
             if(deck.getQuizCardList().size() == 0) {
-                openFile();
+                openFile(this::play);
+            }else{
+                play();
             }
+        }
 
+        private void play(){
             // Prevents window from popping up if there's no QuizCards to use
             if(deck.getQuizCardList().size() > 0) {
                 if (deck.getIsTestRunning()) {
@@ -266,24 +982,70 @@ public class QuizCardBuilder {
         }
     };
 
+    private Action Undo = new AbstractAction("Undo"){
+        {
+            putValue(ACCELERATOR_KEY, KeyStroke.getKeyStroke(KeyEvent.VK_Z,
+                    Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()));
+        }
+
+        @Override
+        public void actionPerformed(ActionEvent ev){
+            if(deck.canUndo() && !deck.getIsTestRunning()){
+                deck.undo();
+                autosave.changed();
+                deckChanged();
+            }
+        }
+    };
+
+    private Action Redo = new AbstractAction("Redo"){
+        {
+            putValue(ACCELERATOR_KEY, KeyStroke.getKeyStroke(KeyEvent.VK_Y,
+                    Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()));
+        }
+
+        @Override
+        public void actionPerformed(ActionEvent ev){
+            if(deck.canRedo() && !deck.getIsTestRunning()){
+                deck.redo();
+                autosave.changed();
+                deckChanged();
+            }
+        }
+    };
+
     private Action Save = new AbstractAction("Save"){
         @Override
         public void actionPerformed(ActionEvent ev){
-            save();
+            save(null);
         }
     };
 
     private Action SaveAs = new AbstractAction("Save as...") {
         @Override
         public void actionPerformed(ActionEvent e) {
-            saveAs();
+            saveAs(null);
+        }
+    };
+
+    private Action FindDuplicates = new AbstractAction("Find duplicates"){
+        @Override
+        public void actionPerformed(ActionEvent ev){
+            findDuplicates();
+        }
+    };
+
+    private Action ShufflePlayOrder = new AbstractAction("Shuffle play order"){
+        @Override
+        public void actionPerformed(ActionEvent ev){
+            deck.shufflePlayOrder();
         }
     };
 
     private Action ShuffleDeck = new AbstractAction("Shuffle deck"){
         @Override
         public void actionPerformed(ActionEvent ev){
-            deck.shuffle();
+            startShuffle(deck);
         }
     };
 }
\ No newline at end of file
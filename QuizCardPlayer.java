@@ -7,42 +7,128 @@ package quizcard;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import javax.swing.*;
 
 public class QuizCardPlayer {
     private static final Dimension FRAME_SIZE = new Dimension(300, 300);
     private static final Dimension MINIMUM_FRAME_SIZE = new Dimension(200, 200);
 
-    private int deckIndex;
+    private int currentCard;
     private boolean isAnswerShown;
+    private boolean isFinished;
     private Deck deck;
+    private List<QuizCard> quizCards;
     private JButton correctButton, showAnswerButton, wrongButton;
     private JFrame frame;
     private JLabel label;
     private JPanel contentPane;
-    private JTextArea textArea;
+    private JPanel textPanel;
+    private CardLayout textLayout;
+    private final JTextArea[] textAreas = new JTextArea[2];
+    private final JScrollPane[] scrollPanes = new JScrollPane[2];
+    private int shown;
+    private long spareKey = -1;
+    private long wantedKey = -1;
+    private CardPrefetcher prefetcher;
+    private JPanel cardPanel;
+    private JLabel imageLabel;
+    private ImageCache imageCache;
+    private int imageCard = -1;
+    private boolean isImageOfAnswer;
 
     private QuizCardBuilder quizCardBuilder;
+    private final Scheduler.Algorithm algorithm;
+    private Scheduler scheduler;
+    private CardStatistics statistics;
+    private ReviewHistory history;
+    private long[] ids;
+    private Path deckPath;
+    private long questionShownAt;
+    private int responseMillis;
 
 
-    public QuizCardPlayer(Deck deck){
+    public QuizCardPlayer(Deck deck, Scheduler.Algorithm algorithm){
         this.deck = deck;
+        this.algorithm = algorithm;
     }
 
+    /** build - opens the player on the first card due. If none is due, the results are shown straight away. The
+     * test runs on a snapshot of the deck, so it is unaffected by any edit made meanwhile. Giving every card its id
+     * and opening the schedule, the statistics, the history and the images take time in proportion to the deck,
+     * so the builder does that on its DeckIOService and the frame is built once they are open. Called on the event
+     * thread. */
     void build(){
-        SwingUtilities.invokeLater(
-                () -> {
-                    buildFrame();
-                    buildContentPane();
-                    buildLabel();
-                    buildTextArea();
-                    buildButtonPanel();
-                    displayFrame();
-                    showAnswerButton.requestFocusInWindow();
-                }
-        );
+        quizCards = deck.snapshot();
+        deckPath = deck.hasFileLocation() ? Path.of(deck.getFileLocation()) : null;
+        List<QuizCard> testedCards = quizCards;
+        Path testedPath = deckPath;
+        Permutation playOrder = deck.getPlayOrder();
+        ImageStore images = deck.getImages();
+        quizCardBuilder.testStarting(deck, new DeckOperation<Opened>() {
+            @Override
+            public Opened run(DeckProgress progress) {
+                long[] ids = DeckPatch.cardIds(testedCards);
+                return new Opened(ids, Scheduler.open(algorithm, testedPath, ids, playOrder),
+                        openStatistics(testedPath, ids), openHistory(testedPath), openImages(images));
+            }
+
+            @Override
+            public boolean isCancellable() {
+                return false; // the statistics and the history would be left open
+            }
+        }, this::start);
+    }
+
+    /** start - shows the first card, once what the test records to has been opened. */
+    private void start(Opened opened){
+        ids = opened.ids;
+        scheduler = opened.scheduler;
+        statistics = opened.statistics;
+        history = opened.history;
+        imageCache = opened.imageCache;
+        prefetcher = new CardPrefetcher(quizCards);
+        currentCard = scheduler.next(System.currentTimeMillis());
+        buildFrame();
+        buildContentPane();
+        buildLabel();
+        buildTextArea();
+        buildButtonPanel();
+        displayFrame();
+        showImage(currentCard, false);
+        questionShownAt = System.nanoTime();
+        showAnswerButton.requestFocusInWindow();
+        if(currentCard < 0){
+            new ButtonListener().showResults(DeckMetrics.beginTransition());
+        }else{
+            SwingUtilities.invokeLater(this::prepareAhead);
+        }
+    }
+
+    /** Opened - what a test records to, opened off the event thread. */
+    private static final class Opened {
+        final long[] ids;
+        final Scheduler scheduler;
+        final CardStatistics statistics;
+        final ReviewHistory history;
+        final ImageCache imageCache;
+
+        Opened(long[] ids, Scheduler scheduler, CardStatistics statistics, ReviewHistory history,
+               ImageCache imageCache){
+            this.ids = ids;
+            this.scheduler = scheduler;
+            this.statistics = statistics;
+            this.history = history;
+            this.imageCache = imageCache;
+        }
     }
 
     private void buildButtonPanel(){
@@ -90,26 +176,231 @@ public class QuizCardPlayer {
         contentPane.add(BorderLayout.NORTH, label);
     }
 
+    /** buildTextArea - two text areas on top of each other, of which one is shown. The other is the spare, in which
+     * the question or answer most likely to come next is laid out ahead of time. Above them is the image of the card,
+     * if it has one, which is fitted to the window again whenever the window is resized. */
     private void buildTextArea(){
-        textArea = new JTextArea();
-        textArea.setEditable(false);
-        textArea.setLineWrap(true);
-        textArea.setWrapStyleWord(true);
-        textArea.setText(deck.getQuizCardList().get(0).getQuestion());
-        textArea.setFont(FontConstants.textAreaFont);
-        JScrollPane jsp = new JScrollPane(textArea);
-        jsp.setAlignmentX(Component.LEFT_ALIGNMENT);
-        contentPane.add(BorderLayout.CENTER, jsp);
+        textLayout = new CardLayout();
+        textPanel = new JPanel(textLayout);
+        textPanel.setAlignmentX(Component.LEFT_ALIGNMENT);
+        for(int i = 0; i < textAreas.length; i++){
+            textAreas[i] = new JTextArea();
+            textAreas[i].setEditable(false);
+            textAreas[i].setLineWrap(true);
+            textAreas[i].setWrapStyleWord(true);
+            textAreas[i].setFont(FontConstants.textAreaFont);
+            scrollPanes[i] = new JScrollPane(textAreas[i]);
+            textPanel.add(scrollPanes[i], Integer.toString(i));
+        }
+        if(currentCard >= 0){
+            textAreas[shown].setDocument(prefetcher.take(currentCard, false));
+        }
+        imageLabel = new JLabel();
+        imageLabel.setHorizontalAlignment(SwingConstants.CENTER);
+        imageLabel.setVisible(false);
+        cardPanel = new JPanel(new BorderLayout());
+        cardPanel.add(BorderLayout.NORTH, imageLabel);
+        cardPanel.add(BorderLayout.CENTER, textPanel);
+        cardPanel.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                showImage(imageCard, isImageOfAnswer);
+            }
+        });
+        contentPane.add(BorderLayout.CENTER, cardPanel);
+    }
+
+    /** display - shows the question or answer of card. If it is the one laid out in the spare text area, the two
+     * areas are simply flipped; otherwise its Document is put into the spare first and laid out as it is painted. */
+    private void display(int card, boolean isAnswer){
+        int spare = 1 - shown;
+        if(spareKey != CardPrefetcher.key(card, isAnswer)){
+            textAreas[spare].setDocument(prefetcher.take(card, isAnswer));
+            scrollPanes[spare].getViewport().setViewPosition(new Point());
+        }
+        spareKey = -1;
+        wantedKey = -1;
+        textLayout.show(textPanel, Integer.toString(spare));
+        shown = spare;
+        showImage(card, isAnswer);
+    }
+
+    /** showImage - shows above the text the first image the question or answer of card attaches, if any, straight
+     * away when the ImageCache holds it and as soon as it is decoded otherwise. Its room is kept meanwhile, so the
+     * text does not move when it arrives. A card of -1 shows no image. */
+    private void showImage(int card, boolean isAnswer){
+        imageCard = card;
+        isImageOfAnswer = isAnswer;
+        long[] images = imagesOf(card, isAnswer);
+        if(images.length == 0){
+            imageLabel.setIcon(null);
+            imageLabel.setVisible(false);
+            return;
+        }
+        Dimension box = imageBox();
+        imageLabel.setPreferredSize(box);
+        imageLabel.setVisible(true);
+        CompletableFuture<BufferedImage> image = imageCache.get(images[0], box.width, box.height);
+        if(image.isDone()){
+            setImage(image.getNow(null), image.isCompletedExceptionally());
+            return;
+        }
+        imageLabel.setIcon(null);
+        imageLabel.setText(null);
+        image.whenCompleteAsync((decoded, failure) -> {
+            if(imageCard == card && isImageOfAnswer == isAnswer){
+                setImage(decoded, failure != null);
+            }
+        }, SwingUtilities::invokeLater);
+    }
+
+    private void setImage(BufferedImage image, boolean isFailed){
+        imageLabel.setIcon(isFailed ? null : new ImageIcon(image));
+        imageLabel.setText(isFailed ? "(The image could not be shown.)" : null);
+    }
+
+    /** imagesOf - the images the question or answer of card attaches, none if the deck has no images. */
+    private long[] imagesOf(int card, boolean isAnswer){
+        if(card < 0 || imageCache == null){
+            return new long[0];
+        }
+        QuizCard quizCard = quizCards.get(card);
+        return ImageStore.references(isAnswer ? quizCard.getAnswer() : quizCard.getQuestion());
+    }
+
+    /** imageBox - the room given to an image: the width of the card and half its height. */
+    private Dimension imageBox(){
+        return new Dimension(Math.max(1, cardPanel.getWidth()), Math.max(1, cardPanel.getHeight() / 2));
+    }
 
+    private void prefetchImage(int card, boolean isAnswer){
+        long[] images = imagesOf(card, isAnswer);
+        if(images.length > 0){
+            Dimension box = imageBox();
+            imageCache.prefetch(images[0], box.width, box.height);
+        }
+    }
+
+    /** prepareAhead - runs once a card is on screen. Starts building the cards the Scheduler has lined up next and
+     * decoding their images and the answer's, and lays out in the spare text area what the next click will most
+     * likely show: the answer while the question is shown, the next card's question while the answer is. The layout
+     * happens on the event thread, but while the card is being read instead of after the click. */
+    private void prepareAhead(){
+        if(isFinished){
+            return;
+        }
+        int next = -1;
+        for(int card : scheduler.upcoming(CardPrefetcher.LOOK_AHEAD + 1)){
+            if(card != currentCard){
+                prefetcher.prefetch(card);
+                prefetchImage(card, false);
+                prefetchImage(card, true);
+                next = next < 0 ? card : next;
+            }
+        }
+        if(!isAnswerShown){
+            prefetchImage(currentCard, true);
+            prepareSpare(currentCard, true);
+        }else if(next >= 0){
+            prepareSpare(next, false);
+        }
     }
 
+    private void prepareSpare(int card, boolean isAnswer){
+        long key = CardPrefetcher.key(card, isAnswer);
+        wantedKey = key;
+        prefetcher.whenReady(card, isAnswer, document -> {
+            if(wantedKey != key){
+                return;
+            }
+            int spare = 1 - shown;
+            textAreas[spare].setDocument(document);
+            scrollPanes[spare].getViewport().setViewPosition(new Point());
+            scrollPanes[spare].setBounds(scrollPanes[shown].getBounds());
+            scrollPanes[spare].validate();
+            spareKey = key;
+        });
+    }
+
+    /** closeFrame - ends the test. Saving the schedule and forcing the statistics and the history to disk take time
+     * in proportion to the deck, so the builder does it on its DeckIOService. The player never touches the three
+     * again, so they are handed over as they are rather than copied. */
     private void closeFrame(){
         SwingUtilities.invokeLater(frame::dispose);
-        deck.setIsTestRunning(false);
+        prefetcher.close();
+        if(imageCache != null){
+            imageCache.close();
+        }
+        Scheduler endedScheduler = scheduler;
+        CardStatistics endedStatistics = statistics;
+        ReviewHistory endedHistory = history;
+        Path endedDeckPath = deckPath;
         deck.setNumCorrect(0);
         deck.setNumWrong(0);
-        quizCardBuilder.setTextAreaEditability(true);
-        quizCardBuilder.getQuestionText().requestFocusInWindow();
+        quizCardBuilder.testEnded(deck, new DeckOperation<Void>() {
+            @Override
+            public Void run(DeckProgress progress) throws IOException {
+                try{
+                    endedScheduler.save(endedDeckPath);
+                }finally{
+                    if(endedStatistics != null){
+                        endedStatistics.flush();
+                    }
+                    if(endedHistory != null){
+                        endedHistory.close();
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean isCancellable() {
+                return false; // the history would be left open
+            }
+        });
+    }
+
+    /** openImages - a cache of the deck's images as they are shown, or null if it has none. The test goes ahead
+     * without them if they cannot be read. */
+    private static ImageCache openImages(ImageStore images){
+        try{
+            return images.size() > 0 ? new ImageCache(images) : null;
+        }catch(IOException ioEx){
+            ioEx.printStackTrace();
+            return null;
+        }
+    }
+
+    /** openStatistics - maps the Deck's per-card statistics. The test goes ahead without them if that fails. */
+    private static CardStatistics openStatistics(Path deckPath, long[] ids){
+        try{
+            return CardStatistics.open(deckPath, ids);
+        }catch(IOException ioEx){
+            ioEx.printStackTrace();
+            return null;
+        }
+    }
+
+    /** openHistory - opens the log every answer is appended to, if the deck has been saved. The test goes ahead
+     * without it if that fails. */
+    private static ReviewHistory openHistory(Path deckPath){
+        if(deckPath == null){
+            return null;
+        }
+        try{
+            return ReviewHistory.open(deckPath);
+        }catch(IOException ioEx){
+            ioEx.printStackTrace();
+            return null;
+        }
+    }
+
+    /** recordAnswer - appends the answer to the current card to the history, if there is one, under the same id
+     * the schedule and the statistics keep it by. */
+    private void recordAnswer(boolean isCorrect, long now){
+        if(history != null){
+            history.record(ids[currentCard], now, isCorrect, responseMillis);
+        }
     }
 
     private void displayFrame(){
@@ -122,14 +413,24 @@ public class QuizCardPlayer {
         quizCardBuilder = newQuizCardBuilder;
     }
 
+    /** toFront - brings the player to the front, if its frame has been built yet. */
     void toFront(){
-        SwingUtilities.invokeLater(frame::toFront);
+        if(frame != null){
+            SwingUtilities.invokeLater(frame::toFront);
+        }
     }
 
     private class CorrectButtonListener extends ButtonListener {
         @Override
         public void actionPerformed(ActionEvent ev){
+            long now = System.currentTimeMillis();
             deck.setNumCorrect(deck.getNumCorrect() + 1);
+            DeckMetrics.answered(currentCard, true, deck.getNumCorrect(), deck.getNumWrong());
+            scheduler.record(currentCard, true, now);
+            if(statistics != null){
+                statistics.record(currentCard, true, now);
+            }
+            recordAnswer(true, now);
             super.actionPerformed(ev);
         }
     }
@@ -138,68 +439,129 @@ public class QuizCardPlayer {
 
         @Override
         public void actionPerformed(ActionEvent ev){
+            long now = System.currentTimeMillis();
             deck.setNumWrong(deck.getNumWrong() + 1);
+            DeckMetrics.answered(currentCard, false, deck.getNumCorrect(), deck.getNumWrong());
+            scheduler.record(currentCard, false, now);
+            if(statistics != null){
+                statistics.record(currentCard, false, now);
+            }
+            recordAnswer(false, now);
             super.actionPerformed(ev);
         }
     }
 
+    /** ButtonListener - moves the player along: question, then answer, then the next card the Scheduler says is
+     * due, until none is. Each move is timed in DeckMetrics from the click until the next screen has been painted,
+     * which the event queue reaches only after the repaint the new text asked for. */
     private class ButtonListener implements ActionListener {
         @Override
         public void actionPerformed(ActionEvent ev){
-            if(deckIndex < deck.getQuizCardList().size()) {
-                if (isAnswerShown) {
-                    showNextCard();
-                } else {
-                    showAnswer();
+            DeckMetrics.Transition transition = DeckMetrics.beginTransition();
+            if(isFinished){
+                closeFrame();
+            }else if(isAnswerShown){
+                currentCard = scheduler.next(System.currentTimeMillis());
+                if(currentCard >= 0){
+                    showNextCard(transition);
+                }else{
+                    showResults(transition);
                 }
-            }else if(deckIndex == deck.getQuizCardList().size()) {
-                showResults();
             }else{
-                closeFrame();
+                showAnswer(transition);
             }
         }
 
-        private void showAnswer(){
+        private void showAnswer(DeckMetrics.Transition transition){
+            responseMillis = (int) Math.min(Integer.MAX_VALUE, (System.nanoTime() - questionShownAt) / 1_000_000);
             SwingUtilities.invokeLater(
                     () -> {
-                        label.setText("Answer:");
-                        textArea.setText(deck.getQuizCardList().get(deckIndex).getAnswer());
+                        label.setText("Answer:" + describeStatistics(currentCard));
+                        label.setToolTipText(describeLastSeen(currentCard));
+                        display(currentCard, true);
                         isAnswerShown = true;
                         showAnswerButton.setVisible(false);
                         correctButton.setVisible(true);
+                        wrongButton.setVisible(true);
                         correctButton.requestFocusInWindow();
-                        deckIndex++;
+                        SwingUtilities.invokeLater(() -> {
+                            transition.shown(currentCard, "answer");
+                            prepareAhead();
+                        });
                     }
             );
         }
 
-        private void showNextCard(){
+        private void showNextCard(DeckMetrics.Transition transition){
             SwingUtilities.invokeLater(
                     () -> {
                         label.setText("Question:");
-                        textArea.setText(deck.getQuizCardList().get(deckIndex).getQuestion());
+                        label.setToolTipText(null);
+                        display(currentCard, false);
                         isAnswerShown = false;
                         showAnswerButton.setText("Show answer");
                         showAnswerButton.setVisible(true);
                         showAnswerButton.requestFocusInWindow();
                         correctButton.setVisible(false);
+                        wrongButton.setVisible(false);
+                        SwingUtilities.invokeLater(() -> {
+                            transition.shown(currentCard, "question");
+                            questionShownAt = System.nanoTime();
+                            prepareAhead();
+                        });
                     }
             );
         }
 
-        private void showResults(){
+        private void showResults(DeckMetrics.Transition transition){
             SwingUtilities.invokeLater(
                     () -> {
                         label.setText("Results:");
-                        textArea.setText("There are no more questions");
+                        label.setToolTipText(null);
+                        showImage(-1, false);
+                        textAreas[shown].setText("Right: " + deck.getNumCorrect() + "\nWrong: " + deck.getNumWrong() +
+                                "\n\nThere are no more questions due. The next one is due " +
+                                describeNextDue() + ".");
                         showAnswerButton.setText("End");
                         showAnswerButton.setVisible(true);
                         showAnswerButton.requestFocusInWindow();
                         correctButton.setVisible(false);
                         wrongButton.setVisible(false);
-                        deckIndex++;
+                        isFinished = true;
+                        SwingUtilities.invokeLater(() -> transition.shown(-1, "results"));
                     }
             );
         }
+
+        private String describeNextDue(){
+            return "in " + describeTime(scheduler.nextDue() - System.currentTimeMillis());
+        }
+    }
+
+    /** describeStatistics - how the card had been answered before this time, from its CardStatistics, to go after
+     * the label of its answer. */
+    private String describeStatistics(int card){
+        if(statistics == null){
+            return "";
+        }
+        if(statistics.getAttempts(card) == 0){
+            return " first time";
+        }
+        return " " + statistics.getCorrect(card) + "/" + statistics.getAttempts(card) + " right, streak " +
+                statistics.getStreak(card);
+    }
+
+    private String describeLastSeen(int card){
+        if(statistics == null || statistics.getAttempts(card) == 0){
+            return null;
+        }
+        return "Last seen " + describeTime(System.currentTimeMillis() - statistics.getLastSeen(card)) + " ago";
+    }
+
+    private static String describeTime(long millis){
+        if(millis < Scheduler.DAY){
+            return Math.max(1, millis / Scheduler.MINUTE) + " minute(s)";
+        }
+        return millis / Scheduler.DAY + " day(s)";
     }
 }
@@ -0,0 +1,201 @@
+package quizcard;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** QuizLoadGenerator - plays many learners against a QuizServer at once and reports how quickly it answered:
+ *
+ *     java -cp classes quizcard.QuizLoadGenerator biology.qcdb --sessions 10000 --concurrency 500
+ *     java -cp classes quizcard.QuizLoadGenerator http://localhost:8080 --sessions 10000
+ *
+ * Given a deck, it starts a QuizServer for it on the loopback interface in the same process; given a URL, it uses
+ * the server already running there. Each of concurrency learners in turn starts a session, takes it through cards
+ * cards (question, answer, grade, marked correct at random) and ends it, until sessions sessions have been run.
+ *
+ * Every request is timed into a LatencyHistogram per learner, so that measuring adds no contention, and the
+ * percentiles are reported with the sessions and requests completed per second. */
+public class QuizLoadGenerator {
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java quizcard.QuizLoadGenerator <deck or url> [--sessions <n>] [--concurrency <n>] [--cards <n>]",
+            "  --sessions     sessions to run in all (default 1000)",
+            "  --concurrency  learners at the same time (default 100)",
+            "  --cards        cards answered per session (default 20, at most the deck)");
+    private static final Pattern SESSION_ID = Pattern.compile("\"session\":\"([0-9a-f]+)\"");
+    private static final Pattern CARDS = Pattern.compile("\"cards\":(\\d+)");
+
+    private final HttpClient client;
+    private final URI base;
+    private final int cards;
+    private final AtomicInteger remainingSessions;
+    private final AtomicInteger failures = new AtomicInteger();
+
+    QuizLoadGenerator(HttpClient client, URI base, int sessions, int cards){
+        this.client = client;
+        this.base = base;
+        this.cards = cards;
+        remainingSessions = new AtomicInteger(sessions);
+    }
+
+    public static void main(String[] args){
+        int sessions = 1000;
+        int concurrency = 100;
+        int cards = 20;
+        try{
+            if(args.length == 0 || args.length % 2 == 0){
+                throw new IllegalArgumentException("Wrong number of arguments");
+            }
+            for(int i = 1; i < args.length; i += 2){
+                switch(args[i]){
+                    case "--sessions": sessions = parsePositive(args[i + 1]); break;
+                    case "--concurrency": concurrency = parsePositive(args[i + 1]); break;
+                    case "--cards": cards = parsePositive(args[i + 1]); break;
+                    default: throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        }catch(IllegalArgumentException argumentEx){
+            System.err.println(argumentEx.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        QuizServer server = null;
+        try{
+            URI base;
+            if(args[0].startsWith("http://") || args[0].startsWith("https://")){
+                base = URI.create(args[0].endsWith("/") ? args[0] : args[0] + "/");
+            }else{
+                Deck deck = DeckLibrary.loadFile(Paths.get(args[0]), DeckProgress.NONE);
+                server = new QuizServer(deck, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                server.start();
+                base = URI.create("http://localhost:" + server.getPort() + "/");
+            }
+            run(base, sessions, concurrency, cards);
+        }catch(IOException ioEx){
+            System.err.println("load generator: " + ioEx);
+            System.exit(1);
+        }catch(InterruptedException interruptedEx){
+            System.exit(1);
+        }finally{
+            if(server != null){
+                server.stop();
+            }
+        }
+        System.exit(0);
+    }
+
+    /** run - plays the sessions against the server at base and prints the report. */
+    static void run(URI base, int sessions, int concurrency, int cards) throws IOException, InterruptedException {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpResponse<String> deck = client.send(HttpRequest.newBuilder(base).build(),
+                HttpResponse.BodyHandlers.ofString());
+        Matcher deckCards = CARDS.matcher(deck.body());
+        if(deck.statusCode() != 200 || !deckCards.find()){
+            throw new IOException("Not a quiz server: " + base);
+        }
+        int cardsPerSession = Math.min(cards, Integer.parseInt(deckCards.group(1)));
+        QuizLoadGenerator generator = new QuizLoadGenerator(client, base, sessions, cardsPerSession);
+
+        int learnerCount = Math.min(concurrency, sessions);
+        ExecutorService learners = QuizServer.newExecutor(learnerCount, "quiz-learner");
+        long start = System.nanoTime();
+        List<Future<LatencyHistogram>> results = new ArrayList<>();
+        for(int i = 0; i < learnerCount; i++){
+            results.add(learners.submit(generator::learn));
+        }
+        LatencyHistogram latencies = new LatencyHistogram();
+        for(Future<LatencyHistogram> result : results){
+            try{
+                latencies.add(result.get());
+            }catch(ExecutionException executionEx){
+                throw new IOException("A learner failed", executionEx.getCause());
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        learners.shutdownNow();
+
+        int completed = sessions - generator.failures.get();
+        System.out.printf(Locale.ROOT, "%d sessions of %d cards by %d learners in %.2f s%n", completed,
+                cardsPerSession, learnerCount, seconds);
+        System.out.printf(Locale.ROOT, "%.0f sessions/s, %.0f requests/s, %d failed sessions%n",
+                completed / seconds, latencies.getCount() / seconds, generator.failures.get());
+        System.out.println("request latency " + latencies.summarize());
+    }
+
+    /** learn - one learner: runs sessions one after the other until none are left to run. */
+    private LatencyHistogram learn(){
+        LatencyHistogram latencies = new LatencyHistogram();
+        while(remainingSessions.getAndDecrement() > 0){
+            try{
+                runSession(latencies);
+            }catch(IOException ioEx){
+                if(failures.getAndIncrement() < 5){
+                    System.err.println("Failed session: " + ioEx.getMessage());
+                }
+            }catch(InterruptedException interruptedEx){
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return latencies;
+    }
+
+    private void runSession(LatencyHistogram latencies) throws IOException, InterruptedException {
+        Matcher id = SESSION_ID.matcher(send(latencies, "POST", "sessions", 201));
+        if(!id.find()){
+            throw new IOException("No session id");
+        }
+        String session = "sessions/" + id.group(1);
+        for(int i = 0; i < cards; i++){
+            send(latencies, "GET", session + "/card", 200);
+            send(latencies, "GET", session + "/answer", 200);
+            send(latencies, "POST", session + "/grade?correct=" + ThreadLocalRandom.current().nextBoolean(), 200);
+        }
+        send(latencies, "DELETE", session, 200);
+    }
+
+    private String send(LatencyHistogram latencies, String method, String path, int expectedStatus)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(base.resolve(path))
+                .method(method, HttpRequest.BodyPublishers.noBody()).build();
+        long start = System.nanoTime();
+        HttpResponse<String> response;
+        try{
+            response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        }catch(IOException ioEx){
+            throw new IOException(method + " " + path + " failed: " + ioEx.getMessage(), ioEx);
+        }
+        latencies.record(System.nanoTime() - start);
+        if(response.statusCode() != expectedStatus){
+            throw new IOException(method + " " + path + " answered " + response.statusCode() + " " +
+                    response.body());
+        }
+        return response.body();
+    }
+
+    private static int parsePositive(String value){
+        try{
+            int number = Integer.parseInt(value);
+            if(number > 0){
+                return number;
+            }
+        }catch(NumberFormatException numberEx){
+            // reported below
+        }
+        throw new IllegalArgumentException("Not a positive number: " + value);
+    }
+}
@@ -0,0 +1,384 @@
+package quizcard;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/** QuizServer - runs one deck as a test for a whole class at once, over HTTP, without a display:
+ *
+ *     java -cp classes quizcard.QuizServer biology.qcdb --port 8080
+ *
+ * The deck is loaded once and only a snapshot of it is served, which never changes, so any number of requests
+ * can read it at the same time without locking. What a learner has done is kept in a QuizSession of a few dozen
+ * bytes plus a bit per card answered, found by a random id that the learner sends back on every request:
+ *
+ *     GET    /                            the deck: its name, its number of cards and the sessions running
+ *     POST   /sessions[?seed=<seed>]      starts a test, in a shuffled order when a seed is given
+ *     GET    /sessions/<id>               the score so far
+ *     GET    /sessions/<id>/card          the question of the current card
+ *     GET    /sessions/<id>/answer        its answer
+ *     POST   /sessions/<id>/grade?correct=<true|false>   marks the answer, once shown, and moves on
+ *     DELETE /sessions/<id>               ends the test, replying with the final score
+ *
+ * Replies are JSON. A session nobody has used for SESSION_TIMEOUT is ended by a sweeper thread. Every request is
+ * handled on a virtual thread of its own when the runtime has them (Java 21 and later) and otherwise on a pool of
+ * a few threads per core, which is enough as no request waits for anything but the network. */
+public class QuizServer {
+    static final int DEFAULT_PORT = 8080;
+    static final long SESSION_TIMEOUT = TimeUnit.MINUTES.toMillis(30);
+    static final int MAXIMUM_SESSIONS = 100_000;
+
+    private static final int BACKLOG = 1024;
+    private static final long SWEEP_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    private static final String USAGE = "Usage: java quizcard.QuizServer <deck> [--port <port>]";
+
+    private final List<QuizCard> quizCards;
+    private final String deckName;
+    private final ConcurrentHashMap<Long, QuizSession> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService sweeper;
+
+    /** QuizServer - a server for a snapshot of deck, bound to address but not started. */
+    QuizServer(Deck deck, InetSocketAddress address) throws IOException {
+        // the server writes the headers and the body of a reply separately, and Nagle's algorithm would hold the
+        // body back until the client acknowledged the headers, some 40 ms later
+        setDefault("sun.net.httpserver.nodelay", "true");
+        // beyond this many connections waiting for their next request, the server closes each as it answers
+        setDefault("sun.net.httpserver.maxIdleConnections", Integer.toString(MAXIMUM_SESSIONS));
+        quizCards = deck.snapshot();
+        deckName = deck.getFileName();
+        server = HttpServer.create(address, BACKLOG);
+        server.createContext("/", this::handle);
+        executor = newExecutor(4 * Runtime.getRuntime().availableProcessors(), "quiz-server");
+        server.setExecutor(executor);
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "quiz-session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static void main(String[] args){
+        if(args.length != 1 && (args.length != 3 || !args[1].equals("--port"))){
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        try{
+            int port = args.length == 3 ? Integer.parseInt(args[2]) : DEFAULT_PORT;
+            Path file = Paths.get(args[0]);
+            Deck deck = DeckLibrary.loadFile(file, DeckProgress.NONE);
+            QuizServer quizServer = new QuizServer(deck, new InetSocketAddress(port));
+            quizServer.start();
+            System.err.println("Serving " + deck.getQuizCardList().size() + " cards of " + file.getFileName() +
+                    " on http://localhost:" + quizServer.getPort() + "/");
+        }catch(NumberFormatException numberEx){
+            System.err.println("Not a port: " + args[2]);
+            System.exit(2);
+        }catch(IOException ioEx){
+            System.err.println("quiz server: " + ioEx);
+            System.exit(1);
+        }
+    }
+
+    void start(){
+        server.start();
+        sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /** stop - stops taking requests and ends every session. */
+    void stop(){
+        server.stop(0);
+        sweeper.shutdownNow();
+        executor.shutdownNow();
+        sessions.clear();
+    }
+
+    int getPort(){
+        return server.getAddress().getPort();
+    }
+
+    int getSessionCount(){
+        return sessions.size();
+    }
+
+    /** handle - routes a request by its method and path. Anything else than a known route is a 404. */
+    private void handle(HttpExchange exchange) throws IOException {
+        try{
+            String method = exchange.getRequestMethod();
+            String[] path = exchange.getRequestURI().getPath().split("/");
+            if(path.length <= 1){
+                requireMethod(method, "GET");
+                reply(exchange, 200, "{\"deck\":" + quote(deckName) + ",\"cards\":" + quizCards.size() +
+                        ",\"sessions\":" + sessions.size() + "}");
+                return;
+            }
+            if(!path[1].equals("sessions") || path.length > 4){
+                throw new RequestException(404, "No such resource");
+            }
+            if(path.length == 2){
+                requireMethod(method, "POST");
+                reply(exchange, 201, startSession(exchange.getRequestURI()));
+                return;
+            }
+            QuizSession session = findSession(path[2]);
+            String action = path.length == 4 ? path[3] : "";
+            switch(method + " " + action){
+                case "GET ":
+                    reply(exchange, 200, session.describe());
+                    return;
+                case "DELETE ":
+                    sessions.remove(session.getId());
+                    reply(exchange, 200, session.describe());
+                    return;
+                case "GET card":
+                    reply(exchange, 200, session.showQuestion(quizCards));
+                    return;
+                case "GET answer":
+                    reply(exchange, 200, session.showAnswer(quizCards));
+                    return;
+                case "POST grade":
+                    String correct = getParameter(exchange.getRequestURI(), "correct");
+                    if(!"true".equals(correct) && !"false".equals(correct)){
+                        throw new RequestException(400, "correct must be true or false");
+                    }
+                    reply(exchange, 200, session.grade(Boolean.parseBoolean(correct)));
+                    return;
+                default:
+                    if(action.equals("") || action.equals("card") || action.equals("answer")
+                            || action.equals("grade")){
+                        throw new RequestException(405, "Method not allowed");
+                    }
+                    throw new RequestException(404, "No such resource");
+            }
+        }catch(RequestException requestEx){
+            reply(exchange, requestEx.status, "{\"error\":" + quote(requestEx.getMessage()) + "}");
+        }catch(RuntimeException runtimeEx){
+            runtimeEx.printStackTrace();
+            reply(exchange, 500, "{\"error\":\"Internal error\"}");
+        }finally{
+            exchange.close();
+        }
+    }
+
+    private String startSession(URI uri) throws RequestException {
+        if(sessions.size() >= MAXIMUM_SESSIONS){
+            throw new RequestException(503, "Too many sessions");
+        }
+        Permutation order = null;
+        String seed = getParameter(uri, "seed");
+        if(seed != null){
+            try{
+                order = new Permutation(quizCards.size(), Long.parseLong(seed));
+            }catch(NumberFormatException numberEx){
+                throw new RequestException(400, "Not a seed: " + seed);
+            }
+        }
+        QuizSession session;
+        do{
+            session = new QuizSession(random.nextLong() & Long.MAX_VALUE, quizCards.size(), order);
+        }while(sessions.putIfAbsent(session.getId(), session) != null);
+        return session.describe();
+    }
+
+    private QuizSession findSession(String id) throws RequestException {
+        QuizSession session = null;
+        try{
+            session = sessions.get(Long.parseUnsignedLong(id, 16));
+        }catch(NumberFormatException numberEx){
+            // reported below
+        }
+        if(session == null){
+            throw new RequestException(404, "No such session");
+        }
+        return session;
+    }
+
+    /** sweep - ends the sessions that have not been used for SESSION_TIMEOUT. */
+    private void sweep(){
+        long oldest = System.currentTimeMillis() - SESSION_TIMEOUT;
+        sessions.values().removeIf(session -> session.getLastUsed() < oldest);
+    }
+
+    /** setDefault - sets a system property of the JDK's HTTP server, unless it was given on the command line. */
+    private static void setDefault(String property, String value){
+        if(System.getProperty(property) == null){
+            System.setProperty(property, value);
+        }
+    }
+
+    private static void requireMethod(String method, String expected) throws RequestException {
+        if(!method.equals(expected)){
+            throw new RequestException(405, "Method not allowed");
+        }
+    }
+
+    private static String getParameter(URI uri, String name){
+        String query = uri.getRawQuery();
+        if(query == null){
+            return null;
+        }
+        for(String parameter : query.split("&")){
+            if(parameter.startsWith(name + "=")){
+                return parameter.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    private static void reply(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try(OutputStream output = exchange.getResponseBody()){
+            output.write(body);
+        }
+    }
+
+    /** quote - text as a JSON string. */
+    static String quote(String text){
+        StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+        for(int i = 0; i < text.length(); i++){
+            char c = text.charAt(i);
+            if(c == '"' || c == '\\'){
+                quoted.append('\\').append(c);
+            }else if(c == '\n'){
+                quoted.append("\\n");
+            }else if(c < 0x20){
+                quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            }else{
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /** newExecutor - a virtual thread per task where the runtime has them, otherwise a fixed pool of daemon
+     * threads. Looked up by reflection so that the server still builds and runs on Java 17. */
+    static ExecutorService newExecutor(int poolThreads, String name){
+        try{
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }catch(ReflectiveOperationException noVirtualThreadsEx){
+            return Executors.newFixedThreadPool(poolThreads, runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /** RequestException - a request that cannot be served, with the HTTP status to reply with. */
+    private static class RequestException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        RequestException(int status, String message){
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /** QuizSession - one learner's way through the deck: where they are, whether the answer is showing, and a bit
+     * per card answered that is set when it was answered correctly. The bits are allocated as the learner goes, so
+     * a session that has just started takes the same few bytes whatever the size of the deck. */
+    private static class QuizSession {
+        private final long id;
+        private final int size;
+        private final Permutation order;
+        private int position;
+        private boolean isAnswerShown;
+        private long[] results = new long[1];
+        private int numCorrect;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        QuizSession(long id, int size, Permutation order){
+            this.id = id;
+            this.size = size;
+            this.order = order;
+        }
+
+        long getId(){
+            return id;
+        }
+
+        long getLastUsed(){
+            return lastUsed;
+        }
+
+        synchronized String describe(){
+            lastUsed = System.currentTimeMillis();
+            return "{\"session\":\"" + Long.toHexString(id) + "\",\"position\":" + position + ",\"cards\":" + size +
+                    ",\"correct\":" + numCorrect + ",\"wrong\":" + (position - numCorrect) + ",\"finished\":" +
+                    (position == size) + (position == size ? ",\"missed\":" + listMissed() : "") + "}";
+        }
+
+        /** listMissed - the cards answered wrongly, as a JSON array of their indexes in the deck. */
+        private String listMissed(){
+            StringBuilder missed = new StringBuilder("[");
+            for(int i = 0; i < position; i++){
+                if((results[i / Long.SIZE] & 1L << i) == 0){
+                    missed.append(missed.length() > 1 ? "," : "").append(order == null ? i : order.get(i));
+                }
+            }
+            return missed.append(']').toString();
+        }
+
+        synchronized String showQuestion(List<QuizCard> quizCards) throws RequestException {
+            int card = getCard();
+            return "{\"position\":" + position + ",\"card\":" + card + ",\"question\":" +
+                    quote(quizCards.get(card).getQuestion()) + "}";
+        }
+
+        synchronized String showAnswer(List<QuizCard> quizCards) throws RequestException {
+            int card = getCard();
+            isAnswerShown = true;
+            return "{\"position\":" + position + ",\"card\":" + card + ",\"answer\":" +
+                    quote(quizCards.get(card).getAnswer()) + "}";
+        }
+
+        /** grade - records the answer to the current card, which must have been shown, and moves to the next. */
+        synchronized String grade(boolean isCorrect) throws RequestException {
+            int card = getCard();
+            if(!isAnswerShown){
+                throw new RequestException(409, "The answer has not been shown");
+            }
+            if(position / Long.SIZE >= results.length){
+                results = Arrays.copyOf(results, Math.min(results.length * 2, (size + Long.SIZE - 1) / Long.SIZE));
+            }
+            if(isCorrect){
+                results[position / Long.SIZE] |= 1L << position;
+                numCorrect++;
+            }
+            position++;
+            isAnswerShown = false;
+            DeckMetrics.answered(card, isCorrect, numCorrect, position - numCorrect);
+            return describe();
+        }
+
+        /** getCard - the index in the deck of the current card. */
+        private int getCard() throws RequestException {
+            lastUsed = System.currentTimeMillis();
+            if(position == size){
+                throw new RequestException(409, "The test is finished");
+            }
+            return order == null ? position : order.get(position);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package quizcard;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** ReviewHistory - every answer given in the tests of a Deck, appended to a log next to the deck that is never
+ * rewritten: which card, when, whether the answer was right and how long the learner took to recall it.
+ *
+ * Rows have a fixed width and are stored in segments of SEGMENT_ROWS rows. Within a segment every field is a column
+ * of its own, so a query reads only the columns it needs, front to back, as primitives straight from a mapping,
+ * and never builds an object per row. The file grows a whole segment at a time; a row is appended by writing its
+ * slot in each column of the last segment and only then the row count in the header, so a row cut short by a crash
+ * is never counted.
+ *
+ * A card is known by its id from DeckPatch.cardIds, as in the schedule and the statistics, so its history follows
+ * it when the deck is shuffled, edited or merged. Cards asking the same question are told apart by which of them
+ * comes first, second and so on. Decks that have not been saved yet have none. */
+class ReviewHistory {
+    static final String SUFFIX = ".history";
+    static final int SEGMENT_ROWS = 1 << 16;
+
+    private static final int MAGIC = 0x5143484c; // "QCHL"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * Integer.BYTES + Long.BYTES;
+    private static final int ROWS_OFFSET = 4 * Integer.BYTES;
+    private static final int CARD_COLUMN = 0;
+    private static final int TIME_COLUMN = CARD_COLUMN + SEGMENT_ROWS * Long.BYTES;
+    private static final int RESPONSE_COLUMN = TIME_COLUMN + SEGMENT_ROWS * Long.BYTES;
+    private static final int RESULT_COLUMN = RESPONSE_COLUMN + SEGMENT_ROWS * Integer.BYTES;
+    private static final int SEGMENT_SIZE = RESULT_COLUMN + SEGMENT_ROWS;
+    private static final int SEGMENTS_PER_MAPPING = Integer.MAX_VALUE / SEGMENT_SIZE;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private MappedByteBuffer segment;
+    private long segmentNumber = -1;
+    private long rows;
+
+    private ReviewHistory(FileChannel channel, MappedByteBuffer header, long rows){
+        this.channel = channel;
+        this.header = header;
+        this.rows = rows;
+    }
+
+    /** open - the history of the deck saved at deckPath, created if it has none yet. */
+    static ReviewHistory open(Path deckPath) throws IOException {
+        Path path = historyPath(deckPath);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try{
+            if(channel.size() == 0){
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+                header.putInt(0, MAGIC).putInt(Integer.BYTES, VERSION).putInt(2 * Integer.BYTES, SEGMENT_ROWS)
+                        .putLong(ROWS_OFFSET, 0);
+                header.force();
+                return new ReviewHistory(channel, header, 0);
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            return new ReviewHistory(channel, header, readRows(header, channel.size(), path));
+        }catch(IOException | RuntimeException ex){
+            channel.close();
+            throw ex;
+        }
+    }
+
+    static Path historyPath(Path deckPath){
+        return deckPath.resolveSibling(deckPath.getFileName() + SUFFIX);
+    }
+
+    /** record - appends one answer: the card, the time in milliseconds, whether it was right and how many
+     * milliseconds the card was shown before the answer was asked for. */
+    void record(long card, long time, boolean isCorrect, int responseMillis){
+        try{
+            long number = rows / SEGMENT_ROWS;
+            if(number != segmentNumber){
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, segmentOffset(number), SEGMENT_SIZE);
+                segmentNumber = number;
+            }
+        }catch(IOException ioEx){
+            ioEx.printStackTrace();
+            return;
+        }
+        int row = (int) (rows % SEGMENT_ROWS);
+        segment.putLong(CARD_COLUMN + row * Long.BYTES, card);
+        segment.putLong(TIME_COLUMN + row * Long.BYTES, time);
+        segment.putInt(RESPONSE_COLUMN + row * Integer.BYTES, Math.max(0, responseMillis));
+        segment.put(RESULT_COLUMN + row, isCorrect ? (byte) 1 : (byte) 0);
+        header.putLong(ROWS_OFFSET, ++rows);
+    }
+
+    long getRows(){
+        return rows;
+    }
+
+    /** flush - forces the rows appended so far to disk. */
+    void flush(){
+        if(segment != null){
+            segment.force();
+        }
+        header.force();
+    }
+
+    void close(){
+        flush();
+        try{
+            channel.close();
+        }catch(IOException ioEx){
+            ioEx.printStackTrace();
+        }
+    }
+
+    /** SegmentVisitor - is handed the segments of a history in order, each with the number of rows it holds. */
+    interface SegmentVisitor {
+        void segment(ByteBuffer segment, int rows);
+    }
+
+    /** scan - hands every segment of the history at path to visitor, read-only, and returns the number of rows.
+     * The segments are mapped SEGMENTS_PER_MAPPING at a time. */
+    static long scan(Path path, SegmentVisitor visitor) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while(header.hasRemaining() && channel.read(header, header.position()) >= 0){
+                // the header is a few bytes
+            }
+            long rows = readRows(header, channel.size(), path);
+            long segments = (rows + SEGMENT_ROWS - 1) / SEGMENT_ROWS;
+            for(long first = 0; first < segments; first += SEGMENTS_PER_MAPPING){
+                int count = (int) Math.min(SEGMENTS_PER_MAPPING, segments - first);
+                long end = Math.min(segmentOffset(first + count), channel.size());
+                MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, segmentOffset(first),
+                        end - segmentOffset(first));
+                for(int i = 0; i < count; i++){
+                    long remaining = rows - (first + i) * SEGMENT_ROWS;
+                    visitor.segment(mapping.slice(i * SEGMENT_SIZE, SEGMENT_SIZE),
+                            (int) Math.min(SEGMENT_ROWS, remaining));
+                }
+            }
+            return rows;
+        }
+    }
+
+    /** exists - whether the deck at deckPath has a history. */
+    static boolean exists(Path deckPath){
+        return Files.exists(historyPath(deckPath));
+    }
+
+    static long card(ByteBuffer segment, int row){
+        return segment.getLong(CARD_COLUMN + row * Long.BYTES);
+    }
+
+    static long time(ByteBuffer segment, int row){
+        return segment.getLong(TIME_COLUMN + row * Long.BYTES);
+    }
+
+    static int responseMillis(ByteBuffer segment, int row){
+        return segment.getInt(RESPONSE_COLUMN + row * Integer.BYTES);
+    }
+
+    static boolean isCorrect(ByteBuffer segment, int row){
+        return segment.get(RESULT_COLUMN + row) != 0;
+    }
+
+    private static long segmentOffset(long number){
+        return HEADER_SIZE + number * SEGMENT_SIZE;
+    }
+
+    private static long readRows(ByteBuffer header, long size, Path path) throws IOException {
+        if(size < HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(Integer.BYTES) != VERSION
+                || header.getInt(2 * Integer.BYTES) != SEGMENT_ROWS){
+            throw new IOException("Unreadable history file " + path.getFileName());
+        }
+        long rows = header.getLong(ROWS_OFFSET);
+        long segments = (rows + SEGMENT_ROWS - 1) / SEGMENT_ROWS;
+        if(rows < 0 || segments > 0 && size < segmentOffset(segments - 1) + SEGMENT_SIZE){
+            throw new IOException("History file " + path.getFileName() + " is cut short");
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,180 @@
+package quizcard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/** Scheduler - decides which card of a Deck the QuizCardPlayer shows next. Every card has a due time, kept in a
+ * DueQueue, and the next card is simply the one due soonest, provided it is due already. Subclasses decide how
+ * far a Right or Wrong answer pushes a card back and keep whatever per-card state they need in primitive
+ * arrays indexed by card.
+ *
+ * The state is saved next to the deck file, one file per algorithm, so a later session only sees the cards
+ * that have become due since. It is saved under the id DeckPatch gives each card rather than by position, so a
+ * card keeps its schedule when the deck is shuffled or other cards are removed. */
+abstract class Scheduler {
+    static final long MINUTE = 60_000L;
+    static final long DAY = 24 * 60 * MINUTE;
+
+    private static final int MAGIC = 0x5143534B; // "QCSK"
+
+    /** Algorithm - the schedulers the user can choose between. */
+    enum Algorithm {
+        LEITNER("Leitner boxes", "leitner"),
+        SM2("SM-2", "sm2");
+
+        private final String displayName;
+        private final String fileSuffix;
+
+        Algorithm(String displayName, String fileSuffix){
+            this.displayName = displayName;
+            this.fileSuffix = fileSuffix;
+        }
+
+        String getDisplayName(){
+            return displayName;
+        }
+
+        Scheduler create(){
+            return this == LEITNER ? new LeitnerScheduler() : new Sm2Scheduler();
+        }
+    }
+
+    private final DueQueue queue = new DueQueue();
+    private long[] ids = new long[0];
+
+    abstract Algorithm getAlgorithm();
+
+    /** reschedule - updates the card's state after an answer and returns its new due time. */
+    protected abstract long reschedule(int card, boolean isCorrect, long now);
+
+    /** addCard - makes room for the state of the next card index. */
+    protected abstract void addCard();
+
+    /** copyState - gives toCard the state fromCard has in from, a scheduler of the same algorithm. */
+    protected abstract void copyState(Scheduler from, int fromCard, int toCard);
+
+    protected abstract void writeState(DataOutputStream output, int cards) throws IOException;
+
+    protected abstract void readState(DataInputStream input, int cards) throws IOException;
+
+    /** open - schedules the cards whose ids (see DeckPatch.cardIds) are given, in the order of the deck they are
+     * the cards of, from the state saved for the deck at deckPath, if it has been saved. Cards the saved state does
+     * not know, such as those added since or whose question was edited, start out due immediately, in playOrder
+     * (null for deck order). Reading and matching the state takes time in proportion to the deck, so this runs off
+     * the event thread; an unreadable state file is ignored. */
+    static Scheduler open(Algorithm algorithm, Path deckPath, long[] ids, Permutation playOrder){
+        Scheduler saved = algorithm.create();
+        if(deckPath != null){
+            try{
+                saved.read(statePath(algorithm, deckPath));
+            }catch(NoSuchFileException noFileEx){
+                // Never scheduled with this algorithm before.
+            }catch(IOException ioEx){
+                ioEx.printStackTrace();
+                saved = algorithm.create();
+            }
+        }
+        DeckPatch.IdTable savedCards = new DeckPatch.IdTable();
+        for(int card = 0; card < saved.ids.length; card++){
+            savedCards.put(saved.ids[card], card);
+        }
+        Scheduler scheduler = algorithm.create();
+        scheduler.ids = ids;
+        for(int card = 0; card < ids.length; card++){
+            int slot = savedCards.find(ids[card]);
+            int savedCard = slot < 0 ? -1 : (int) savedCards.valueAt(slot);
+            scheduler.queue.add(savedCard < 0 ? 0 : saved.queue.getDue(savedCard));
+            scheduler.addCard();
+            if(savedCard >= 0){
+                scheduler.copyState(saved, savedCard, card);
+            }
+        }
+        scheduler.queue.setOrder(playOrder);
+        return scheduler;
+    }
+
+    /** save - writes the state next to the deck saved at deckPath, through a temporary file so that a failed save
+     * leaves the previous state. A deck that has never been saved, with a deckPath of null, keeps no state. Only
+     * reads the scheduler, so once the player is done with it this can run on another thread. */
+    void save(Path deckPath) throws IOException {
+        if(deckPath == null){
+            return;
+        }
+        Path path = statePath(getAlgorithm(), deckPath);
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try(DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temporary), 1 << 16))){
+            output.writeInt(MAGIC);
+            output.writeInt(queue.size());
+            for(int card = 0; card < queue.size(); card++){
+                output.writeLong(ids[card]);
+            }
+            for(int card = 0; card < queue.size(); card++){
+                output.writeLong(queue.getDue(card));
+            }
+            writeState(output, queue.size());
+        }catch(IOException | RuntimeException ex){
+            Files.deleteIfExists(temporary);
+            throw ex;
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Path statePath(Algorithm algorithm, Path deckPath){
+        return deckPath.resolveSibling(deckPath.getFileName() + "." + algorithm.fileSuffix + ".schedule");
+    }
+
+    /** read - reads the state saved at path. A count of cards that the file is too short to hold is refused
+     * before anything is allocated for it. */
+    private void read(Path path) throws IOException {
+        long size = Files.size(path);
+        try(DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path),
+                1 << 16))){
+            if(input.readInt() != MAGIC){
+                throw new IOException("Not a schedule file: " + path);
+            }
+            int cards = input.readInt();
+            if(cards < 0 || 2L * Long.BYTES * cards > size - 2 * Integer.BYTES){
+                throw new IOException("Unreadable schedule file " + path.getFileName() + ": " + cards + " cards");
+            }
+            ids = new long[cards];
+            for(int card = 0; card < cards; card++){
+                ids[card] = input.readLong();
+            }
+            for(int card = 0; card < cards; card++){
+                queue.add(input.readLong());
+                addCard();
+            }
+            readState(input, cards);
+        }
+    }
+
+    /** next - the card to show now, or -1 if no card is due. */
+    int next(long now){
+        int card = queue.peek();
+        return card >= 0 && queue.getDue(card) <= now ? card : -1;
+    }
+
+    /** upcoming - the count cards due soonest, due yet or not, soonest first. The first is the card next returns;
+     * the player prepares the others ahead of time, as they are likely to follow it. */
+    int[] upcoming(int count){
+        return queue.peek(count);
+    }
+
+    /** nextDue - when the next card falls due, or Long.MAX_VALUE for an empty deck. */
+    long nextDue(){
+        int card = queue.peek();
+        return card < 0 ? Long.MAX_VALUE : queue.getDue(card);
+    }
+
+    void record(int card, boolean isCorrect, long now){
+        queue.setDue(card, reschedule(card, isCorrect, now));
+    }
+}
@@ -0,0 +1,283 @@
+package quizcard;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** SearchIndex - an inverted index over the questions and answers of a Deck.
+ *
+ * Every token maps to a posting list of (card index, token position) pairs stored in a plain int array, sorted by
+ * card and then position. Answer positions carry on after the question's with a gap, so a phrase never matches
+ * across the two. Tokens are kept in a sorted map, which turns a prefix query into a range of the map.
+ *
+ * Queries are whitespace separated clauses that must all match: a word matches that token, a word ending in '*'
+ * matches every token starting with it, and words in double quotes match as a phrase. */
+class SearchIndex {
+    private static final int FIELD_GAP = 1;
+    private static final int[] NO_CARDS = new int[0];
+
+    private final TreeMap<String, Postings> dictionary = new TreeMap<>();
+    private final List<String> tokens = new ArrayList<>();
+
+    /** Postings - the (card, position) pairs of one token, interleaved in a growable int array. */
+    private static class Postings {
+        private int[] pairs = new int[4];
+        private int size;
+
+        /** insert - adds a pair at its sorted place. Cards are almost always added at the end, which is O(1). */
+        void insert(int card, int position){
+            if(size == pairs.length){
+                pairs = Arrays.copyOf(pairs, size * 2);
+            }
+            int at = size;
+            while(at > 0 && compare(pairs[at - 2], pairs[at - 1], card, position) > 0){
+                at -= 2;
+            }
+            System.arraycopy(pairs, at, pairs, at + 2, size - at);
+            pairs[at] = card;
+            pairs[at + 1] = position;
+            size += 2;
+        }
+
+        void removeCard(int card){
+            int kept = 0;
+            for(int i = 0; i < size; i += 2){
+                if(pairs[i] != card){
+                    pairs[kept++] = pairs[i];
+                    pairs[kept++] = pairs[i + 1];
+                }
+            }
+            size = kept;
+        }
+
+        /** seek - the index of the first pair not before (card, position), searching forward from pair "from" with
+         * doubling steps. Callers probing in increasing order pass the previous result back in, which makes a
+         * run of probes cost about as much as merging the two lists. */
+        int seek(int from, int card, int position){
+            int pairCount = size / 2;
+            int step = 1;
+            int high = from;
+            while(high < pairCount && compare(pairs[2 * high], pairs[2 * high + 1], card, position) < 0){
+                from = high + 1;
+                high += step;
+                step *= 2;
+            }
+            high = Math.min(high, pairCount);
+            while(from < high){
+                int middle = (from + high) >>> 1;
+                if(compare(pairs[2 * middle], pairs[2 * middle + 1], card, position) < 0){
+                    from = middle + 1;
+                }else{
+                    high = middle;
+                }
+            }
+            return from;
+        }
+
+        boolean isAt(int pair, int card, int position){
+            return pair < size / 2 && pairs[2 * pair] == card && pairs[2 * pair + 1] == position;
+        }
+
+        /** cards - the distinct cards, in order. */
+        int[] cards(){
+            int[] cards = new int[size / 2];
+            int count = 0;
+            for(int i = 0; i < size; i += 2){
+                if(count == 0 || cards[count - 1] != pairs[i]){
+                    cards[count++] = pairs[i];
+                }
+            }
+            return Arrays.copyOf(cards, count);
+        }
+
+        private static int compare(int card, int position, int otherCard, int otherPosition){
+            return card != otherCard ? Integer.compare(card, otherCard) : Integer.compare(position, otherPosition);
+        }
+    }
+
+    void add(int card, String question, String answer){
+        tokenize(question, answer);
+        for(int position = 0; position < tokens.size(); position++){
+            String token = tokens.get(position);
+            if(token != null){
+                dictionary.computeIfAbsent(token, key -> new Postings()).insert(card, position);
+            }
+        }
+    }
+
+    void remove(int card, String question, String answer){
+        tokenize(question, answer);
+        for(String token : tokens){
+            Postings postings = token == null ? null : dictionary.get(token);
+            if(postings != null){
+                postings.removeCard(card);
+                if(postings.size == 0){
+                    dictionary.remove(token);
+                }
+            }
+        }
+    }
+
+    /** search - the cards matching every clause of the query, in deck order. */
+    int[] search(String query){
+        int[] result = null;
+        int i = 0;
+        while(i < query.length()){
+            char c = query.charAt(i);
+            if(Character.isWhitespace(c)){
+                i++;
+                continue;
+            }
+            int[] matches;
+            if(c == '"'){
+                int end = query.indexOf('"', i + 1);
+                end = end < 0 ? query.length() : end;
+                matches = searchPhrase(query.substring(i + 1, end));
+                i = end + 1;
+            }else{
+                int end = i;
+                while(end < query.length() && !Character.isWhitespace(query.charAt(end))){
+                    end++;
+                }
+                String word = query.substring(i, end);
+                matches = word.endsWith("*") ? searchPrefix(normalize(word)) : searchPhrase(word);
+                i = end;
+            }
+            result = result == null ? matches : intersect(result, matches);
+            if(result.length == 0){
+                return NO_CARDS;
+            }
+        }
+        return result == null ? NO_CARDS : result;
+    }
+
+    private int[] searchPrefix(String prefix){
+        if(prefix.isEmpty()){
+            return NO_CARDS;
+        }
+        Map<String, Postings> range = dictionary.subMap(prefix, true, prefix + Character.MAX_VALUE, true);
+        if(range.size() == 1){
+            return range.values().iterator().next().cards();
+        }
+        int[] cards = new int[16];
+        int count = 0;
+        for(Postings postings : range.values()){
+            for(int i = 0; i < postings.size; i += 2){
+                if(count == cards.length){
+                    cards = Arrays.copyOf(cards, count * 2);
+                }
+                cards[count++] = postings.pairs[i];
+            }
+        }
+        Arrays.sort(cards, 0, count);
+        return distinct(cards, count);
+    }
+
+    /** searchPhrase - cards where the tokens of the text appear next to each other. The pairs of the rarest token
+     * are the candidates; each other token then keeps only the candidates it continues. Candidates come in
+     * sorted order, so each token's posting list is walked forward with seek instead of being searched from the
+     * start every time. */
+    private int[] searchPhrase(String text){
+        tokenize(text, null);
+        if(tokens.isEmpty()){
+            return NO_CARDS;
+        }
+        Postings[] phrase = new Postings[tokens.size()];
+        int rarest = 0;
+        for(int k = 0; k < phrase.length; k++){
+            phrase[k] = dictionary.get(tokens.get(k));
+            if(phrase[k] == null){
+                return NO_CARDS;
+            }
+            if(phrase[k].size < phrase[rarest].size){
+                rarest = k;
+            }
+        }
+        if(phrase.length == 1){
+            return phrase[0].cards();
+        }
+        int[] cards = new int[phrase[rarest].size / 2];
+        int[] cursors = new int[phrase.length];
+        int count = 0;
+        for(int i = 0; i < phrase[rarest].size; i += 2){
+            int card = phrase[rarest].pairs[i];
+            int start = phrase[rarest].pairs[i + 1] - rarest;
+            boolean matches = start >= 0 && (count == 0 || cards[count - 1] != card);
+            for(int k = 0; matches && k < phrase.length; k++){
+                if(k != rarest){
+                    cursors[k] = phrase[k].seek(cursors[k], card, start + k);
+                    matches = phrase[k].isAt(cursors[k], card, start + k);
+                }
+            }
+            if(matches){
+                cards[count++] = card;
+            }
+        }
+        return Arrays.copyOf(cards, count);
+    }
+
+    /** tokenize - fills tokens with the lower-cased words of the question and then the answer, leaving null gaps
+     * between the two. */
+    private void tokenize(String question, String answer){
+        tokens.clear();
+        addTokens(question);
+        if(answer != null){
+            for(int i = 0; i < FIELD_GAP; i++){
+                tokens.add(null);
+            }
+            addTokens(answer);
+        }
+    }
+
+    private void addTokens(String text){
+        int start = -1;
+        for(int i = 0; i <= text.length(); i++){
+            boolean isWordCharacter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if(isWordCharacter && start < 0){
+                start = i;
+            }else if(!isWordCharacter && start >= 0){
+                tokens.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+    }
+
+    private static String normalize(String word){
+        StringBuilder normalized = new StringBuilder(word.length());
+        for(int i = 0; i < word.length(); i++){
+            if(Character.isLetterOrDigit(word.charAt(i))){
+                normalized.append(Character.toLowerCase(word.charAt(i)));
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static int[] intersect(int[] a, int[] b){
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        for(int i = 0, j = 0; i < a.length && j < b.length; ){
+            if(a[i] < b[j]){
+                i++;
+            }else if(a[i] > b[j]){
+                j++;
+            }else{
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static int[] distinct(int[] sorted, int length){
+        int count = 0;
+        for(int i = 0; i < length; i++){
+            if(count == 0 || sorted[count - 1] != sorted[i]){
+                sorted[count++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, count);
+    }
+}
@@ -0,0 +1,85 @@
+package quizcard;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/** Sm2Scheduler - the SuperMemo SM-2 algorithm. Each card has an ease factor and an interval in days; a Right
+ * answer (graded 4 of 5) multiplies the interval by the ease, a Wrong answer (graded 1 of 5) lowers the ease
+ * and starts the card over, asking it again shortly. */
+class Sm2Scheduler extends Scheduler {
+    private static final float INITIAL_EASE = 2.5f;
+    private static final float MINIMUM_EASE = 1.3f;
+    private static final int RIGHT_GRADE = 4;
+    private static final int WRONG_GRADE = 1;
+
+    private float[] ease = new float[16];
+    private int[] intervalDays = new int[16];
+    private short[] repetitions = new short[16];
+    private int cards;
+
+    @Override
+    Algorithm getAlgorithm(){
+        return Algorithm.SM2;
+    }
+
+    @Override
+    protected long reschedule(int card, boolean isCorrect, long now){
+        int grade = isCorrect ? RIGHT_GRADE : WRONG_GRADE;
+        ease[card] = Math.max(MINIMUM_EASE, ease[card] + 0.1f - (5 - grade) * (0.08f + (5 - grade) * 0.02f));
+        if(!isCorrect){
+            repetitions[card] = 0;
+            intervalDays[card] = 0;
+            return now + Scheduler.MINUTE;
+        }
+        if(repetitions[card] == 0){
+            intervalDays[card] = 1;
+        }else if(repetitions[card] == 1){
+            intervalDays[card] = 6;
+        }else{
+            intervalDays[card] = Math.round(intervalDays[card] * ease[card]);
+        }
+        if(repetitions[card] < Short.MAX_VALUE){
+            repetitions[card]++;
+        }
+        return now + intervalDays[card] * Scheduler.DAY;
+    }
+
+    @Override
+    protected void addCard(){
+        if(cards == ease.length){
+            ease = Arrays.copyOf(ease, cards * 2);
+            intervalDays = Arrays.copyOf(intervalDays, cards * 2);
+            repetitions = Arrays.copyOf(repetitions, cards * 2);
+        }
+        ease[cards] = INITIAL_EASE;
+        cards++;
+    }
+
+    @Override
+    protected void copyState(Scheduler from, int fromCard, int toCard){
+        Sm2Scheduler saved = (Sm2Scheduler) from;
+        ease[toCard] = saved.ease[fromCard];
+        intervalDays[toCard] = saved.intervalDays[fromCard];
+        repetitions[toCard] = saved.repetitions[fromCard];
+    }
+
+    @Override
+    protected void writeState(DataOutputStream output, int cards) throws IOException {
+        for(int card = 0; card < cards; card++){
+            output.writeFloat(ease[card]);
+            output.writeInt(intervalDays[card]);
+            output.writeShort(repetitions[card]);
+        }
+    }
+
+    @Override
+    protected void readState(DataInputStream input, int cards) throws IOException {
+        for(int card = 0; card < cards; card++){
+            ease[card] = input.readFloat();
+            intervalDays[card] = input.readInt();
+            repetitions[card] = input.readShort();
+        }
+    }
+}
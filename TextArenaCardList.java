@@ -0,0 +1,128 @@
+package quizcard;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/** TextArenaCardList - the cards of a Deck packed into one growing UTF-8 byte array. Each card is a record of its
+ * question and answer, both prefixed with their length as a varint, and the list itself is one int per card: the
+ * offset of its record. A QuizCard is only built when get asks for it, so a deck of short vocabulary cards costs a
+ * few bytes of text and four bytes of offset per card instead of three objects and two arrays.
+ *
+ * Records are never overwritten: replacing a card appends a new record and repoints the card at it. */
+class TextArenaCardList extends AbstractList<QuizCard> implements RandomAccess {
+    private static final int MINIMUM_ARENA = 1 << 12;
+
+    private byte[] arena;
+    private int arenaLength;
+    private int[] offsets;
+    private int size;
+
+    TextArenaCardList(){
+        arena = new byte[MINIMUM_ARENA];
+        offsets = new int[64];
+    }
+
+    @Override
+    public QuizCard get(int index){
+        if(index < 0 || index >= size){
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        int position = offsets[index];
+        int questionLength = 0;
+        for(int shift = 0; ; shift += 7){
+            byte b = arena[position++];
+            questionLength |= (b & 0x7F) << shift;
+            if(b >= 0){
+                break;
+            }
+        }
+        String question = new String(arena, position, questionLength, StandardCharsets.UTF_8);
+        position += questionLength;
+        int answerLength = 0;
+        for(int shift = 0; ; shift += 7){
+            byte b = arena[position++];
+            answerLength |= (b & 0x7F) << shift;
+            if(b >= 0){
+                break;
+            }
+        }
+        return new QuizCard(question, new String(arena, position, answerLength, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public int size(){
+        return size;
+    }
+
+    @Override
+    public void add(int index, QuizCard quizCard){
+        if(index != size){
+            throw new UnsupportedOperationException("Cards can only be appended to a text arena");
+        }
+        byte[] question = quizCard.getQuestion().getBytes(StandardCharsets.UTF_8);
+        byte[] answer = quizCard.getAnswer().getBytes(StandardCharsets.UTF_8);
+        add(question, 0, question.length, answer, 0, answer.length);
+    }
+
+    /** add - appends a card straight from UTF-8 bytes, without decoding them. */
+    void add(byte[] question, int questionOffset, int questionLength, byte[] answer, int answerOffset,
+             int answerLength){
+        if(size == offsets.length){
+            offsets = Arrays.copyOf(offsets, Math.max(size * 2, 64));
+        }
+        offsets[size++] = append(question, questionOffset, questionLength, answer, answerOffset, answerLength);
+        modCount++;
+    }
+
+    @Override
+    public QuizCard set(int index, QuizCard quizCard){
+        QuizCard previous = get(index);
+        byte[] question = quizCard.getQuestion().getBytes(StandardCharsets.UTF_8);
+        byte[] answer = quizCard.getAnswer().getBytes(StandardCharsets.UTF_8);
+        offsets[index] = append(question, 0, question.length, answer, 0, answer.length);
+        return previous;
+    }
+
+    /** trimToSize - gives back the room left over from growing, once a load has added every card. */
+    void trimToSize(){
+        if(arenaLength < arena.length){
+            arena = Arrays.copyOf(arena, arenaLength);
+        }
+        offsets = Arrays.copyOf(offsets, Math.max(size, 1));
+    }
+
+    /** getArenaLength - the bytes of text in use, including those of replaced cards. */
+    long getArenaLength(){
+        return arenaLength;
+    }
+
+    private int append(byte[] question, int questionOffset, int questionLength, byte[] answer, int answerOffset,
+                       int answerLength){
+        long needed = (long) arenaLength + questionLength + answerLength + 10;
+        if(needed > Integer.MAX_VALUE - 8){
+            throw new IllegalStateException("The text of the deck does not fit in one arena");
+        }
+        if(needed > arena.length){
+            int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(needed, (long) arena.length * 2));
+            arena = Arrays.copyOf(arena, capacity);
+        }
+        int start = arenaLength;
+        putVarint(questionLength);
+        System.arraycopy(question, questionOffset, arena, arenaLength, questionLength);
+        arenaLength += questionLength;
+        putVarint(answerLength);
+        System.arraycopy(answer, answerOffset, arena, arenaLength, answerLength);
+        arenaLength += answerLength;
+        return start;
+    }
+
+    private void putVarint(int value){
+        while((value & ~0x7F) != 0){
+            arena[arenaLength++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        arena[arenaLength++] = (byte) value;
+    }
+}
@@ -0,0 +1,32 @@
+package quizcard;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** TextDeckWriter - writes the original sentinel format, which DeckReader reads back. */
+class TextDeckWriter implements DeckWriter {
+    static final String QUIZ_CARD_TERMINATOR = "\n29rje2r9\n";
+    static final String QUIZ_CARD_SEPARATOR = "\te23bf0hj\t";
+
+    private final BufferedWriter output;
+
+    TextDeckWriter(Path path) throws IOException {
+        output = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void write(String question, String answer) throws IOException {
+        output.write(question);
+        output.write(QUIZ_CARD_SEPARATOR);
+        output.write(answer);
+        output.write(QUIZ_CARD_TERMINATOR);
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+}